@@ -0,0 +1,111 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.User;
+import com.codesphere.services.CollaborationRoom;
+import com.codesphere.services.CollaborationService;
+import com.codesphere.services.RoomMember;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CollaborationService#getActiveUsers()}, called for every refresh of the
+ * users list and the status bar, in rooms of growing size. The other users join
+ * a room hosted in this JVM before the measured client does, so make sure no
+ * collaboration hub is running on this machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ActiveUsersBenchmark {
+    
+    @Param({"1", "10", "100", "1000"})
+    public int users;
+    
+    private CollaborationRoom room;
+    private final List<PeerMember> peers = new ArrayList<>();
+    private CollaborationService service;
+    
+    @Setup
+    public void setUp() {
+        String roomId = "active-users-" + users;
+        for (int i = 1; i < users; i++) {
+            PeerMember peer = new PeerMember(i);
+            CollaborationEvent join = new CollaborationEvent();
+            join.setType("JOIN");
+            join.setUser(new User("Peer" + i, "#4285F4"));
+            join.setSessionId(i);
+            room = CollaborationRoom.join(roomId, peer, join);
+            peers.add(peer);
+        }
+        
+        service = new CollaborationService(new User("QuickCoder123", "#EA4335"));
+        service.connect(roomId);
+        int seen = service.getActiveUsers().size();
+        if (seen != users) {
+            throw new IllegalStateException("Expected " + users + " users in the room but saw " + seen
+                    + "; is a collaboration hub running?");
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        service.disconnect();
+        for (PeerMember peer : peers) {
+            room.leave(peer);
+        }
+        peers.clear();
+    }
+    
+    @Benchmark
+    public List<User> getActiveUsers() {
+        return service.getActiveUsers();
+    }
+    
+    /**
+     * A user present in the room that never edits.
+     */
+    private static class PeerMember implements RoomMember {
+        private final int sessionId;
+        
+        PeerMember(int sessionId) {
+            this.sessionId = sessionId;
+        }
+        
+        @Override
+        public int getSessionId() {
+            return sessionId;
+        }
+        
+        @Override
+        public void onSnapshot(DocumentSnapshot snapshot) {
+        }
+        
+        @Override
+        public void onEditorChange(EditorChange change) {
+        }
+        
+        @Override
+        public void onEvent(CollaborationEvent event) {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.codesphere.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+
+/**
+ * Runs benchmarks with the GC profiler and prints time and allocation side by
+ * side, so a change that trades one for the other shows up. The full results
+ * are also written as JSON (by default to jmh-result.json) to compare runs.
+ * 
+ * Takes the usual JMH command line, e.g. a benchmark regex and {@code -p}
+ * parameters:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.codesphere.benchmarks.BenchmarkReport Formatter -p documentBytes=1048576
+ * </pre>
+ */
+public class BenchmarkReport {
+    
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+                .result(commandLine.getResult().orElse("jmh-result.json"))
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        
+        System.out.println();
+        System.out.printf("%-72s %14s %-7s %12s %14s%n", "Benchmark", "Score", "Units", "Alloc MB/s", "Alloc B/op");
+        for (RunResult result : results) {
+            Result<?> primary = result.getPrimaryResult();
+            System.out.printf("%-72s %14.3f %-7s %12.1f %14.0f%n",
+                    label(result), primary.getScore(), primary.getScoreUnit(),
+                    secondary(result, "gc.alloc.rate"), secondary(result, "gc.alloc.rate.norm"));
+        }
+    }
+    
+    private static String label(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        StringBuilder label = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        for (String key : result.getParams().getParamsKeys()) {
+            label.append(' ').append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return label.toString();
+    }
+    
+    private static double secondary(RunResult result, String name) {
+        Result<?> secondary = result.getSecondaryResults().get(name);
+        return secondary != null ? secondary.getScore() : Double.NaN;
+    }
+}
@@ -0,0 +1,133 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.DocumentModel;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.StringBuilderDocument;
+import com.codesphere.services.ConvergenceClient;
+import com.codesphere.services.OperationSequencer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of integrating one edit in a room where every typist is editing
+ * concurrently. Typists take turns; each one only catches up with the room
+ * on its own turn, so its edits are based on a revision that is up to one
+ * full round of edits old and have to be transformed on both sides.
+ * One operation = one local edit, its sequencing, and its integration by
+ * every other typist.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvergenceBenchmark {
+    
+    @Param({"10", "50", "100"})
+    public int typists;
+    
+    @Param({"10000"})
+    public int documentSize;
+    
+    private OperationSequencer sequencer;
+    private ConvergenceClient[] clients;
+    private DocumentModel[] documents;
+    private int[] delivered;
+    private List<EditorChange> log;
+    private Random random;
+    private int turn;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        StringBuilder initial = new StringBuilder(documentSize);
+        for (int i = 0; i < documentSize; i++) {
+            initial.append(i % 80 == 79 ? '\n' : 'a');
+        }
+        
+        sequencer = new OperationSequencer(new StringBuilderDocument(initial.toString()));
+        clients = new ConvergenceClient[typists];
+        documents = new DocumentModel[typists];
+        delivered = new int[typists];
+        for (int i = 0; i < typists; i++) {
+            clients[i] = new ConvergenceClient(0);
+            documents[i] = new StringBuilderDocument(initial.toString());
+        }
+        log = new ArrayList<>();
+        random = new Random(42);
+        turn = 0;
+    }
+    
+    @Benchmark
+    public int concurrentTyping() {
+        int typist = turn++ % typists;
+        catchUp(typist);
+        
+        // Type or delete one character, keeping the document size stable
+        DocumentModel document = documents[typist];
+        int position = random.nextInt(document.length());
+        EditorChange change = random.nextBoolean()
+                ? new EditorChange(position, position, "x", "")
+                : new EditorChange(position, position + 1, "", null);
+        change.setSessionId(typist + 1);
+        document.apply(change);
+        
+        EditorChange toSend = clients[typist].submitLocal(change);
+        if (toSend != null) {
+            log.add(sequencer.receive(toSend));
+        }
+        return log.size();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void verifyConvergence() {
+        boolean pending = true;
+        while (pending) {
+            pending = false;
+            for (int i = 0; i < typists; i++) {
+                catchUp(i);
+                pending |= clients[i].hasPendingChanges();
+            }
+        }
+        String expected = sequencer.snapshot().toRope().toString();
+        for (int i = 0; i < typists; i++) {
+            if (!expected.equals(documents[i].getText())) {
+                throw new IllegalStateException("Typist " + i + " diverged from the room document");
+            }
+        }
+    }
+    
+    private void catchUp(int typist) {
+        ConvergenceClient client = clients[typist];
+        while (delivered[typist] < log.size()) {
+            EditorChange sequenced = log.get(delivered[typist]++);
+            if (sequenced.getSessionId() == typist + 1) {
+                EditorChange next = client.acknowledge();
+                if (next != null) {
+                    log.add(sequencer.receive(next));
+                }
+            } else {
+                EditorChange local = client.transformRemote(sequenced);
+                if (!local.isNoop()) {
+                    documents[typist].apply(local);
+                }
+            }
+        }
+    }
+}
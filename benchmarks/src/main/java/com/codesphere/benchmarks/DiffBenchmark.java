@@ -0,0 +1,60 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.services.TextDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing a document against a new version of it with a number of one-line
+ * changes spread through it, as when the editor content is replaced or a client
+ * adopts the room's copy of a document it already had.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DiffBenchmark {
+    
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int documentBytes;
+    
+    @Param({"1", "10", "100"})
+    public int changedLines;
+    
+    private String before;
+    private String after;
+    
+    @Setup
+    public void setUp() {
+        before = FormatterBenchmark.misindentedSource(EditorLanguage.JAVA, documentBytes);
+        StringBuilder edited = new StringBuilder(before);
+        Random random = new Random(42);
+        for (int i = 0; i < changedLines; i++) {
+            int lineStart = edited.lastIndexOf("\n", random.nextInt(edited.length() - 1)) + 1;
+            edited.insert(lineStart, "    ");
+        }
+        after = edited.toString();
+    }
+    
+    @Benchmark
+    public List<EditorChange> diff() {
+        return TextDiff.diff(before, after);
+    }
+}
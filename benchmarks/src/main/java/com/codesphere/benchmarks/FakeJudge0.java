@@ -0,0 +1,149 @@
+package com.codesphere.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Just enough of Judge0's API to measure a client offline: batch submissions
+ * and batch polling, with base64 fields. A submission "runs" for a fixed time
+ * and then prints its standard input back, so answers can be matched to runs.
+ * <pre>
+ *   java -cp target/benchmarks.jar com.codesphere.benchmarks.FakeJudge0 [port] [run ms]
+ * </pre>
+ */
+public class FakeJudge0 implements AutoCloseable {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    
+    private final HttpServer server;
+    private final long runMillis;
+    // Token to the submission's stdin (still base64) and when it finishes
+    private final Map<String, Submission> submissions = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    
+    public FakeJudge0(int port, long runMillis) throws IOException {
+        this.runMillis = runMillis;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        server.createContext("/submissions/batch", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "fake-judge0");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 2358;
+        long runMillis = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        new FakeJudge0(port, runMillis);
+        System.out.println("Fake Judge0 on port " + port);
+        Thread.currentThread().join();
+    }
+    
+    public URI getUri() {
+        return URI.create("http://localhost:" + server.getAddress().getPort());
+    }
+    
+    /**
+     * HTTP requests answered so far.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                JsonNode body = OBJECT_MAPPER.readTree(exchange.getRequestBody());
+                ArrayNode tokens = OBJECT_MAPPER.createArrayNode();
+                long finishAt = System.nanoTime() + runMillis * 1_000_000;
+                for (JsonNode submission : body.path("submissions")) {
+                    String token = UUID.randomUUID().toString();
+                    submissions.put(token, new Submission(submission.path("stdin").asText(), finishAt));
+                    tokens.addObject().put("token", token);
+                }
+                respond(exchange, 201, tokens);
+            } else {
+                String tokens = query(exchange.getRequestURI()).getOrDefault("tokens", "");
+                ObjectNode answer = OBJECT_MAPPER.createObjectNode();
+                ArrayNode list = answer.putArray("submissions");
+                long now = System.nanoTime();
+                for (String token : tokens.split(",")) {
+                    Submission submission = submissions.get(token);
+                    ObjectNode entry = list.addObject();
+                    entry.put("token", token);
+                    if (submission == null) {
+                        entry.putObject("status").put("id", 13).put("description", "Internal Error");
+                    } else if (now - submission.finishAt < 0) {
+                        entry.putObject("status").put("id", 2).put("description", "Processing");
+                    } else {
+                        entry.putObject("status").put("id", 3).put("description", "Accepted");
+                        entry.put("stdout", submission.stdin);
+                        entry.put("exit_code", 0);
+                        entry.put("time", String.valueOf(runMillis / 1000.0));
+                        submissions.remove(token);
+                    }
+                }
+                respond(exchange, 200, answer);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            respond(exchange, 500, OBJECT_MAPPER.createObjectNode().put("error", e.toString()));
+        }
+    }
+    
+    private static void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(pair.substring(0, equals), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+    
+    private static final class Submission {
+        final String stdin;
+        final long finishAt;
+        
+        Submission(String stdin, long finishAt) {
+            this.stdin = stdin;
+            this.finishAt = finishAt;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.services.IncrementalHighlighter;
+import com.codesphere.services.StateMachineLexer;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until a freshly opened 50 MB Java file shows colour: the visible screen
+ * at the top or in the middle of the file, against highlighting all of it first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FirstPaintBenchmark {
+    
+    private static final int DOCUMENT_BYTES = 50 * 1024 * 1024;
+    private static final int VISIBLE_LINES = 60;
+    
+    private List<String> document;
+    private IncrementalHighlighter highlighter;
+    
+    @Setup
+    public void setUp() {
+        // The sample method averages about 35 characters a line
+        document = HighlightBenchmark.javaSource(DOCUMENT_BYTES / 35);
+        highlighter = new IncrementalHighlighter(StateMachineLexer.forLanguage(EditorLanguage.JAVA));
+    }
+    
+    @Benchmark
+    public void viewportAtTop(Blackhole blackhole) {
+        highlighter.reset(document.size());
+        highlighter.paintViewport(0, VISIBLE_LINES - 1, document::get, blackhole::consume);
+    }
+    
+    @Benchmark
+    public void viewportInMiddle(Blackhole blackhole) {
+        int first = document.size() / 2;
+        highlighter.reset(document.size());
+        highlighter.paintViewport(first, first + VISIBLE_LINES - 1, document::get, blackhole::consume);
+    }
+    
+    @Benchmark
+    public StyleSpans<Collection<String>> wholeDocument() {
+        return highlighter.highlightAll(document::get, document.size());
+    }
+}
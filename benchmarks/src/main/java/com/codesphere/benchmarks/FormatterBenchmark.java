@@ -0,0 +1,119 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.services.CodeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format Code on documents from a small file to a 10 MB one: the whole document
+ * when every line needs re-indenting, the same document once it is formatted,
+ * and a screenful of selected lines in the middle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatterBenchmark {
+    
+    // Indented two spaces a level, where the formatter wants four
+    private static final String[] PYTHON_FUNCTION = {
+            "def total(values, weight):",
+            "  \"\"\"Weighted sum of the values,",
+            "  skipping the missing ones.\"\"\"",
+            "  result = 0 # running total",
+            "  for value in values:",
+            "    if value is None:",
+            "      continue",
+            "    result += value * weight",
+            "  return result",
+            "",
+    };
+    
+    private static final int SELECTED_LINES = 60;
+    
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int documentBytes;
+    
+    @Param({"JAVA", "PYTHON"})
+    public EditorLanguage language;
+    
+    private CodeFormatter formatter;
+    private String document;
+    private String formatted;
+    private int selectionStart;
+    private int selectionEnd;
+    
+    @Setup
+    public void setUp() {
+        formatter = CodeFormatter.forLanguage(language);
+        document = misindentedSource(language, documentBytes);
+        formatted = apply(document, formatter.format(document));
+        
+        selectionStart = document.indexOf('\n', document.length() / 2) + 1;
+        selectionEnd = selectionStart;
+        for (int i = 0; i < SELECTED_LINES && selectionEnd < document.length(); i++) {
+            selectionEnd = document.indexOf('\n', selectionEnd) + 1;
+        }
+    }
+    
+    @Benchmark
+    public List<EditorChange> formatDocument() {
+        return formatter.format(document);
+    }
+    
+    @Benchmark
+    public List<EditorChange> formatFormattedDocument() {
+        return formatter.format(formatted);
+    }
+    
+    @Benchmark
+    public List<EditorChange> formatSelection() {
+        return formatter.format(document, selectionStart, selectionEnd);
+    }
+    
+    /**
+     * Source with the indentation the formatter has to fix: none for Java, two
+     * spaces a level for Python.
+     */
+    static String misindentedSource(EditorLanguage language, int bytes) {
+        StringBuilder source = new StringBuilder(bytes + 100);
+        if (language == EditorLanguage.PYTHON) {
+            while (source.length() < bytes) {
+                for (String line : PYTHON_FUNCTION) {
+                    source.append(line).append('\n');
+                }
+            }
+        } else {
+            // The sample method averages about 35 characters a line
+            for (String line : HighlightBenchmark.javaSource(Math.max(2, bytes / 35))) {
+                source.append(line.trim()).append('\n');
+            }
+        }
+        return source.toString();
+    }
+    
+    private static String apply(String text, List<EditorChange> edits) {
+        StringBuilder result = new StringBuilder(text);
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            EditorChange edit = edits.get(i);
+            result.replace(edit.getStartPosition(), edit.getEndPosition(), edit.getInsertedText());
+        }
+        return result.toString();
+    }
+}
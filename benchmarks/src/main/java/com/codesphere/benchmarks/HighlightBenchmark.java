@@ -0,0 +1,97 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.services.IncrementalHighlighter;
+import com.codesphere.services.RegexLineLexer;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Highlighting cost of one keystroke in the middle of a Java file, re-lexing from
+ * the edited line against re-lexing the whole document. The incremental cost
+ * should stay flat as the document grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HighlightBenchmark {
+    
+    private static final String[] METHOD = {
+            "    /**",
+            "     * Returns the sum of the values, or \"none\" when empty.",
+            "     */",
+            "    public static int sum(int[] values) {",
+            "        int total = 0; // running total",
+            "        for (int value : values) {",
+            "            total += value;",
+            "        }",
+            "        return total;",
+            "    }",
+    };
+    
+    @Param({"1000", "20000", "200000"})
+    public int lines;
+    
+    private List<String> document;
+    private IncrementalHighlighter highlighter;
+    private int editedLine;
+    private String original;
+    private boolean edited;
+    
+    @Setup
+    public void setUp() {
+        document = javaSource(lines);
+        highlighter = new IncrementalHighlighter(RegexLineLexer.forLanguage(EditorLanguage.JAVA));
+        highlighter.highlightAll(document::get, document.size());
+        editedLine = lines / 2 + 6;
+        original = document.get(editedLine);
+    }
+    
+    /**
+     * Types and deletes a character in a method body, alternately.
+     */
+    @Benchmark
+    public void keystroke(Blackhole blackhole) {
+        edited = !edited;
+        document.set(editedLine, edited ? original + "x" : original);
+        highlighter.edit(editedLine, 0, 0, document::get, blackhole::consume);
+    }
+    
+    @Benchmark
+    public StyleSpans<Collection<String>> fullRelex() {
+        edited = !edited;
+        document.set(editedLine, edited ? original + "x" : original);
+        return highlighter.highlightAll(document::get, document.size());
+    }
+    
+    static List<String> javaSource(int lines) {
+        List<String> source = new ArrayList<>(lines);
+        source.add("public class Generated {");
+        while (source.size() < lines - 1) {
+            for (String line : METHOD) {
+                source.add(line);
+            }
+        }
+        source.add("}");
+        return source;
+    }
+}
@@ -0,0 +1,159 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.User;
+import com.codesphere.services.BinaryFrameCodec;
+import com.codesphere.services.Metrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a running collaboration hub with simulated typists and reports the
+ * acknowledgement latency of their keystrokes.
+ * <pre>
+ *   mvn compile exec:java@hub      (in the project root)
+ *   java -cp target/benchmarks.jar com.codesphere.benchmarks.HubLoadGenerator \
+ *        [rooms] [typists per room] [keystrokes per second] [seconds] [url]
+ * </pre>
+ */
+public class HubLoadGenerator {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    
+    public static void main(String[] args) throws Exception {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int typists = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int rateHz = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        String url = args.length > 4 ? args[4] : "ws://localhost:8080/collaboration";
+        
+        // One transport for all typists instead of one per connection
+        ClientManager container = ClientManager.createClient();
+        container.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+        ClientEndpointConfig config = ClientEndpointConfig.Builder.create()
+                .preferredSubprotocols(List.of(BinaryFrameCodec.BINARY_SUBPROTOCOL))
+                .build();
+        
+        List<Typist> all = new ArrayList<>();
+        int sessionId = 1;
+        for (int room = 0; room < rooms; room++) {
+            for (int t = 0; t < typists; t++) {
+                Typist typist = new Typist(sessionId++);
+                container.connectToServer(typist, config, URI.create(url + "/load-" + room));
+                all.add(typist);
+            }
+        }
+        System.out.println("Connected " + all.size() + " typists in " + rooms + " rooms");
+        
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        for (Typist typist : all) {
+            long offset = (long) (Math.random() * 1_000_000 / rateHz);
+            timer.scheduleAtFixedRate(typist::type, offset, 1_000_000 / rateHz, TimeUnit.MICROSECONDS);
+        }
+        Thread.sleep(seconds * 1000L);
+        timer.shutdownNow();
+        Thread.sleep(1000);
+        
+        for (Typist typist : all) {
+            typist.session.close();
+        }
+        System.out.println(Metrics.report());
+    }
+    
+    /**
+     * One simulated client typing at the start of its room's document. Like the
+     * editor it keeps a single keystroke in flight and sends the next one when the
+     * hub acknowledges it.
+     */
+    private static class Typist extends Endpoint implements MessageHandler.Whole<ByteBuffer> {
+        private final int sessionId;
+        private final BinaryFrameCodec codec = new BinaryFrameCodec(OBJECT_MAPPER);
+        private final AtomicLong sentAtNanos = new AtomicLong();
+        private volatile Session session;
+        private volatile long revision;
+        
+        Typist(int sessionId) {
+            this.sessionId = sessionId;
+        }
+        
+        @Override
+        public void onOpen(Session session, EndpointConfig config) {
+            this.session = session;
+            session.addMessageHandler(this);
+            try {
+                User user = new User("typist-" + sessionId, "#4285F4");
+                CollaborationEvent join = new CollaborationEvent();
+                join.setType("JOIN");
+                join.setUser(user);
+                join.setSessionId(sessionId);
+                session.getBasicRemote().sendBinary(codec.encode(join));
+                
+                CollaborationEvent open = new CollaborationEvent();
+                open.setType("OPEN_DOCUMENT");
+                open.setSessionId(sessionId);
+                open.setData(Map.of("text", ""));
+                session.getBasicRemote().sendBinary(codec.encode(open));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        
+        @Override
+        public void onMessage(ByteBuffer frame) {
+            try {
+                Object message = codec.decode(frame, id -> null);
+                if (message instanceof EditorChange) {
+                    EditorChange change = (EditorChange) message;
+                    revision = change.getRevision();
+                    if (change.getSessionId() == sessionId) {
+                        long sentAt = sentAtNanos.getAndSet(0);
+                        Metrics.histogram("load.ack_latency_us").record((System.nanoTime() - sentAt) / 1000);
+                    }
+                } else if (message instanceof DocumentSnapshot) {
+                    revision = ((DocumentSnapshot) message).getLatestRevision();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        
+        void type() {
+            // Still waiting for the previous keystroke's acknowledgement
+            if (!sentAtNanos.compareAndSet(0, System.nanoTime())) {
+                Metrics.counter("load.keystrokes.deferred").increment();
+                return;
+            }
+            EditorChange change = new EditorChange(0, 0, "x", "");
+            change.setSessionId(sessionId);
+            change.setRevision(revision);
+            try {
+                ByteBuffer frame;
+                synchronized (codec) {
+                    frame = codec.encode(change);
+                }
+                session.getAsyncRemote().sendBinary(frame);
+                Metrics.counter("load.keystrokes.sent").increment();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
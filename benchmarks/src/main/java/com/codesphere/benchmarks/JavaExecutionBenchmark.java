@@ -0,0 +1,75 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.services.InMemoryJavaBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run-to-output latency of a Java program executed in process: compiling it,
+ * loading it and running {@code main}. With {@code cached} the same source is
+ * run every time and its classes come from the compilation cache; otherwise a
+ * comment that changes on every run makes each one a miss.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JavaExecutionBenchmark {
+    
+    @Param({"true", "false"})
+    public boolean cached;
+    
+    private int runs;
+    
+    private static final String HELLO = "public class Main {\n" +
+            "    public static void main(String[] args) {\n" +
+            "        System.out.println(\"Hello, CodeSphere!\");\n" +
+            "    }\n" +
+            "}";
+    
+    private static final String SORT = "import java.util.*;\n" +
+            "\n" +
+            "public class Main {\n" +
+            "    public static void main(String[] args) {\n" +
+            "        Scanner in = new Scanner(System.in);\n" +
+            "        int n = in.nextInt();\n" +
+            "        List<Integer> values = new ArrayList<>();\n" +
+            "        Random random = new Random(n);\n" +
+            "        for (int i = 0; i < n; i++) {\n" +
+            "            values.add(random.nextInt());\n" +
+            "        }\n" +
+            "        Collections.sort(values);\n" +
+            "        System.out.println(values.get(n / 2));\n" +
+            "    }\n" +
+            "}";
+    
+    @Benchmark
+    public ExecutionResult helloWorld() throws Exception {
+        return InMemoryJavaBackend.shared().execute(new ExecutionRequest(EditorLanguage.JAVA, source(HELLO)), () -> false);
+    }
+    
+    @Benchmark
+    public ExecutionResult readInputAndSort() throws Exception {
+        ExecutionRequest request = new ExecutionRequest(EditorLanguage.JAVA, source(SORT), "100000\n", ExecutionRequest.DEFAULT_TIMEOUT_MILLIS);
+        return InMemoryJavaBackend.shared().execute(request, () -> false);
+    }
+    
+    private String source(String program) {
+        return cached ? program : program + "\n// run " + runs++;
+    }
+}
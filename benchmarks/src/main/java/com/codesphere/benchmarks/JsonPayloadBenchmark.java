@@ -0,0 +1,87 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson encode/decode of the messages that carry document text: an
+ * {@link EditorChange} pasting a block of code and the OPEN_DOCUMENT
+ * {@link CollaborationEvent} a client sends with its whole document.
+ * {@link WireFormatBenchmark} covers the small per-keystroke messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonPayloadBenchmark {
+    
+    @Param({"1024", "102400", "1048576", "10485760"})
+    public int payloadBytes;
+    
+    private ObjectMapper objectMapper;
+    private EditorChange paste;
+    private CollaborationEvent openDocument;
+    private String pasteJson;
+    private String openDocumentJson;
+    
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper();
+        User user = new User("QuickCoder123", "#4285F4");
+        // Source code, so the payload has the quotes and newlines that need escaping
+        String text = FormatterBenchmark.misindentedSource(EditorLanguage.JAVA, payloadBytes);
+        
+        paste = new EditorChange(48_213, 48_213, text, "");
+        paste.setUser(user);
+        paste.setSessionId(1_894_211_337);
+        paste.setRevision(120_455);
+        
+        openDocument = new CollaborationEvent();
+        openDocument.setType("OPEN_DOCUMENT");
+        openDocument.setUser(user);
+        openDocument.setSessionId(1_894_211_337);
+        openDocument.setData(Map.of("text", text));
+        
+        pasteJson = objectMapper.writeValueAsString(paste);
+        openDocumentJson = objectMapper.writeValueAsString(openDocument);
+    }
+    
+    @Benchmark
+    public String encodePaste() throws Exception {
+        return objectMapper.writeValueAsString(paste);
+    }
+    
+    @Benchmark
+    public EditorChange decodePaste() throws Exception {
+        return objectMapper.readValue(pasteJson, EditorChange.class);
+    }
+    
+    @Benchmark
+    public String encodeOpenDocument() throws Exception {
+        return objectMapper.writeValueAsString(openDocument);
+    }
+    
+    @Benchmark
+    public CollaborationEvent decodeOpenDocument() throws Exception {
+        return objectMapper.readValue(openDocumentJson, CollaborationEvent.class);
+    }
+}
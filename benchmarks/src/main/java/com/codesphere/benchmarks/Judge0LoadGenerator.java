@@ -0,0 +1,58 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.services.Judge0Backend;
+import com.codesphere.services.Metrics;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends a burst of concurrent runs through {@link Judge0Backend} and reports
+ * throughput, turnaround and how many HTTP requests they took. Without a URL it
+ * starts a {@link FakeJudge0} in process, so it needs no network.
+ * <pre>
+ *   java -cp target/benchmarks.jar com.codesphere.benchmarks.Judge0LoadGenerator \
+ *        [runs] [rounds] [fake run ms] [url]
+ * </pre>
+ */
+public class Judge0LoadGenerator {
+    
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long runMillis = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        FakeJudge0 fake = args.length > 3 ? null : new FakeJudge0(0, runMillis);
+        URI server = fake != null ? fake.getUri() : URI.create(args[3]);
+        Judge0Backend backend = new Judge0Backend(server, System.getProperty("codesphere.judge0.token"));
+        
+        for (int round = 1; round <= rounds; round++) {
+            long requestsBefore = fake != null ? fake.getRequests() : 0;
+            long startNanos = System.nanoTime();
+            List<CompletableFuture<ExecutionResult>> results = new ArrayList<>(runs);
+            for (int i = 0; i < runs; i++) {
+                results.add(backend.submit(new ExecutionRequest(EditorLanguage.PYTHON,
+                        "print(input())", "run " + i + "\n", ExecutionRequest.DEFAULT_TIMEOUT_MILLIS)));
+            }
+            int wrong = 0;
+            for (int i = 0; i < runs; i++) {
+                ExecutionResult result = results.get(i).join();
+                if (result.getStatus() != ExecutionResult.Status.COMPLETED || !result.getStdout().equals("run " + i + "\n")) {
+                    wrong++;
+                }
+            }
+            long millis = (System.nanoTime() - startNanos) / 1_000_000;
+            System.out.printf("Round %d: %d runs in %d ms (%.0f runs/s), %d wrong%s%n", round, runs, millis,
+                    runs * 1000.0 / Math.max(1, millis), wrong,
+                    fake != null ? ", " + (fake.getRequests() - requestsBefore) + " HTTP requests" : "");
+        }
+        System.out.println(Metrics.report());
+        if (fake != null) {
+            fake.close();
+        }
+    }
+}
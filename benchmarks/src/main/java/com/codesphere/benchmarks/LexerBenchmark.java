@@ -0,0 +1,93 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.services.LineLexer;
+import com.codesphere.services.RegexLineLexer;
+import com.codesphere.services.StateMachineLexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing a 10,000 line file with the regex lexer and the state machine lexer.
+ * The {@code hostile} input is a single line of escaped quotes, where every quote
+ * opens a string that never closes: the regex retries each one to the end of the
+ * line, the state machine gives up after the first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LexerBenchmark {
+    
+    private static final String[] JAVA_SNIPPET = {
+            "    /* Sums the values, \"none\" when empty */",
+            "    public static int sum(int[] values) {",
+            "        int total = 0; // running total",
+            "        for (int value : values) total += value;",
+            "        return total;",
+            "    }",
+    };
+    
+    private static final String[] PYTHON_SNIPPET = {
+            "def total(values):",
+            "    \"\"\"Sums the values,",
+            "    'none' when empty\"\"\"",
+            "    result = 0  # running total",
+            "    for value in values: result += value",
+            "    return result if values else 'none'",
+    };
+    
+    @Param({"JAVA", "PYTHON"})
+    public EditorLanguage language;
+    
+    @Param({"regex", "stateMachine"})
+    public String lexer;
+    
+    @Param({"source", "hostile"})
+    public String input;
+    
+    private LineLexer lineLexer;
+    private List<String> lines;
+    
+    @Setup
+    public void setUp() {
+        lineLexer = "regex".equals(lexer) ? RegexLineLexer.forLanguage(language) : StateMachineLexer.forLanguage(language);
+        lines = new ArrayList<>();
+        if ("hostile".equals(input)) {
+            lines.add("s = \"" + "\\\"".repeat(20_000));
+            return;
+        }
+        String[] snippet = language == EditorLanguage.PYTHON ? PYTHON_SNIPPET : JAVA_SNIPPET;
+        while (lines.size() < 10_000) {
+            for (String line : snippet) {
+                lines.add(line);
+            }
+        }
+    }
+    
+    @Benchmark
+    public int lexDocument(Blackhole blackhole) {
+        LineLexer.TokenSink sink = (start, end, styleClass) -> blackhole.consume(end);
+        int state = LineLexer.INITIAL_STATE;
+        for (String line : lines) {
+            state = lineLexer.lexLine(line, state, sink);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,65 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.services.ProcessPoolBackend;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run-to-output latency of a hello world run as a child process: handed to a
+ * standby interpreter for Python and JavaScript, compiled against the
+ * precompiled headers and run for C++. Needs python3, node and g++ on the path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessExecutionBenchmark {
+    
+    @Param({"PYTHON", "JAVASCRIPT", "CPP"})
+    public EditorLanguage language;
+    
+    private ExecutionRequest request;
+    
+    @Setup
+    public void setUp() throws Exception {
+        String source;
+        switch (language) {
+            case PYTHON:
+                source = "print(\"Hello, CodeSphere!\")";
+                break;
+            case JAVASCRIPT:
+                source = "console.log(\"Hello, CodeSphere!\");";
+                break;
+            default:
+                source = "#include <iostream>\n\nint main() {\n    std::cout << \"Hello, CodeSphere!\" << std::endl;\n}";
+                break;
+        }
+        request = new ExecutionRequest(language, source);
+        ProcessPoolBackend.shared().warmUp(language);
+        // The headers take seconds to build; run only once they are in place
+        if (language == EditorLanguage.CPP) {
+            Thread.sleep(15_000);
+        }
+    }
+    
+    @Benchmark
+    public ExecutionResult helloWorld() throws Exception {
+        return ProcessPoolBackend.shared().execute(request, () -> false);
+    }
+}
@@ -0,0 +1,116 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.Rope;
+import com.codesphere.services.BinaryFrameCodec;
+import com.codesphere.services.CollaborationRoom;
+import com.codesphere.services.OperationSequencer;
+import com.codesphere.services.RoomMember;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for a late joiner to get the document of a room that has seen a million
+ * edits: the room handing out its snapshot, the binary frame carrying it and the
+ * joiner rebuilding the document from it. With an interval larger than the
+ * history the room never checkpoints and the joiner replays every edit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoomJoinBenchmark {
+    
+    @Param({"1000000"})
+    public int historicalOps;
+    
+    @Param({"1024", "65536", "10000000"})
+    public int snapshotInterval;
+    
+    @Param({"65536"})
+    public int documentSize;
+    
+    private CollaborationRoom room;
+    private BinaryFrameCodec codec;
+    private Member joiner;
+    
+    @Setup
+    public void setUp() {
+        room = new CollaborationRoom("join-benchmark", snapshotInterval, OperationSequencer.DEFAULT_LOG_RETENTION);
+        codec = new BinaryFrameCodec(new ObjectMapper());
+        joiner = new Member(2);
+        
+        Member writer = new Member(1);
+        room.openDocument(writer, "");
+        Random random = new Random(42);
+        for (int i = 0; i < historicalOps; i++) {
+            EditorChange change;
+            int position = random.nextInt(writer.length + 1);
+            if (writer.length < documentSize || random.nextBoolean()) {
+                change = new EditorChange(position, position, "abcdefgh".substring(random.nextInt(8)), "");
+            } else {
+                int end = Math.min(writer.length, position + 1 + random.nextInt(8));
+                change = new EditorChange(position, end, "", null);
+            }
+            change.setRevision(writer.revision);
+            room.submit(writer, change);
+        }
+    }
+    
+    @Benchmark
+    public Rope lateJoin() throws Exception {
+        room.openDocument(joiner, "");
+        ByteBuffer frame = codec.encode(joiner.snapshot);
+        DocumentSnapshot received = (DocumentSnapshot) codec.decode(frame, sessionId -> null);
+        return received.toRope();
+    }
+    
+    private static class Member implements RoomMember {
+        private final int sessionId;
+        private DocumentSnapshot snapshot;
+        private long revision;
+        private int length;
+        
+        Member(int sessionId) {
+            this.sessionId = sessionId;
+        }
+        
+        @Override
+        public int getSessionId() {
+            return sessionId;
+        }
+        
+        @Override
+        public void onSnapshot(DocumentSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+        
+        @Override
+        public void onEditorChange(EditorChange change) {
+            revision = change.getRevision();
+            length += change.getInsertedLength() - (change.getEndPosition() - change.getStartPosition());
+        }
+        
+        @Override
+        public void onEvent(CollaborationEvent event) {
+        }
+    }
+}
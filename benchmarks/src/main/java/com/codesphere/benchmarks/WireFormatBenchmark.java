@@ -0,0 +1,122 @@
+package com.codesphere.benchmarks;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.User;
+import com.codesphere.services.BinaryFrameCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of a single keystroke and a cursor move, Jackson JSON
+ * versus {@link BinaryFrameCodec}. Run the class's main method to print the
+ * size of each message in both formats.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WireFormatBenchmark {
+    
+    private ObjectMapper objectMapper;
+    private BinaryFrameCodec codec;
+    private User user;
+    
+    private EditorChange keystroke;
+    private CollaborationEvent cursorMove;
+    private String keystrokeJson;
+    private String cursorMoveJson;
+    private ByteBuffer keystrokeFrame;
+    private ByteBuffer cursorMoveFrame;
+    
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper();
+        codec = new BinaryFrameCodec(objectMapper);
+        user = new User("QuickCoder123", "#4285F4");
+        
+        keystroke = new EditorChange(48_213, 48_213, "x", "");
+        keystroke.setUser(user);
+        keystroke.setSessionId(1_894_211_337);
+        keystroke.setRevision(120_455);
+        
+        cursorMove = new CollaborationEvent();
+        cursorMove.setType("CURSOR_MOVE");
+        cursorMove.setUser(user);
+        cursorMove.setSessionId(1_894_211_337);
+        cursorMove.setData(Map.of("line", 1_204, "column", 37));
+        
+        keystrokeJson = objectMapper.writeValueAsString(keystroke);
+        cursorMoveJson = objectMapper.writeValueAsString(cursorMove);
+        keystrokeFrame = codec.encode(keystroke);
+        cursorMoveFrame = codec.encode(cursorMove);
+    }
+    
+    @Benchmark
+    public String jsonEncodeKeystroke() throws Exception {
+        return objectMapper.writeValueAsString(keystroke);
+    }
+    
+    @Benchmark
+    public ByteBuffer binaryEncodeKeystroke() {
+        return codec.encode(keystroke);
+    }
+    
+    @Benchmark
+    public EditorChange jsonDecodeKeystroke() throws Exception {
+        return objectMapper.readValue(keystrokeJson, EditorChange.class);
+    }
+    
+    @Benchmark
+    public Object binaryDecodeKeystroke() throws Exception {
+        return codec.decode(keystrokeFrame.duplicate(), id -> user);
+    }
+    
+    @Benchmark
+    public String jsonEncodeCursorMove() throws Exception {
+        return objectMapper.writeValueAsString(cursorMove);
+    }
+    
+    @Benchmark
+    public ByteBuffer binaryEncodeCursorMove() throws Exception {
+        return codec.encode(cursorMove);
+    }
+    
+    @Benchmark
+    public CollaborationEvent jsonDecodeCursorMove() throws Exception {
+        return objectMapper.readValue(cursorMoveJson, CollaborationEvent.class);
+    }
+    
+    @Benchmark
+    public Object binaryDecodeCursorMove() throws Exception {
+        return codec.decode(cursorMoveFrame.duplicate(), id -> user);
+    }
+    
+    public static void main(String[] args) throws Exception {
+        WireFormatBenchmark benchmark = new WireFormatBenchmark();
+        benchmark.setUp();
+        System.out.printf("%-12s %10s %10s%n", "message", "json bytes", "binary bytes");
+        System.out.printf("%-12s %10d %10d%n", "keystroke",
+                benchmark.keystrokeJson.getBytes(StandardCharsets.UTF_8).length,
+                benchmark.keystrokeFrame.remaining());
+        System.out.printf("%-12s %10d %10d%n", "cursor move",
+                benchmark.cursorMoveJson.getBytes(StandardCharsets.UTF_8).length,
+                benchmark.cursorMoveFrame.remaining());
+    }
+}
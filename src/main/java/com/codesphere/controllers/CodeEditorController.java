@@ -2,32 +2,50 @@ package com.codesphere.controllers;
 
 import com.codesphere.models.EditorChange;
 import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.models.ResourceUsage;
+import com.codesphere.models.Rope;
+import com.codesphere.models.RopeDocument;
+import com.codesphere.models.TestCase;
+import com.codesphere.models.TestCaseResult;
 import com.codesphere.models.User;
+import com.codesphere.services.BackgroundComputeService;
+import com.codesphere.services.BackgroundComputeService.Priority;
+import com.codesphere.services.CodeFormatter;
 import com.codesphere.services.CollaborationService;
+import com.codesphere.services.CursorBroadcaster;
+import com.codesphere.services.ExecutionBackend;
+import com.codesphere.services.ExecutionScheduler;
+import com.codesphere.services.InMemoryJavaBackend;
+import com.codesphere.services.IncrementalHighlighter;
+import com.codesphere.services.Judge0Backend;
+import com.codesphere.services.Metrics;
+import com.codesphere.services.OutputBuffer;
+import com.codesphere.services.ProcessPoolBackend;
+import com.codesphere.services.StateMachineLexer;
+import com.codesphere.services.TestSuiteRunner;
+import com.codesphere.services.TextDiff;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
+import javafx.scene.control.IndexRange;
 import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
-import org.fxmisc.richtext.model.StyleSpans;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.MultiChangeBuilder;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
 
-import java.time.Duration;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.regex.MatchResult;
 
 /**
  * Controller for the code editor component
@@ -47,58 +65,37 @@ public class CodeEditorController {
     private HBox activeCursorsContainer;
     
     @FXML
-    private TextArea outputArea;
+    private OutputConsole outputArea;
     
     private CodeArea codeArea;
+    
+    // Mirror of the editor text that background work reads through O(1) snapshots
+    private final RopeDocument document = new RopeDocument();
+    private final TestSuiteRunner testSuiteRunner = new TestSuiteRunner(ExecutionScheduler.shared());
     private User currentUser;
     private CollaborationService collaborationService;
-    private ExecutorService executor;
     private String roomId = "default-room";
     private boolean isDirtyFlag = false;
-    private boolean isInitialLoad = true;
-    
-    // Maps to track remote cursors
-    private final Map<String, Integer> remoteCursors = new HashMap<>();
-    
-    // Pattern for Java syntax highlighting
-    private static final String JAVA_KEYWORDS = "\\b(abstract|assert|boolean|break|byte|case|catch|char|class|const|continue|default|do|double|else|enum|extends|final|finally|float|for|goto|if|implements|import|instanceof|int|interface|long|native|new|package|private|protected|public|return|short|static|strictfp|super|switch|synchronized|this|throw|throws|transient|true|try|void|volatile|while)\\b";
-    private static final String JAVA_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
-    private static final String JAVA_COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/";
-    private static final Pattern JAVA_PATTERN = Pattern.compile(
-            "(?<KEYWORD>" + JAVA_KEYWORDS + ")"
-            + "|(?<STRING>" + JAVA_STRING_PATTERN + ")"
-            + "|(?<COMMENT>" + JAVA_COMMENT_PATTERN + ")"
-    );
-    
-    // Pattern for Python syntax highlighting
-    private static final String PYTHON_KEYWORDS = "\\b(and|as|assert|break|class|continue|def|del|elif|else|except|finally|for|from|global|if|import|in|is|lambda|nonlocal|not|or|pass|raise|return|try|while|with|yield)\\b";
-    private static final String PYTHON_STRING_PATTERN = "\"\"\"(.|\\R)*?\"\"\"" + "|" + "'''(.|\\R)*?'''" + "|" + "\"([^\"\\\\]|\\\\.)*\"" + "|" + "'([^'\\\\]|\\\\.)*'";
-    private static final String PYTHON_COMMENT_PATTERN = "#[^\n]*";
-    private static final Pattern PYTHON_PATTERN = Pattern.compile(
-            "(?<KEYWORD>" + PYTHON_KEYWORDS + ")"
-            + "|(?<STRING>" + PYTHON_STRING_PATTERN + ")"
-            + "|(?<COMMENT>" + PYTHON_COMMENT_PATTERN + ")"
-    );
-    
-    // Pattern for C++ syntax highlighting
-    private static final String CPP_KEYWORDS = "\\b(auto|break|case|catch|char|class|const|continue|default|delete|do|double|else|enum|explicit|export|extern|float|for|friend|goto|if|implements|import|in|instanceof|int|interface|let|long|native|new|null|package|private|protected|public|register|return|short|signed|sizeof|static|struct|switch|template|this|throw|throws|transient|true|try|typeof|var|void|volatile|while)\\b";
-    private static final String CPP_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
-    private static final String CPP_COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/";
-    private static final Pattern CPP_PATTERN = Pattern.compile(
-            "(?<KEYWORD>" + CPP_KEYWORDS + ")"
-            + "|(?<STRING>" + CPP_STRING_PATTERN + ")"
-            + "|(?<COMMENT>" + CPP_COMMENT_PATTERN + ")"
-    );
-    
-    // Pattern for JavaScript syntax highlighting
-    private static final String JS_KEYWORDS = "\\b(abstract|arguments|await|boolean|break|byte|case|catch|char|class|const|continue|debugger|default|delete|do|double|else|enum|eval|export|extends|false|final|finally|float|for|function|goto|if|implements|import|in|instanceof|int|interface|let|long|native|new|null|package|private|protected|public|return|short|static|super|switch|synchronized|this|throw|throws|transient|true|try|typeof|var|void|volatile|while|with|yield)\\b";
-    private static final String JS_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"" + "|" + "'([^'\\\\]|\\\\.)*'";
-    private static final String JS_COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/";
-    private static final Pattern JS_PATTERN = Pattern.compile(
-            "(?<KEYWORD>" + JS_KEYWORDS + ")"
-            + "|(?<STRING>" + JS_STRING_PATTERN + ")"
-            + "|(?<COMMENT>" + JS_COMMENT_PATTERN + ")"
-    );
+    
+    // Edits made while the latest format pass runs, to move its result past them
+    private List<EditorChange> changesSinceFormat;
+    
+    // Set while the editor text is changed programmatically (templates, remote edits)
+    private boolean suppressChangeCapture = false;
+    
+    // Latest remote cursor per session (packed line/column), written off the FX thread
+    private final Map<Integer, Long> remoteCursors = new ConcurrentHashMap<>();
+    private final Map<Integer, User> remoteCursorUsers = new ConcurrentHashMap<>();
+    private final AtomicBoolean cursorRefreshScheduled = new AtomicBoolean();
+    
+    // Keeps the lexer state of every paragraph so edits only re-lex what they affect
+    private final IncrementalHighlighter highlighter = new IncrementalHighlighter(StateMachineLexer.forLanguage(EditorLanguage.JAVA));
+    
+    // Paragraphs still to highlight are lexed in slices between pulses; a scroll or edit supersedes the pass
+    private static final long HIGHLIGHT_SLICE_NANOS = 4_000_000;
+    private static final int HIGHLIGHT_CHUNK_LINES = 500;
+    private static final int INITIAL_VIEWPORT_LINES = 100;
+    private long highlightGeneration;
     
     private static final String JAVA_TEMPLATE = "public class Main {\n" +
             "    public static void main(String[] args) {\n" +
@@ -127,7 +124,6 @@ public class CodeEditorController {
     
     public void initialize(User user) {
         this.currentUser = user;
-        this.executor = Executors.newSingleThreadExecutor();
         
         // Initialize code area with proper settings to enable editing
         codeArea = new CodeArea();
@@ -141,51 +137,28 @@ public class CodeEditorController {
         
         codeArea.setStyle("-fx-font-family: 'Monospaced'; -fx-font-size: 14px;");
         
-        // Add syntax highlighting
-        codeArea.richChanges()
-                .filter(ch -> !ch.getInserted().equals(ch.getRemoved())) // Filter out no-op changes
-                .successionEnds(Duration.ofMillis(500))
-                .supplyTask(() -> {
-                    javafx.concurrent.Task<StyleSpans<Collection<String>>> task = new javafx.concurrent.Task<>() {
-                        @Override
-                        protected StyleSpans<Collection<String>> call() {
-                            return computeHighlighting();
-                        }
-                    };
-                    return task;
-                })
-                .awaitLatest(codeArea.richChanges())
-                .filterMap(t -> {
-                    if (t.isSuccess()) {
-                        return java.util.Optional.of(t.get());
-                    } else {
-                        t.getFailure().printStackTrace();
-                        return java.util.Optional.empty();
-                    }
-                })
-                .subscribe(this::applyHighlighting);
-        
-        // Track changes for collaboration
-        codeArea.textProperty().addListener((obs, oldText, newText) -> {
-            if (oldText == null || newText == null) return;
-            
-            // Skip initial loading changes
-            if (isInitialLoad) {
-                isInitialLoad = false;
-                return;
-            }
-            
-            isDirtyFlag = true;
-            
-            // Only send changes if connected to a room and not initial loading
-            if (collaborationService != null && isDirtyFlag) {
-                EditorChange change = new EditorChange();
-                change.setStartPosition(0);
-                change.setEndPosition(oldText.length());
-                change.setInsertedText(newText);
-                change.setRemovedText(oldText);
-                
-                collaborationService.sendEditorChange(change);
+        // Keep the document model in step with every edit, local or remote
+        codeArea.plainTextChanges()
+                .subscribe(ch -> document.replace(ch.getPosition(), ch.getRemovalEnd(), ch.getInserted()));
+        codeArea.plainTextChanges()
+                .filter(ch -> changesSinceFormat != null && !ch.isIdentity())
+                .subscribe(ch -> changesSinceFormat.add(
+                        new EditorChange(ch.getPosition(), ch.getRemovalEnd(), ch.getInserted(), ch.getRemoved())));
+        
+        // Add syntax highlighting, re-lexing only the paragraphs an edit affects
+        codeArea.multiPlainChanges()
+                .subscribe(this::updateHighlighting);
+        codeArea.estimatedScrollYProperty().addListener((obs, oldY, newY) -> highlightViewport());
+        
+        // Track changes for collaboration as minimal range deltas
+        codeArea.plainTextChanges()
+                .filter(ch -> !ch.isIdentity())
+                .subscribe(this::captureLocalChange);
+        
+        // Share the caret position with collaborators; only the latest one is sent
+        codeArea.caretPositionProperty().addListener((obs, oldPos, newPos) -> {
+            if (collaborationService != null) {
+                collaborationService.sendCursorPosition(codeArea.getCurrentParagraph(), codeArea.getCaretColumn());
             }
         });
         
@@ -204,66 +177,112 @@ public class CodeEditorController {
         codeEditorContainer.setOnMouseClicked(event -> {
             codeArea.requestFocus();
         });
+        
+        // Load the Java compiler while the user is still typing
+        BackgroundComputeService.shared().submit(Priority.WARM_UP, "java_warm_up", cancellation -> {
+            InMemoryJavaBackend.shared().warmUp();
+            return null;
+        });
     }
     
-    public void connectToRoom(String roomId) {
+    /**
+     * Shares this editor's document through the room's collaboration service, which
+     * the caller creates for the join, connects through this method and disconnects.
+     */
+    public void connectToRoom(String roomId, CollaborationService collaborationService) {
         this.roomId = roomId;
+        this.collaborationService = collaborationService;
+        collaborationService.setDocumentExecutor(Platform::runLater);
         
-        // Initialize collaboration service
-        collaborationService = new CollaborationService(currentUser);
-        collaborationService.connect(roomId);
-        
-        collaborationStatusLabel.setText("Connected to room: " + roomId);
-        
-        // Listen for cursor position changes
-        codeArea.caretPositionProperty().addListener((obs, oldPos, newPos) -> {
-            int line = codeArea.getCurrentParagraph();
-            int column = codeArea.getCaretColumn();
-            
-            // Send cursor position to collaborators
-            collaborationService.sendCursorPosition(line, column);
-        });
-        
-        // Listen for editor changes from collaborators
+        // Listen for editor changes from collaborators, already on the FX thread and
+        // transformed against our unacknowledged edits, so apply them right away
         collaborationService.addEditorChangeListener(change -> {
-            Platform.runLater(() -> {
-                // Don't process our own changes to avoid circular updates
-                if (!change.getUser().getId().equals(currentUser.getId())) {
-                    // Temporarily disable dirty flag to avoid sending the change back
-                    isDirtyFlag = false;
-                    codeArea.replaceText(change.getStartPosition(), change.getEndPosition(), change.getInsertedText());
-                    isDirtyFlag = true;
-                }
-            });
+            // Suppress capture to avoid sending the change back
+            suppressChangeCapture = true;
+            try {
+                codeArea.replaceText(change.getStartPosition(), change.getEndPosition(), change.getInsertedText());
+            } finally {
+                suppressChangeCapture = false;
+            }
         });
         
         // Listen for collaboration events (cursor movements, etc.)
         collaborationService.addCollaborationEventListener(event -> {
             if ("CURSOR_MOVE".equals(event.getType())) {
-                String userId = event.getUser().getId();
                 Map<String, Object> data = event.getData();
-                int line = (int) data.get("line");
-                int column = (int) data.get("column");
+                int line = ((Number) data.get("line")).intValue();
+                int column = ((Number) data.get("column")).intValue();
                 
-                // Store cursor position
-                remoteCursors.put(userId, codeArea.getAbsolutePosition(line, column));
+                // Keep only the latest position per session
+                remoteCursors.put(event.getSessionId(), CursorBroadcaster.pack(line, column));
+                remoteCursorUsers.put(event.getSessionId(), event.getUser());
                 
                 // Update UI to show remote cursors
-                Platform.runLater(() -> {
-                    updateRemoteCursorsDisplay();
-                });
+                scheduleRemoteCursorsRefresh();
+            } else if ("LEAVE".equals(event.getType())) {
+                remoteCursors.remove(event.getSessionId());
+                remoteCursorUsers.remove(event.getSessionId());
+                // Take the departed user's cursor off the display
+                scheduleRemoteCursorsRefresh();
             }
         });
+        
+        // The handshake and the wait for the room's text must not hold up the FX thread
+        collaborationStatusLabel.setText("Connecting to room: " + roomId);
+        collaborationService.connectInBackground(roomId, codeArea::getText).thenAccept(joined -> {
+            // Already on the FX thread; a newer join has its own status
+            if (this.collaborationService != collaborationService) return;
+            collaborationStatusLabel.setText(joined
+                    ? "Connected to room: " + roomId
+                    : "Connected to room: " + roomId + ", without the shared document");
+        });
+    }
+    
+    /**
+     * Stops sharing the document; the caller disconnects the service.
+     */
+    public void disconnectFromRoom() {
+        collaborationService = null;
+        remoteCursors.clear();
+        remoteCursorUsers.clear();
+        updateRemoteCursorsDisplay();
+        collaborationStatusLabel.setText("Not connected");
+    }
+    
+    private void captureLocalChange(PlainTextChange textChange) {
+        if (suppressChangeCapture) return;
+        
+        isDirtyFlag = true;
+        
+        // Only send changes if connected to a room
+        if (collaborationService == null) return;
+        
+        // Adjacent typing is merged while the previous change awaits acknowledgement
+        EditorChange change = new EditorChange(
+                textChange.getPosition(),
+                textChange.getRemovalEnd(),
+                textChange.getInserted(),
+                textChange.getRemoved());
+        collaborationService.sendEditorChange(change);
+    }
+    
+    /**
+     * Updates the remote cursors display from any thread, at most once per pulse.
+     */
+    private void scheduleRemoteCursorsRefresh() {
+        if (cursorRefreshScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                cursorRefreshScheduled.set(false);
+                updateRemoteCursorsDisplay();
+            });
+        }
     }
     
     private void updateRemoteCursorsDisplay() {
         activeCursorsContainer.getChildren().clear();
         
-        remoteCursors.forEach((userId, position) -> {
-            // Find the user from the collaboration service
-            User user = collaborationService.getActiveUsers().stream()
-                    .filter(u -> u.getId().equals(userId))
-                    .findFirst().orElse(null);
+        remoteCursors.forEach((remoteSessionId, position) -> {
+            User user = remoteCursorUsers.get(remoteSessionId);
             
             if (user != null) {
                 Label cursorLabel = new Label(user.getName());
@@ -282,21 +301,24 @@ public class CodeEditorController {
         
         // Only replace with template if empty or contains a default template
         if (wasEmpty || isDefault) {
-            isInitialLoad = true;  // Prevent sending template as collaboration change
-            
-            switch (language) {
-                case JAVA:
-                    codeArea.replaceText(JAVA_TEMPLATE);
-                    break;
-                case PYTHON:
-                    codeArea.replaceText(PYTHON_TEMPLATE);
-                    break;
-                case CPP:
-                    codeArea.replaceText(CPP_TEMPLATE);
-                    break;
-                case JAVASCRIPT:
-                    codeArea.replaceText(JAVASCRIPT_TEMPLATE);
-                    break;
+            suppressChangeCapture = true;  // Prevent sending template as collaboration change
+            try {
+                switch (language) {
+                    case JAVA:
+                        codeArea.replaceText(JAVA_TEMPLATE);
+                        break;
+                    case PYTHON:
+                        codeArea.replaceText(PYTHON_TEMPLATE);
+                        break;
+                    case CPP:
+                        codeArea.replaceText(CPP_TEMPLATE);
+                        break;
+                    case JAVASCRIPT:
+                        codeArea.replaceText(JAVASCRIPT_TEMPLATE);
+                        break;
+                }
+            } finally {
+                suppressChangeCapture = false;
             }
             
             // Reset dirty flag as this is just template loading
@@ -304,7 +326,14 @@ public class CodeEditorController {
         }
         
         // Trigger syntax highlighting
-        codeArea.setStyleSpans(0, computeHighlighting());
+        highlighter.setLexer(StateMachineLexer.forLanguage(language));
+        highlighter.reset(codeArea.getParagraphs().size());
+        highlightViewport();
+        
+        // Have the interpreter or headers ready by the time the user presses Run
+        if (!Judge0Backend.isConfigured()) {
+            ProcessPoolBackend.shared().warmUp(language);
+        }
     }
     
     private boolean isDefaultTemplate(String code) {
@@ -315,306 +344,256 @@ public class CodeEditorController {
     }
     
     public void executeCode() {
-        // Get the code and language
-        String code = codeArea.getText();
+        // Get the code and language; the snapshot is only turned into a string off the FX thread
+        Rope snapshot = document.snapshot();
         EditorLanguage language = languageSelector.getValue();
         
         // Clear previous output
         outputArea.clear();
-        outputArea.setText("Executing " + language + " code...\n");
-        
-        // Here we would normally send to a backend service to execute
-        // For now, just simulate execution with a delay
-        new Thread(() -> {
-            try {
-                // Simulate processing time
-                Thread.sleep(1000);
-                
-                // Generate output based on language
-                String output;
-                switch (language) {
-                    case JAVA:
-                        output = simulateJavaExecution(code);
-                        break;
-                    case PYTHON:
-                        output = simulatePythonExecution(code);
-                        break;
-                    case CPP:
-                        output = simulateCppExecution(code);
-                        break;
-                    case JAVASCRIPT:
-                        output = simulateJavaScriptExecution(code);
-                        break;
-                    default:
-                        output = "Unsupported language";
+        outputArea.append("Executing " + language + " code...\n", false);
+        
+        // Output is shown as it is printed, a frame's worth at a time
+        OutputBuffer buffer = new OutputBuffer(OutputBuffer.DEFAULT_CAPACITY);
+        outputArea.follow(buffer);
+        
+        // Shared fairly with everyone else's runs; a new run supersedes this user's previous one
+        ExecutionScheduler.shared().submit(roomId, currentUser.getId(), cancellation -> {
+            String code = snapshot.toString();
+            return backendFor(language).execute(new ExecutionRequest(language, code), buffer, cancellation);
+        }, queueStatus()).getResult().whenComplete((result, error) -> {
+            // A superseded run leaves the output to the run that replaced it
+            if (error instanceof CancellationException) return;
+            
+            // Update UI on JavaFX thread
+            Platform.runLater(() -> {
+                outputArea.finish(buffer);
+                outputArea.startLine();
+                if (error != null) {
+                    outputArea.append("\nExecution failed: " + error.getMessage(), true);
+                } else if (result.getStatus() == ExecutionResult.Status.COMPILE_ERROR) {
+                    outputArea.append("Compilation failed:\n" + result.getStderr(), true);
+                } else {
+                    outputArea.append("\n" + describe(result), false);
                 }
-                
-                // Update UI on JavaFX thread
-                Platform.runLater(() -> {
-                    outputArea.appendText("\n" + output);
-                });
-            } catch (InterruptedException e) {
-                Platform.runLater(() -> {
-                    outputArea.appendText("\nExecution interrupted");
-                });
-            }
-        }).start();
+            });
+        });
     }
     
-    private String simulateJavaExecution(String code) {
-        StringBuilder output = new StringBuilder();
+    /**
+     * Runs the program once per test case, listing each case as it passes or
+     * fails. Like {@link #executeCode}, it is cancelled by the next run.
+     */
+    public void runTestSuite(List<TestCase> cases, boolean stopAtFirstFailure) {
+        EditorLanguage language = languageSelector.getValue();
+        ExecutionRequest program = new ExecutionRequest(language, document.snapshot().toString());
         
-        try {
-            // Check if code contains System.out.println
-            if (code.contains("System.out.println") || code.contains("System.out.print")) {
-                // Extract content inside println
-                List<String> printStatements = new ArrayList<>();
-                
-                // Handle both println and print
-                String printlnRegex = "System\\.out\\.println\\s*\\(\\s*[\"'](.+?)[\"']\\s*\\)";
-                String printRegex = "System\\.out\\.print\\s*\\(\\s*[\"'](.+?)[\"']\\s*\\)";
-                
-                Pattern printlnPattern = Pattern.compile(printlnRegex);
-                Matcher printlnMatcher = printlnPattern.matcher(code);
-                while (printlnMatcher.find()) {
-                    printStatements.add(printlnMatcher.group(1) + "\n");
-                }
-                
-                Pattern printPattern = Pattern.compile(printRegex);
-                Matcher printMatcher = printPattern.matcher(code);
-                while (printMatcher.find()) {
-                    printStatements.add(printMatcher.group(1));
-                }
-                
-                if (!printStatements.isEmpty()) {
-                    for (String statement : printStatements) {
-                        output.append(statement);
-                    }
+        outputArea.clear();
+        outputArea.append("Running " + cases.size() + " test cases in " + language + "...\n", false);
+        OutputBuffer buffer = new OutputBuffer(OutputBuffer.DEFAULT_CAPACITY);
+        outputArea.follow(buffer);
+        
+        testSuiteRunner.run(roomId, currentUser.getId(), backendFor(language), program, cases, stopAtFirstFailure,
+                queueStatus(), result -> buffer.output(describe(result) + "\n", !result.isPassed())
+        ).whenComplete((suite, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof CancellationException) return;
+            
+            Platform.runLater(() -> {
+                outputArea.finish(buffer);
+                outputArea.startLine();
+                if (cause != null) {
+                    outputArea.append("\nTest run failed: " + cause.getMessage(), true);
+                } else if (suite.getCompileError() != null) {
+                    outputArea.append("Compilation failed:\n" + suite.getCompileError().getStderr(), true);
                 } else {
-                    // Handle more complex print statements with variables
-                    output.append("Output contains dynamic variables (not shown in simulation)\n");
+                    int ran = suite.getResults().size();
+                    outputArea.append("\nPassed " + suite.getPassed() + " of " + ran + " test cases in " + suite.getMillis() + " ms"
+                            + (suite.isStoppedEarly() ? ", stopped at the first failure" : ""), suite.getPassed() < ran);
                 }
-            } else {
-                output.append("No output detected in code.\n");
-            }
-            
-            // Additional code analysis for educational purposes
-            if (code.contains("for") && code.contains("while")) {
-                output.append("\nNote: Your code contains both for and while loops.\n");
-            }
-            
-            if (code.contains("try") && code.contains("catch")) {
-                output.append("Note: Your code includes exception handling.\n");
-            }
-            
-            output.append("\nJava compilation successful.\nExecution completed in 0.25s");
-        } catch (Exception e) {
-            output.append("Error analyzing code: ").append(e.getMessage()).append("\n");
+            });
+        });
+    }
+    
+    private static ExecutionBackend backendFor(EditorLanguage language) {
+        if (Judge0Backend.isConfigured()) {
+            return Judge0Backend.shared();
         }
-        
-        return output.toString();
+        return language == EditorLanguage.JAVA ? InMemoryJavaBackend.shared() : ProcessPoolBackend.shared();
     }
     
-    private String simulatePythonExecution(String code) {
-        StringBuilder output = new StringBuilder();
-        
-        try {
-            // Check if code contains print
-            if (code.contains("print")) {
-                // Extract content inside print
-                List<String> printStatements = new ArrayList<>();
-                String regex = "print\\s*\\(\\s*[\"'](.+?)[\"']\\s*\\)";
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher = pattern.matcher(code);
-                
-                while (matcher.find()) {
-                    printStatements.add(matcher.group(1));
-                }
-                
-                if (!printStatements.isEmpty()) {
-                    for (String statement : printStatements) {
-                        output.append(statement).append("\n");
-                    }
-                } else {
-                    // Handle more complex print statements with variables
-                    output.append("Output contains dynamic variables (not shown in simulation)\n");
-                }
-            } else {
-                output.append("No output detected in code.\n");
+    /**
+     * Shows a waiting run's place in the queue until it starts.
+     */
+    private ExecutionScheduler.QueueListener queueStatus() {
+        return new ExecutionScheduler.QueueListener() {
+            @Override
+            public void waiting(int ahead) {
+                Platform.runLater(() -> outputArea.showStatus(ahead == 0
+                        ? "Waiting for a free runner, next in line"
+                        : "Waiting for a free runner, " + ahead + (ahead == 1 ? " run" : " runs") + " ahead"));
             }
             
-            // Additional code analysis
-            if (code.contains("def ")) {
-                output.append("\nNote: Your code defines one or more functions.\n");
+            @Override
+            public void started() {
+                Platform.runLater(outputArea::clearStatus);
             }
-            
-            if (code.contains("class ")) {
-                output.append("Note: Your code defines one or more classes.\n");
-            }
-            
-            output.append("\nPython execution completed in 0.12s");
-        } catch (Exception e) {
-            output.append("Error analyzing code: ").append(e.getMessage()).append("\n");
+        };
+    }
+    
+    /**
+     * One line for a finished test case.
+     */
+    private static String describe(TestCaseResult caseResult) {
+        ExecutionResult result = caseResult.getResult();
+        String name = caseResult.getTestCase().getName();
+        if (caseResult.isPassed()) {
+            return "PASS " + name + " (" + result.getRunMillis() + " ms)";
         }
-        
-        return output.toString();
+        switch (result.getStatus()) {
+            case TIMED_OUT:
+                return "FAIL " + name + ": timed out after " + result.getRunMillis() + " ms";
+            case OUTPUT_LIMIT_EXCEEDED:
+                return "FAIL " + name + ": printed too much output";
+            case CPU_LIMIT_EXCEEDED:
+                return "FAIL " + name + ": used too much CPU time (" + result.getUsage().getCpuMillis() + " ms)";
+            case MEMORY_LIMIT_EXCEEDED:
+                return "FAIL " + name + ": used too much memory (" + formatBytes(result.getUsage().getPeakMemoryBytes()) + ")";
+            case COMPLETED:
+                // An error exit code is reported like a crash
+                return result.getExitCode() == 0 ? "FAIL " + name + ": wrong answer" : describeCrash(name, result);
+            default:
+                return describeCrash(name, result);
+        }
+    }
+    
+    /**
+     * The exit code and the first line of standard error.
+     */
+    private static String describeCrash(String name, ExecutionResult result) {
+        String stderr = result.getStderr().trim();
+        int newline = stderr.indexOf('\n');
+        return "FAIL " + name + ": exit code " + result.getExitCode()
+                + (stderr.isEmpty() ? "" : ", " + (newline < 0 ? stderr : stderr.substring(0, newline)));
     }
     
-    private String simulateCppExecution(String code) {
+    /**
+     * How a run ended and what it used, shown after its output.
+     */
+    private static String describe(ExecutionResult result) {
         StringBuilder output = new StringBuilder();
-        
-        try {
-            // Check if code contains cout
-            if (code.contains("cout") || code.contains("printf")) {
-                // Extract content inside cout
-                List<String> printStatements = new ArrayList<>();
-                String coutRegex = "cout\\s*<<\\s*[\"'](.+?)[\"']";
-                String printfRegex = "printf\\s*\\(\\s*[\"'](.+?)[\"']";
-                
-                Pattern coutPattern = Pattern.compile(coutRegex);
-                Matcher coutMatcher = coutPattern.matcher(code);
-                while (coutMatcher.find()) {
-                    printStatements.add(coutMatcher.group(1));
-                }
-                
-                Pattern printfPattern = Pattern.compile(printfRegex);
-                Matcher printfMatcher = printfPattern.matcher(code);
-                while (printfMatcher.find()) {
-                    printStatements.add(printfMatcher.group(1));
-                }
-                
-                if (!printStatements.isEmpty()) {
-                    for (String statement : printStatements) {
-                        output.append(statement).append("\n");
-                    }
-                } else {
-                    // Handle more complex print statements with variables
-                    output.append("Output contains dynamic variables (not shown in simulation)\n");
-                }
-            } else {
-                output.append("No output detected in code.\n");
-            }
-            
-            // Additional code analysis
-            if (code.contains("struct ")) {
-                output.append("\nNote: Your code defines one or more structs.\n");
+        ResourceUsage usage = result.getUsage();
+        if (result.getStatus() == ExecutionResult.Status.TIMED_OUT) {
+            output.append("Timed out after ").append(result.getRunMillis()).append(" ms");
+        } else if (result.getStatus() == ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED) {
+            output.append("Stopped after ").append(result.getRunMillis()).append(" ms for printing too much output");
+        } else if (result.getStatus() == ExecutionResult.Status.CPU_LIMIT_EXCEEDED) {
+            output.append("Stopped after ").append(result.getRunMillis()).append(" ms for using too much CPU time");
+        } else if (result.getStatus() == ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED) {
+            output.append("Stopped after ").append(result.getRunMillis()).append(" ms for using too much memory");
+        } else {
+            output.append("Process finished with exit code ").append(result.getExitCode()).append(" (");
+            if (result.getCompileMillis() > 0) {
+                output.append("compiled in ").append(result.getCompileMillis()).append(" ms, ");
             }
-            
-            if (code.contains("template")) {
-                output.append("Note: Your code uses C++ templates.\n");
-            }
-            
-            output.append("\nC++ compilation successful.\nExecution completed in 0.18s");
-        } catch (Exception e) {
-            output.append("Error analyzing code: ").append(e.getMessage()).append("\n");
+            output.append("ran in ").append(result.getRunMillis()).append(" ms)");
         }
         
+        // Only what the backend could measure
+        String separator = "\n";
+        if (usage.getCpuMillis() != ResourceUsage.UNKNOWN) {
+            output.append(separator).append("CPU time ").append(usage.getCpuMillis()).append(" ms");
+            separator = ", ";
+        }
+        if (usage.getPeakMemoryBytes() != ResourceUsage.UNKNOWN) {
+            output.append(separator).append("peak memory ").append(formatBytes(usage.getPeakMemoryBytes()));
+            separator = ", ";
+        }
+        if (usage.getOutputBytes() != ResourceUsage.UNKNOWN) {
+            output.append(separator).append("output ").append(formatBytes(usage.getOutputBytes()));
+        }
+        if (usage.isBestEffort()) {
+            output.append("\nRun inside the editor, so the CPU time and memory limits are best effort");
+        }
         return output.toString();
     }
     
-    private String simulateJavaScriptExecution(String code) {
-        StringBuilder output = new StringBuilder();
-        
-        try {
-            // Check if code contains console.log
-            if (code.contains("console.log")) {
-                // Extract content inside console.log
-                List<String> printStatements = new ArrayList<>();
-                String regex = "console\\.log\\s*\\(\\s*[\"'](.+?)[\"']\\s*\\)";
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher = pattern.matcher(code);
-                
-                while (matcher.find()) {
-                    printStatements.add(matcher.group(1));
-                }
-                
-                if (!printStatements.isEmpty()) {
-                    for (String statement : printStatements) {
-                        output.append(statement).append("\n");
-                    }
-                } else {
-                    // Handle more complex print statements with variables
-                    output.append("Output contains dynamic variables (not shown in simulation)\n");
-                }
-            } else if (code.contains("alert")) {
-                output.append("Alert dialog would be shown in a web browser\n");
-            } else {
-                output.append("No output detected in code.\n");
-            }
-            
-            // Additional code analysis
-            if (code.contains("async") && code.contains("await")) {
-                output.append("\nNote: Your code uses asynchronous JavaScript features.\n");
-            }
-            
-            if (code.contains("=>")) {
-                output.append("Note: Your code uses arrow functions.\n");
-            }
-            
-            output.append("\nJavaScript execution completed in 0.09s");
-        } catch (Exception e) {
-            output.append("Error analyzing code: ").append(e.getMessage()).append("\n");
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " bytes";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+    
+    private void updateHighlighting(List<PlainTextChange> changes) {
+        if (changes.size() > 1) {
+            // Several edits at once (formatting); cheaper to start over from the viewport
+            highlighter.reset(codeArea.getParagraphs().size());
+            highlightViewport();
+            return;
         }
+        PlainTextChange change = changes.get(0);
+        if (change.isIdentity()) return;
         
-        return output.toString();
+        int paragraph = codeArea.offsetToPosition(change.getPosition(), Bias.Forward).getMajor();
+        highlighter.edit(paragraph, lineBreaks(change.getRemoved()), lineBreaks(change.getInserted()),
+                this::paragraphText, this::applyHighlighting);
+        highlightViewport();
     }
     
-    private StyleSpans<Collection<String>> computeHighlighting() {
-        String text = codeArea.getText();
-        
-        Matcher matcher = null;
-        switch (languageSelector.getValue()) {
-            case JAVA:
-                matcher = JAVA_PATTERN.matcher(text);
-                break;
-            case PYTHON:
-                matcher = PYTHON_PATTERN.matcher(text);
-                break;
-            case CPP:
-                matcher = CPP_PATTERN.matcher(text);
-                break;
-            case JAVASCRIPT:
-                matcher = JS_PATTERN.matcher(text);
-                break;
+    /**
+     * Highlights the visible paragraphs now and restarts the background pass over the rest.
+     */
+    private void highlightViewport() {
+        int first = 0;
+        int last = INITIAL_VIEWPORT_LINES;
+        int visible = codeArea.getVisibleParagraphs().size();
+        if (visible > 0) {
+            first = codeArea.visibleParToAllParIndex(0);
+            last = codeArea.visibleParToAllParIndex(visible - 1);
         }
+        highlighter.paintViewport(first, last, this::paragraphText, this::applyHighlighting);
         
-        if (matcher == null) {
-            // Default to no highlighting
-            return StyleSpans.singleton(Collections.emptyList(), text.length());
+        long generation = ++highlightGeneration;
+        if (!highlighter.isComplete()) {
+            Platform.runLater(() -> highlightInBackground(generation));
         }
+    }
+    
+    private void highlightInBackground(long generation) {
+        // Superseded by a scroll or edit, which started a pass of its own
+        if (generation != highlightGeneration) return;
         
-        int lastKwEnd = 0;
-        StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+        long start = System.nanoTime();
+        boolean more;
+        do {
+            more = highlighter.advance(HIGHLIGHT_CHUNK_LINES, this::paragraphText, this::applyHighlighting);
+        } while (more && System.nanoTime() - start < HIGHLIGHT_SLICE_NANOS);
+        Metrics.histogram("highlight.background_slice_us").record((System.nanoTime() - start) / 1000);
         
-        while (matcher.find()) {
-            String styleClass = 
-                matcher.group("KEYWORD") != null ? "keyword" :
-                matcher.group("STRING") != null ? "string" :
-                matcher.group("COMMENT") != null ? "comment" :
-                null;
-            
-            assert styleClass != null;
-            spansBuilder.add(Collections.emptyList(), matcher.start() - lastKwEnd);
-            spansBuilder.add(Collections.singleton(styleClass), matcher.end() - matcher.start());
-            lastKwEnd = matcher.end();
+        // Yield to input and rendering before the next slice
+        if (more) {
+            Platform.runLater(() -> highlightInBackground(generation));
         }
-        
-        spansBuilder.add(Collections.emptyList(), text.length() - lastKwEnd);
-        return spansBuilder.create();
     }
     
-    private void applyHighlighting(StyleSpans<Collection<String>> highlighting) {
-        codeArea.setStyleSpans(0, highlighting);
+    private void applyHighlighting(IncrementalHighlighter.HighlightRange range) {
+        codeArea.setStyleSpans(codeArea.getAbsolutePosition(range.getFirstLine(), 0), range.getSpans());
     }
     
-    public void cleanup() {
-        if (collaborationService != null) {
-            collaborationService.disconnect();
-        }
-        
-        if (executor != null) {
-            executor.shutdown();
+    private String paragraphText(int paragraph) {
+        return codeArea.getParagraph(paragraph).getText();
+    }
+    
+    private static int lineBreaks(String text) {
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            count++;
         }
+        return count;
+    }
+    
+    public void cleanup() {
+        // The collaboration service is disconnected by whoever connected it
+        ExecutionScheduler.shared().cancel(roomId, currentUser.getId());
     }
     
     // Add public getter for code
@@ -622,102 +601,64 @@ public class CodeEditorController {
         return codeArea.getText();
     }
     
-    // Add method to explicitly set code content
+    /**
+     * Replaces the editor content, changing only the parts that differ so the caret,
+     * the undo history and collaborators see an edit of that size.
+     */
     public void setCode(String newCode) {
-        codeArea.replaceText(newCode);
+        applyEdits(TextDiff.diff(codeArea.getText(), newCode));
     }
     
+    /**
+     * Formats the selected lines, or the whole document when nothing is selected. The
+     * edits are worked out on a background worker from a snapshot, then moved past
+     * whatever was typed or received meanwhile; places edited in between are left
+     * alone, and the user is told.
+     */
     public void formatCode() {
-        // A simple code formatting function
-        String currentCode = codeArea.getText();
-        EditorLanguage currentLanguage = languageSelector.getValue();
-        
-        try {
-            // Apply basic formatting based on language
-            switch (currentLanguage) {
-                case JAVA:
-                case CPP:
-                case JAVASCRIPT:
-                    // Apply braces formatting for C-style languages
-                    String formatted = formatBraces(currentCode);
-                    formatted = formatIndentation(formatted);
-                    codeArea.replaceText(formatted);
-                    break;
-                case PYTHON:
-                    // Python relies on indentation
-                    String pythonFormatted = formatPythonIndentation(currentCode);
-                    codeArea.replaceText(pythonFormatted);
-                    break;
-            }
-        } catch (Exception e) {
-            outputArea.setText("Error formatting code: " + e.getMessage());
-        }
-    }
-    
-    private String formatBraces(String code) {
-        // Very simple braces formatter - add newline after {
-        return code.replaceAll("\\{\\s*", "{\n")
-                   .replaceAll("\\s*\\}", "\n}");
-    }
-    
-    private String formatIndentation(String code) {
-        // Simplified indentation - this would be much more sophisticated in a real IDE
-        String[] lines = code.split("\n");
-        StringBuilder formatted = new StringBuilder();
-        int indentLevel = 0;
-        
-        for (String line : lines) {
-            String trimmed = line.trim();
-            
-            // Decrease indent for closing braces
-            if (trimmed.startsWith("}")) {
-                indentLevel = Math.max(0, indentLevel - 1);
+        Rope snapshot = document.snapshot();
+        CodeFormatter formatter = CodeFormatter.forLanguage(languageSelector.getValue());
+        IndexRange selection = codeArea.getSelection();
+        List<EditorChange> meanwhile = new ArrayList<>();
+        changesSinceFormat = meanwhile;
+        
+        // Formatting again supersedes a pass that has not finished
+        BackgroundComputeService.shared().submitLatest("format", Priority.INTERACTIVE, "format", cancellation -> {
+            CharSequence text = snapshot.sequentialView();
+            return selection.getLength() > 0
+                    ? formatter.format(text, selection.getStart(), selection.getEnd(), cancellation)
+                    : formatter.format(text, 0, text.length(), cancellation);
+        }).getResult().whenComplete((edits, error) -> Platform.runLater(() -> {
+            if (error instanceof CancellationException) return;
+            if (changesSinceFormat == meanwhile) {
+                changesSinceFormat = null;
             }
-            
-            // Add proper indentation
-            if (!trimmed.isEmpty()) {
-                formatted.append("    ".repeat(indentLevel)).append(trimmed).append("\n");
-            } else {
-                formatted.append("\n");
+            if (error != null) {
+                outputArea.clear();
+                outputArea.append("Error formatting code: " + error.getMessage(), true);
+                return;
             }
-            
-            // Increase indent after opening brace
-            if (trimmed.endsWith("{")) {
-                indentLevel++;
+            List<EditorChange> rebased = TextDiff.rebase(edits, meanwhile);
+            // Only the whitespace that changes is touched
+            applyEdits(rebased);
+            int skipped = edits.size() - rebased.size();
+            if (skipped > 0) {
+                outputArea.append("Formatting left " + skipped + (skipped == 1 ? " place" : " places")
+                        + " alone that changed while it ran; format again to include them\n", false);
             }
-        }
-        
-        return formatted.toString();
+        }));
     }
     
-    private String formatPythonIndentation(String code) {
-        // Very simplified Python formatter
-        String[] lines = code.split("\n");
-        StringBuilder formatted = new StringBuilder();
-        int indentLevel = 0;
-        
-        for (String line : lines) {
-            String trimmed = line.trim();
-            
-            // Calculate indent level based on Python rules
-            if (trimmed.endsWith(":")) {
-                // Add the current line with its indentation
-                formatted.append("    ".repeat(indentLevel)).append(trimmed).append("\n");
-                indentLevel++;
-            } else if (trimmed.equals("break") || trimmed.equals("continue") || 
-                    trimmed.equals("pass") || trimmed.equals("return") || 
-                    trimmed.startsWith("return ")) {
-                // Statements that may decrease indent after
-                formatted.append("    ".repeat(indentLevel)).append(trimmed).append("\n");
-            } else if (trimmed.isEmpty()) {
-                // Just add empty lines
-                formatted.append("\n");
-            } else {
-                // Normal line
-                formatted.append("    ".repeat(indentLevel)).append(trimmed).append("\n");
-            }
+    /**
+     * Applies edits in document order with offsets into the current text, as one undoable change.
+     */
+    private void applyEdits(List<EditorChange> edits) {
+        if (edits.isEmpty()) return;
+        MultiChangeBuilder<?, ?, ?> multiChange = codeArea.createMultiChange(edits.size());
+        // Offsets into the text before the change; the builder shifts later replacements itself
+        for (EditorChange edit : edits) {
+            multiChange.replaceText(edit.getStartPosition(), edit.getEndPosition(), edit.getInsertedText());
         }
-        
-        return formatted.toString();
+        multiChange.commit();
     }
 }
@@ -2,7 +2,9 @@ package com.codesphere.controllers;
 
 import com.codesphere.models.User;
 import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.TestCase;
 import com.codesphere.services.CollaborationService;
+import com.codesphere.services.TestSuiteRunner;
 import com.codesphere.services.UserService;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -14,6 +16,8 @@ import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -40,6 +44,9 @@ public class MainController {
     @FXML
     private Label userCountLabel;
     
+    @FXML
+    private CheckMenuItem stopAtFirstFailure;
+    
     private UserService userService;
     private User currentUser;
     private CollaborationService collaborationService;
@@ -63,9 +70,6 @@ public class MainController {
     }
     
     private void initializeUI() throws IOException {
-        // Initialize collaboration service
-        collaborationService = new CollaborationService(currentUser);
-        
         // Load the code editor tab
         FXMLLoader codeEditorLoader = new FXMLLoader(getClass().getResource("/fxml/CodeEditor.fxml"));
         Tab codeEditorTab = new Tab("Code Editor", codeEditorLoader.load());
@@ -170,12 +174,14 @@ public class MainController {
         if (currentRoomId != null) {
             if (collaborationService != null) {
                 collaborationService.disconnect();
+                collaborationService = null;
             }
             
             currentRoomId = null;
             
             // Reset controllers
             if (codeEditorController != null) {
+                codeEditorController.disconnectFromRoom();
                 // Reset code editor to default state
                 codeEditorController.setLanguage(EditorLanguage.JAVA);
             }
@@ -210,23 +216,21 @@ public class MainController {
         // Clean up previous room connections
         if (collaborationService != null) {
             collaborationService.disconnect();
+            if (codeEditorController != null) {
+                codeEditorController.disconnectFromRoom();
+            }
         }
         
-        // Connect to the new room
-        collaborationService = new CollaborationService(currentUser);
-        collaborationService.connect(roomId);
+        // One session per join, shared by every part of the window
+        CollaborationService service = new CollaborationService(currentUser);
+        collaborationService = service;
         currentRoomId = roomId;
         
         // Update window title with room information
         Platform.runLater(() -> {
-            // Update controllers with the collaboration service
-            if (codeEditorController != null) {
-                codeEditorController.connectToRoom(roomId);
-            }
-            
             // Initialize the users list controller with the collaboration service
             if (usersListController != null) {
-                usersListController.initialize(currentUser, collaborationService);
+                usersListController.initialize(currentUser, service);
             }
             
             // Update the chat controller
@@ -239,12 +243,17 @@ public class MainController {
             roomIdLabel.setText("Room: " + roomId);
             
             // Listen for user count changes
-            collaborationService.addCollaborationEventListener(event -> {
+            service.addCollaborationEventListener(event -> {
                 if ("JOIN".equals(event.getType()) || "LEAVE".equals(event.getType())) {
-                    int userCount = collaborationService.getActiveUsers().size();
+                    int userCount = service.getActiveUsers().size();
                     Platform.runLater(() -> userCountLabel.setText("Users: " + userCount));
                 }
             });
+            
+            // Connect once every listener is in place; the editor joins the shared document too
+            if (codeEditorController != null) {
+                codeEditorController.connectToRoom(roomId, service);
+            }
         });
     }
     
@@ -284,6 +293,31 @@ public class MainController {
         }
     }
     
+    /**
+     * Runs the code against a folder of test cases: {@code name.in} files with
+     * optional {@code name.out} files holding the expected output.
+     */
+    @FXML
+    public void runTestCases() {
+        if (codeEditorController == null) return;
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Test Case Folder");
+        File directory = chooser.showDialog(mainContainer.getScene().getWindow());
+        if (directory == null) return;
+        
+        try {
+            List<TestCase> cases = TestSuiteRunner.loadCases(directory.toPath());
+            if (cases.isEmpty()) {
+                showErrorDialog("No test cases", "The folder has no .in files.");
+                return;
+            }
+            codeEditorController.runTestSuite(cases, stopAtFirstFailure.isSelected());
+        } catch (IOException e) {
+            e.printStackTrace();
+            showErrorDialog("Could not read test cases", e.getMessage());
+        }
+    }
+    
     // The following methods are commented out because they are undefined in CodeEditorController
     /*
     @FXML
@@ -0,0 +1,153 @@
+package com.codesphere.controllers;
+
+import com.codesphere.services.Metrics;
+import com.codesphere.services.OutputBuffer;
+import javafx.animation.AnimationTimer;
+import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.fxmisc.richtext.StyleClassedTextArea;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+
+/**
+ * The output pane. Only the visible lines are laid out, so it stays responsive
+ * with megabytes of output, and it keeps the most recent {@link #MAX_CHARS}
+ * characters, dropping whole lines from the top.
+ * 
+ * While a program runs the console follows its {@link OutputBuffer}, taking
+ * whatever arrived once per frame in a single append. Standard error is shown
+ * in the {@code output-error} style.
+ */
+public class OutputConsole extends VirtualizedScrollPane<StyleClassedTextArea> {
+    public static final int MAX_CHARS = 1 << 21;
+    
+    // Trimmed once this far over, so trimming does not happen on every frame
+    private static final int TRIM_SLACK = MAX_CHARS / 8;
+    
+    private static final String ERROR_STYLE = "output-error";
+    
+    private final StyleClassedTextArea area;
+    private OutputBuffer source;
+    // Where the status line starts, or -1 if none is shown
+    private int statusStart = -1;
+    
+    private final AnimationTimer pump = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+    
+    public OutputConsole() {
+        super(new StyleClassedTextArea(false));
+        area = getContent();
+        area.setEditable(false);
+        area.setWrapText(true);
+        area.setFocusTraversable(false);
+    }
+    
+    public void clear() {
+        area.clear();
+        statusStart = -1;
+    }
+    
+    public void append(String text, boolean error) {
+        clearStatus();
+        boolean atBottom = isAtBottom();
+        int start = area.getLength();
+        area.appendText(text);
+        if (error) {
+            area.setStyleClass(start, area.getLength(), ERROR_STYLE);
+        }
+        trim();
+        if (atBottom) {
+            area.showParagraphAtBottom(area.getParagraphs().size() - 1);
+        }
+    }
+    
+    /**
+     * Shows a line at the end that the next status or output replaces, for
+     * progress such as a place in the queue.
+     */
+    public void showStatus(String text) {
+        clearStatus();
+        startLine();
+        statusStart = area.getLength();
+        area.appendText(text);
+    }
+    
+    public void clearStatus() {
+        if (statusStart < 0) return;
+        area.deleteText(statusStart, area.getLength());
+        statusStart = -1;
+    }
+    
+    /**
+     * Ends the current line if anything is on it.
+     */
+    public void startLine() {
+        int length = area.getLength();
+        if (length > 0 && area.getText(length - 1, length).charAt(0) != '\n') {
+            area.appendText("\n");
+        }
+    }
+    
+    /**
+     * Shows what is written to the buffer from now on, until {@link #finish} or
+     * until another buffer is followed.
+     */
+    public void follow(OutputBuffer buffer) {
+        source = buffer;
+        pump.start();
+    }
+    
+    /**
+     * Shows the rest of the buffer's output and stops following it.
+     */
+    public void finish(OutputBuffer buffer) {
+        if (source != buffer) return;
+        drain();
+        source = null;
+        pump.stop();
+    }
+    
+    private void drain() {
+        OutputBuffer.Drained drained = source != null ? source.drain() : null;
+        if (drained == null) return;
+        long startNanos = System.nanoTime();
+        clearStatus();
+        
+        boolean atBottom = isAtBottom();
+        if (drained.getDropped() > 0) {
+            startLine();
+            append("[" + drained.getDropped() + " characters skipped]\n", true);
+        }
+        int start = area.getLength();
+        area.appendText(drained.getText());
+        int[] errorRanges = drained.getErrorRanges();
+        for (int i = 0; i < errorRanges.length; i += 2) {
+            area.setStyleClass(start + errorRanges[i], start + errorRanges[i + 1], ERROR_STYLE);
+        }
+        trim();
+        if (atBottom) {
+            area.showParagraphAtBottom(area.getParagraphs().size() - 1);
+        }
+        Metrics.histogram("output.append_us").record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    /**
+     * Drops lines from the top once the text is well over the limit.
+     */
+    private void trim() {
+        int excess = area.getLength() - MAX_CHARS;
+        if (excess < TRIM_SLACK) return;
+        int paragraph = area.offsetToPosition(excess, Bias.Forward).getMajor();
+        int end = paragraph + 1 < area.getParagraphs().size()
+                ? area.getAbsolutePosition(paragraph + 1, 0)
+                : excess;
+        area.deleteText(0, end);
+    }
+    
+    private boolean isAtBottom() {
+        double bottom = area.getEstimatedScrollY() + area.getHeight();
+        return bottom >= area.getTotalHeightEstimate() - 1;
+    }
+}
@@ -62,7 +62,8 @@ public class UsersListController {
     }
     
     private void handleCollaborationEvent(CollaborationEvent event) {
-        if ("JOIN".equals(event.getType()) || "LEAVE".equals(event.getType()) || "CURSOR_MOVE".equals(event.getType())) {
+        // Cursor moves don't change the list; activity is picked up by the periodic refresh
+        if ("JOIN".equals(event.getType()) || "LEAVE".equals(event.getType())) {
             Platform.runLater(this::refreshUsersList);
         }
     }
@@ -10,6 +10,7 @@ public class CollaborationEvent {
     private String type; // JOIN, LEAVE, CURSOR_MOVE, etc.
     private User user;
     private Map<String, Object> data;
+    private int sessionId;
     
     public CollaborationEvent() {
     }
@@ -37,4 +38,12 @@ public class CollaborationEvent {
     public void setData(Map<String, Object> data) {
         this.data = data;
     }
+    
+    public int getSessionId() {
+        return sessionId;
+    }
+    
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
 }
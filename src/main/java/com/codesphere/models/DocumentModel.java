@@ -0,0 +1,52 @@
+package com.codesphere.models;
+
+/**
+ * Text document kept outside of the UI so headless components can read and edit it
+ */
+public interface DocumentModel {
+    
+    /**
+     * Number of characters in the document.
+     */
+    int length();
+    
+    /**
+     * Returns the text between the given offsets.
+     */
+    String getText(int start, int end);
+    
+    /**
+     * Returns the whole document as a string.
+     */
+    default String getText() {
+        return getText(0, length());
+    }
+    
+    /**
+     * Returns an immutable view of the current content that other threads can read
+     * while the document keeps changing.
+     */
+    default CharSequence snapshot() {
+        return getText();
+    }
+    
+    /**
+     * Replaces the text between the given offsets.
+     */
+    void replace(int start, int end, String text);
+    
+    /**
+     * Applies a change to the document, filling in the text it removed.
+     */
+    default void apply(EditorChange change) {
+        int start = change.getStartPosition();
+        int end = change.getEndPosition();
+        if (start < 0 || end < start || end > length()) {
+            throw new IllegalArgumentException("Change [" + start + ", " + end
+                    + ") is outside of a document of length " + length());
+        }
+        change.setRemovedText(getText(start, end));
+        String inserted = change.getInsertedText();
+        replace(start, end, inserted != null ? inserted : "");
+    }
+}
@@ -0,0 +1,73 @@
+package com.codesphere.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Document text at a given room revision, plus the changes sequenced after it
+ */
+public class DocumentSnapshot {
+    private long revision;
+    private String text;
+    private List<EditorChange> tail = Collections.emptyList();
+    
+    public DocumentSnapshot() {
+    }
+    
+    public DocumentSnapshot(long revision, String text) {
+        this.revision = revision;
+        this.text = text;
+    }
+    
+    public DocumentSnapshot(long revision, String text, List<EditorChange> tail) {
+        this.revision = revision;
+        this.text = text;
+        this.tail = tail;
+    }
+    
+    public long getRevision() {
+        return revision;
+    }
+    
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public void setText(String text) {
+        this.text = text;
+    }
+    
+    public List<EditorChange> getTail() {
+        return tail;
+    }
+    
+    public void setTail(List<EditorChange> tail) {
+        this.tail = tail;
+    }
+    
+    /**
+     * Revision the document is at once the tail has been applied.
+     */
+    @JsonIgnore
+    public long getLatestRevision() {
+        return revision + tail.size();
+    }
+    
+    /**
+     * Applies the tail to the text, giving the document at {@link #getLatestRevision()}.
+     */
+    public Rope toRope() {
+        Rope rope = Rope.of(text);
+        for (EditorChange change : tail) {
+            String inserted = change.getInsertedText();
+            rope = rope.replace(change.getStartPosition(), change.getEndPosition(), inserted != null ? inserted : "");
+        }
+        return rope;
+    }
+}
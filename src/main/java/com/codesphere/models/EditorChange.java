@@ -1,6 +1,8 @@
 
 package com.codesphere.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * Represents a change in the code editor
  */
@@ -10,6 +12,8 @@ public class EditorChange {
     private int endPosition;
     private String insertedText;
     private String removedText;
+    private int sessionId;
+    private long revision;
     
     public EditorChange() {
     }
@@ -60,4 +64,147 @@ public class EditorChange {
     public void setRemovedText(String removedText) {
         this.removedText = removedText;
     }
+    
+    public int getSessionId() {
+        return sessionId;
+    }
+    
+    public void setSessionId(int sessionId) {
+        this.sessionId = sessionId;
+    }
+    
+    /**
+     * Base revision when sent by a client, sequence number once the room has ordered it.
+     */
+    public long getRevision() {
+        return revision;
+    }
+    
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+    
+    /**
+     * Returns the length of the text this change inserts.
+     */
+    @JsonIgnore
+    public int getInsertedLength() {
+        return insertedText != null ? insertedText.length() : 0;
+    }
+    
+    /**
+     * Composes this change with a change that was applied right after it.
+     * The two can only be merged when the second change touches or overlaps
+     * the range produced by this one (typing, backspacing, overtyping).
+     * 
+     * @return the merged change, or null if the changes are not adjacent
+     */
+    public EditorChange mergeWith(EditorChange next) {
+        String inserted = insertedText != null ? insertedText : "";
+        String removed = removedText != null ? removedText : "";
+        String nextInserted = next.insertedText != null ? next.insertedText : "";
+        String nextRemoved = next.removedText != null ? next.removedText : "";
+        
+        int insertedEnd = startPosition + inserted.length();
+        int nextEnd = next.startPosition + nextRemoved.length();
+        if (next.startPosition > insertedEnd || nextEnd < startPosition) {
+            return null;
+        }
+        
+        // Text the next change removed outside of what this change inserted
+        int before = Math.max(0, startPosition - next.startPosition);
+        int after = Math.max(0, nextEnd - insertedEnd);
+        String mergedRemoved = nextRemoved.substring(0, before)
+                + removed
+                + nextRemoved.substring(nextRemoved.length() - after);
+        
+        // Text this change inserted that the next change left untouched
+        String head = inserted.substring(0, Math.max(0, next.startPosition - startPosition));
+        String tail = inserted.substring(Math.min(inserted.length(), nextEnd - startPosition));
+        
+        EditorChange merged = withRange(
+                Math.min(startPosition, next.startPosition),
+                endPosition + after,
+                head + nextInserted + tail);
+        merged.setRemovedText(mergedRemoved);
+        return merged;
+    }
+    
+    /**
+     * Whether applying this change leaves the document untouched.
+     */
+    @JsonIgnore
+    public boolean isNoop() {
+        return startPosition == endPosition && getInsertedLength() == 0;
+    }
+    
+    /**
+     * Returns a copy of this change carrying the same user, session and revision.
+     */
+    public EditorChange copy() {
+        return withRange(startPosition, endPosition, insertedText);
+    }
+    
+    /**
+     * Transforms this change so that it can be applied after a concurrent change
+     * made against the same document state. Ranges that partially overlap have their
+     * union removed; a range that fully contains the other one wins and drops the
+     * contained edit. Ties between inserts at the same position go to the change
+     * with priority.
+     * 
+     * @param other       the concurrent change that has already been applied
+     * @param hasPriority whether this change is ordered first on ties
+     * @return the transformed change, always a new instance
+     */
+    public EditorChange transform(EditorChange other, boolean hasPriority) {
+        int start = startPosition;
+        int end = endPosition;
+        int otherStart = other.startPosition;
+        int otherEnd = other.endPosition;
+        int otherInserted = other.getInsertedLength();
+        int delta = otherInserted - (otherEnd - otherStart);
+        
+        // Disjoint ranges only shift
+        if (end < otherStart) {
+            return copy();
+        }
+        if (otherEnd < start) {
+            return withRange(start + delta, end + delta, insertedText);
+        }
+        if (start == end && otherStart == otherEnd) {
+            // Two inserts at the same position
+            return hasPriority ? copy() : withRange(start + otherInserted, end + otherInserted, insertedText);
+        }
+        if (end == otherStart) {
+            return copy();
+        }
+        if (otherEnd == start) {
+            return withRange(start + delta, end + delta, insertedText);
+        }
+        
+        // Overlapping ranges
+        if (start == otherStart && end == otherEnd) {
+            int position = hasPriority ? start : start + otherInserted;
+            return withRange(position, position, insertedText);
+        }
+        if (start <= otherStart && otherEnd <= end) {
+            return withRange(start, end + delta, insertedText);
+        }
+        if (otherStart <= start && end <= otherEnd) {
+            return withRange(otherStart, otherStart, "");
+        }
+        if (start < otherStart) {
+            return withRange(start, otherStart, insertedText);
+        }
+        int afterOther = otherStart + otherInserted;
+        return withRange(afterOther, afterOther + (end - otherEnd), insertedText);
+    }
+    
+    private EditorChange withRange(int start, int end, String inserted) {
+        EditorChange change = new EditorChange(start, end, inserted, null);
+        change.setUser(user);
+        change.setSessionId(sessionId);
+        change.setRevision(revision);
+        return change;
+    }
 }
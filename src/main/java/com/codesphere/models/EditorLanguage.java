@@ -1,19 +1,51 @@
-
 package com.codesphere.models;
 
+import java.util.List;
+
 /**
  * Enum representing programming languages supported in the editor
  */
 public enum EditorLanguage {
-    JAVA("Java"),
-    PYTHON("Python"),
-    CPP("C++"),
-    JAVASCRIPT("JavaScript");
+    JAVA("Java",
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try", "void",
+            "volatile", "while"),
+    PYTHON("Python",
+            "and", "as", "assert", "break", "class", "continue", "def", "del", "elif", "else", "except",
+            "finally", "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not",
+            "or", "pass", "raise", "return", "try", "while", "with", "yield"),
+    CPP("C++",
+            "auto", "break", "case", "catch", "char", "class", "const", "continue", "default", "delete",
+            "do", "double", "else", "enum", "explicit", "export", "extern", "float", "for", "friend", "goto",
+            "if", "implements", "import", "in", "instanceof", "int", "interface", "let", "long", "native",
+            "new", "null", "package", "private", "protected", "public", "register", "return", "short",
+            "signed", "sizeof", "static", "struct", "switch", "template", "this", "throw", "throws",
+            "transient", "true", "try", "typeof", "var", "void", "volatile", "while"),
+    JAVASCRIPT("JavaScript",
+            "abstract", "arguments", "await", "boolean", "break", "byte", "case", "catch", "char", "class",
+            "const", "continue", "debugger", "default", "delete", "do", "double", "else", "enum", "eval",
+            "export", "extends", "false", "final", "finally", "float", "for", "function", "goto", "if",
+            "implements", "import", "in", "instanceof", "int", "interface", "let", "long", "native", "new",
+            "null", "package", "private", "protected", "public", "return", "short", "static", "super",
+            "switch", "synchronized", "this", "throw", "throws", "transient", "true", "try", "typeof", "var",
+            "void", "volatile", "while", "with", "yield");
     
     private final String displayName;
+    private final List<String> keywords;
     
-    EditorLanguage(String displayName) {
+    EditorLanguage(String displayName, String... keywords) {
         this.displayName = displayName;
+        this.keywords = List.of(keywords);
+    }
+    
+    /**
+     * Reserved words highlighted as keywords, all lowercase ASCII.
+     */
+    public List<String> getKeywords() {
+        return keywords;
     }
     
     @Override
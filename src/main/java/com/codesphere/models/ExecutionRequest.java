@@ -0,0 +1,85 @@
+package com.codesphere.models;
+
+/**
+ * A program to run: its source, what it reads from standard input and the
+ * limits on its time, memory and output
+ */
+public class ExecutionRequest {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    public static final int DEFAULT_OUTPUT_LIMIT_BYTES = 1 << 20;
+    public static final long DEFAULT_CPU_LIMIT_MILLIS = Long.getLong("codesphere.limit.cpu_ms", 5_000);
+    public static final long DEFAULT_MEMORY_LIMIT_BYTES = Long.getLong("codesphere.limit.memory_mb", 256) << 20;
+    
+    private final EditorLanguage language;
+    private final String source;
+    private final String stdin;
+    private final long timeoutMillis;
+    private final int outputLimitBytes;
+    private final long cpuLimitMillis;
+    private final long memoryLimitBytes;
+    
+    public ExecutionRequest(EditorLanguage language, String source) {
+        this(language, source, "", DEFAULT_TIMEOUT_MILLIS);
+    }
+    
+    public ExecutionRequest(EditorLanguage language, String source, String stdin, long timeoutMillis) {
+        this(language, source, stdin, timeoutMillis, DEFAULT_OUTPUT_LIMIT_BYTES);
+    }
+    
+    public ExecutionRequest(EditorLanguage language, String source, String stdin, long timeoutMillis, int outputLimitBytes) {
+        this(language, source, stdin, timeoutMillis, outputLimitBytes, DEFAULT_CPU_LIMIT_MILLIS, DEFAULT_MEMORY_LIMIT_BYTES);
+    }
+    
+    public ExecutionRequest(EditorLanguage language, String source, String stdin, long timeoutMillis, int outputLimitBytes,
+                            long cpuLimitMillis, long memoryLimitBytes) {
+        this.language = language;
+        this.source = source;
+        this.stdin = stdin;
+        this.timeoutMillis = timeoutMillis;
+        this.outputLimitBytes = outputLimitBytes;
+        this.cpuLimitMillis = cpuLimitMillis;
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+    
+    public EditorLanguage getLanguage() {
+        return language;
+    }
+    
+    public String getSource() {
+        return source;
+    }
+    
+    public String getStdin() {
+        return stdin;
+    }
+    
+    /**
+     * Wall-clock time the program may run for, not counting compilation.
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+    
+    /**
+     * Bytes the program may write to each of standard output and standard error
+     * before it is stopped.
+     */
+    public int getOutputLimitBytes() {
+        return outputLimitBytes;
+    }
+    
+    /**
+     * Processor time the program may use, counting all its threads.
+     */
+    public long getCpuLimitMillis() {
+        return cpuLimitMillis;
+    }
+    
+    /**
+     * Memory the program may hold at once. Backends that cannot enforce this or the
+     * processor time limit say so in {@link ResourceUsage#isBestEffort()}.
+     */
+    public long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+}
@@ -0,0 +1,80 @@
+package com.codesphere.models;
+
+/**
+ * What a program printed and how its run ended
+ */
+public class ExecutionResult {
+    
+    public enum Status {
+        COMPLETED,
+        COMPILE_ERROR,
+        RUNTIME_ERROR,
+        TIMED_OUT,
+        OUTPUT_LIMIT_EXCEEDED,
+        CPU_LIMIT_EXCEEDED,
+        MEMORY_LIMIT_EXCEEDED
+    }
+    
+    private final Status status;
+    private final String stdout;
+    private final String stderr;
+    private final int exitCode;
+    private final long compileMillis;
+    private final long runMillis;
+    private final ResourceUsage usage;
+    
+    public ExecutionResult(Status status, String stdout, String stderr, int exitCode, long compileMillis, long runMillis) {
+        this(status, stdout, stderr, exitCode, compileMillis, ResourceUsage.wallTime(runMillis));
+    }
+    
+    public ExecutionResult(Status status, String stdout, String stderr, int exitCode, long compileMillis, ResourceUsage usage) {
+        this.status = status;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.exitCode = exitCode;
+        this.compileMillis = compileMillis;
+        this.runMillis = usage.getWallMillis();
+        this.usage = usage;
+    }
+    
+    /**
+     * A program that never ran; the diagnostics are its standard error.
+     */
+    public static ExecutionResult compileError(String diagnostics, long compileMillis) {
+        return new ExecutionResult(Status.COMPILE_ERROR, "", diagnostics, -1, compileMillis, 0);
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    public String getStdout() {
+        return stdout;
+    }
+    
+    public String getStderr() {
+        return stderr;
+    }
+    
+    /**
+     * The program's exit code, or -1 if it did not get to exit by itself.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+    
+    public long getCompileMillis() {
+        return compileMillis;
+    }
+    
+    public long getRunMillis() {
+        return runMillis;
+    }
+    
+    /**
+     * What the run used, as far as the backend could measure it.
+     */
+    public ResourceUsage getUsage() {
+        return usage;
+    }
+}
@@ -0,0 +1,71 @@
+package com.codesphere.models;
+
+/**
+ * What a run used: time, memory and output
+ */
+public class ResourceUsage {
+    /** For a measurement a backend could not take */
+    public static final long UNKNOWN = -1;
+    
+    private final long wallMillis;
+    private final long cpuMillis;
+    private final long peakMemoryBytes;
+    private final long outputBytes;
+    private final boolean bestEffort;
+    
+    public ResourceUsage(long wallMillis, long cpuMillis, long peakMemoryBytes, long outputBytes) {
+        this(wallMillis, cpuMillis, peakMemoryBytes, outputBytes, false);
+    }
+    
+    public ResourceUsage(long wallMillis, long cpuMillis, long peakMemoryBytes, long outputBytes, boolean bestEffort) {
+        this.wallMillis = wallMillis;
+        this.cpuMillis = cpuMillis;
+        this.peakMemoryBytes = peakMemoryBytes;
+        this.outputBytes = outputBytes;
+        this.bestEffort = bestEffort;
+    }
+    
+    /**
+     * Only the wall-clock time is known.
+     */
+    public static ResourceUsage wallTime(long wallMillis) {
+        return new ResourceUsage(wallMillis, UNKNOWN, UNKNOWN, UNKNOWN);
+    }
+    
+    public long getWallMillis() {
+        return wallMillis;
+    }
+    
+    /**
+     * Processor time the program used, in all its threads and child processes, or {@link #UNKNOWN}.
+     */
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+    
+    /**
+     * The most memory the program held at once, or {@link #UNKNOWN}. For a
+     * process this is its peak resident set; for Java run inside the editor, the
+     * most heap its objects kept alive.
+     */
+    public long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+    
+    /**
+     * Bytes written to standard output and standard error, including any dropped
+     * past the limit, or {@link #UNKNOWN}.
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+    
+    /**
+     * Whether the processor time and memory limits were only checked now and then
+     * from inside the editor's own JVM, as for Java run in it, rather than enforced:
+     * such a run can go well past them before it is stopped, or not be stopped at all.
+     */
+    public boolean isBestEffort() {
+        return bestEffort;
+    }
+}
@@ -0,0 +1,377 @@
+package com.codesphere.models;
+
+/**
+ * Immutable rope: a height-balanced tree of text chunks where every node caches
+ * its length and newline count. Edits return a new rope that shares all
+ * untouched chunks with the old one, so a rope doubles as a free snapshot.
+ * Insert, delete, character access and offset/line conversions are O(log n).
+ */
+public final class Rope implements CharSequence {
+    // Chunks are split at this size and small neighbours are merged back up to it
+    static final int MAX_LEAF = 1024;
+    
+    private static final Rope EMPTY = new Rope(null);
+    
+    private final Node root;
+    
+    private Rope(Node root) {
+        this.root = root;
+    }
+    
+    public static Rope empty() {
+        return EMPTY;
+    }
+    
+    public static Rope of(CharSequence text) {
+        return text.length() == 0 ? EMPTY : new Rope(build(text.toString(), 0, text.length()));
+    }
+    
+    @Override
+    public int length() {
+        return root == null ? 0 : root.length;
+    }
+    
+    @Override
+    public char charAt(int index) {
+        checkIndex(index, length());
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (index < branch.left.length) {
+                node = branch.left;
+            } else {
+                index -= branch.left.length;
+                node = branch.right;
+            }
+        }
+        return ((Leaf) node).text.charAt(index);
+    }
+    
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+    
+    public String substring(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length());
+        }
+        StringBuilder out = new StringBuilder(end - start);
+        append(root, start, end, out);
+        return out.toString();
+    }
+    
+    public Rope insert(int position, String text) {
+        return replace(position, position, text);
+    }
+    
+    public Rope delete(int start, int end) {
+        return replace(start, end, "");
+    }
+    
+    public Rope replace(int start, int end, String text) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") of " + length());
+        }
+        Node[] head = split(root, start);
+        Node[] tail = split(head[1], end - start);
+        Node middle = text.isEmpty() ? null : build(text, 0, text.length());
+        return new Rope(join(join(head[0], middle), tail[1]));
+    }
+    
+    /**
+     * Number of lines, which is one more than the number of line breaks.
+     */
+    public int lineCount() {
+        return (root == null ? 0 : root.newlines) + 1;
+    }
+    
+    /**
+     * Zero-based line containing the given offset.
+     */
+    public int lineOfOffset(int offset) {
+        if (offset < 0 || offset > length()) {
+            throw new IndexOutOfBoundsException(offset + " of " + length());
+        }
+        int line = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (offset < branch.left.length) {
+                node = branch.left;
+            } else {
+                offset -= branch.left.length;
+                line += branch.left.newlines;
+                node = branch.right;
+            }
+        }
+        if (node != null) {
+            String text = ((Leaf) node).text;
+            for (int i = 0; i < offset; i++) {
+                if (text.charAt(i) == '\n') {
+                    line++;
+                }
+            }
+        }
+        return line;
+    }
+    
+    /**
+     * Offset of the first character of the given zero-based line.
+     */
+    public int offsetOfLine(int line) {
+        if (line < 0 || line >= lineCount()) {
+            throw new IndexOutOfBoundsException("line " + line + " of " + lineCount());
+        }
+        if (line == 0) {
+            return 0;
+        }
+        int offset = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (line <= branch.left.newlines) {
+                node = branch.left;
+            } else {
+                line -= branch.left.newlines;
+                offset += branch.left.length;
+                node = branch.right;
+            }
+        }
+        String text = ((Leaf) node).text;
+        for (int i = 0; ; i++) {
+            if (text.charAt(i) == '\n' && --line == 0) {
+                return offset + i + 1;
+            }
+        }
+    }
+    
+    /**
+     * Returns a view for sequential scans (regex matching, lexing) that remembers
+     * the current chunk, making forward character access O(1) amortized. Unlike
+     * the rope itself, the view must not be shared between threads.
+     */
+    public CharSequence sequentialView() {
+        return new SequentialView(this, 0, length());
+    }
+    
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+    
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index + " of " + length);
+        }
+    }
+    
+    // Builds a balanced tree of full chunks over text[start, end)
+    private static Node build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Leaf(text.substring(start, end));
+        }
+        int chunks = (end - start + MAX_LEAF - 1) / MAX_LEAF;
+        int middle = start + (chunks / 2) * MAX_LEAF;
+        return new Branch(build(text, start, middle), build(text, middle, end));
+    }
+    
+    private static void append(Node node, int start, int end, StringBuilder out) {
+        if (node == null || start >= end) {
+            return;
+        }
+        if (node instanceof Leaf) {
+            out.append(((Leaf) node).text, start, end);
+            return;
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+        if (start < leftLength) {
+            append(branch.left, start, Math.min(end, leftLength), out);
+        }
+        if (end > leftLength) {
+            append(branch.right, Math.max(0, start - leftLength), end - leftLength, out);
+        }
+    }
+    
+    // Splits into [0, index) and [index, length); empty halves are null
+    private static Node[] split(Node node, int index) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        if (index <= 0) {
+            return new Node[] {null, node};
+        }
+        if (index >= node.length) {
+            return new Node[] {node, null};
+        }
+        if (node instanceof Leaf) {
+            String text = ((Leaf) node).text;
+            return new Node[] {new Leaf(text.substring(0, index)), new Leaf(text.substring(index))};
+        }
+        Branch branch = (Branch) node;
+        if (index <= branch.left.length) {
+            Node[] parts = split(branch.left, index);
+            return new Node[] {parts[0], join(parts[1], branch.right)};
+        }
+        Node[] parts = split(branch.right, index - branch.left.length);
+        return new Node[] {join(branch.left, parts[0]), parts[1]};
+    }
+    
+    // AVL join: concatenates two balanced trees in O(|height difference|)
+    private static Node join(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MAX_LEAF) {
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+        }
+        if (left.height > right.height + 1) {
+            return joinRight((Branch) left, right);
+        }
+        if (right.height > left.height + 1) {
+            return joinLeft(left, (Branch) right);
+        }
+        return new Branch(left, right);
+    }
+    
+    private static Node joinRight(Branch left, Node right) {
+        Node inner = left.right.height <= right.height + 1
+                ? join(left.right, right)
+                : joinRight((Branch) left.right, right);
+        Branch joined = new Branch(left.left, inner);
+        return inner.height <= left.left.height + 1 ? joined : rotateLeft(joined);
+    }
+    
+    private static Node joinLeft(Node left, Branch right) {
+        Node inner = right.left.height <= left.height + 1
+                ? join(left, right.left)
+                : joinLeft(left, (Branch) right.left);
+        Branch joined = new Branch(inner, right.right);
+        return inner.height <= right.right.height + 1 ? joined : rotateRight(joined);
+    }
+    
+    private static Node rotateLeft(Branch node) {
+        Branch right = (Branch) node.right;
+        if (right.left.height > right.right.height) {
+            right = (Branch) rotateRight(right);
+        }
+        return new Branch(new Branch(node.left, right.left), right.right);
+    }
+    
+    private static Node rotateRight(Branch node) {
+        Branch left = (Branch) node.left;
+        if (left.right.height > left.left.height) {
+            left = (Branch) rotateLeft(left);
+        }
+        return new Branch(left.left, new Branch(left.right, node.right));
+    }
+    
+    private abstract static class Node {
+        final int length;
+        final int newlines;
+        final int height;
+        
+        Node(int length, int newlines, int height) {
+            this.length = length;
+            this.newlines = newlines;
+            this.height = height;
+        }
+    }
+    
+    private static final class Leaf extends Node {
+        final String text;
+        
+        Leaf(String text) {
+            super(text.length(), countNewlines(text), 0);
+            this.text = text;
+        }
+        
+        private static int countNewlines(String text) {
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+    
+    private static final class Branch extends Node {
+        final Node left;
+        final Node right;
+        
+        Branch(Node left, Node right) {
+            super(left.length + right.length, left.newlines + right.newlines,
+                    Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+    
+    private static final class SequentialView implements CharSequence {
+        private final Rope rope;
+        private final int start;
+        private final int end;
+        
+        // Chunk that served the last lookup, in rope coordinates
+        private String chunk = "";
+        private int chunkStart;
+        
+        SequentialView(Rope rope, int start, int end) {
+            this.rope = rope;
+            this.start = start;
+            this.end = end;
+        }
+        
+        @Override
+        public int length() {
+            return end - start;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            checkIndex(index, length());
+            int position = start + index;
+            int offset = position - chunkStart;
+            if (offset < 0 || offset >= chunk.length()) {
+                locate(position);
+                offset = position - chunkStart;
+            }
+            return chunk.charAt(offset);
+        }
+        
+        private void locate(int position) {
+            Node node = rope.root;
+            int nodeStart = 0;
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                if (position - nodeStart < branch.left.length) {
+                    node = branch.left;
+                } else {
+                    nodeStart += branch.left.length;
+                    node = branch.right;
+                }
+            }
+            chunk = ((Leaf) node).text;
+            chunkStart = nodeStart;
+        }
+        
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length() || from > to) {
+                throw new IndexOutOfBoundsException("[" + from + ", " + to + ") of " + length());
+            }
+            return new SequentialView(rope, start + from, start + to);
+        }
+        
+        @Override
+        public String toString() {
+            return rope.substring(start, end);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.codesphere.models;
+
+/**
+ * Document model backed by a {@link Rope}. Snapshots are the current rope
+ * itself, so taking one is O(1) and safe to hand to other threads.
+ */
+public class RopeDocument implements DocumentModel {
+    private volatile Rope rope;
+    
+    public RopeDocument() {
+        this("");
+    }
+    
+    public RopeDocument(String initialText) {
+        this.rope = Rope.of(initialText);
+    }
+    
+    @Override
+    public int length() {
+        return rope.length();
+    }
+    
+    @Override
+    public String getText(int start, int end) {
+        return rope.substring(start, end);
+    }
+    
+    @Override
+    public void replace(int start, int end, String text) {
+        rope = rope.replace(start, end, text);
+    }
+    
+    @Override
+    public Rope snapshot() {
+        return rope;
+    }
+    
+    public int lineCount() {
+        return rope.lineCount();
+    }
+    
+    public int lineOfOffset(int offset) {
+        return rope.lineOfOffset(offset);
+    }
+    
+    public int offsetOfLine(int line) {
+        return rope.offsetOfLine(line);
+    }
+    
+    @Override
+    public String toString() {
+        return rope.toString();
+    }
+}
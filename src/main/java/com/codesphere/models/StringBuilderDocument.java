@@ -0,0 +1,36 @@
+package com.codesphere.models;
+
+/**
+ * Document model backed by a single StringBuilder
+ */
+public class StringBuilderDocument implements DocumentModel {
+    private final StringBuilder text;
+    
+    public StringBuilderDocument() {
+        this("");
+    }
+    
+    public StringBuilderDocument(String initialText) {
+        this.text = new StringBuilder(initialText);
+    }
+    
+    @Override
+    public int length() {
+        return text.length();
+    }
+    
+    @Override
+    public String getText(int start, int end) {
+        return text.substring(start, end);
+    }
+    
+    @Override
+    public void replace(int start, int end, String replacement) {
+        text.replace(start, end, replacement);
+    }
+    
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
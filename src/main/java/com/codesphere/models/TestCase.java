@@ -0,0 +1,31 @@
+package com.codesphere.models;
+
+/**
+ * One input for a program and, optionally, the output it should print
+ */
+public class TestCase {
+    private final String name;
+    private final String stdin;
+    private final String expectedOutput;
+    
+    /**
+     * @param expectedOutput what the program should print, or null if exiting normally is enough
+     */
+    public TestCase(String name, String stdin, String expectedOutput) {
+        this.name = name;
+        this.stdin = stdin;
+        this.expectedOutput = expectedOutput;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getStdin() {
+        return stdin;
+    }
+    
+    public String getExpectedOutput() {
+        return expectedOutput;
+    }
+}
@@ -0,0 +1,37 @@
+package com.codesphere.models;
+
+/**
+ * How a program did on one test case
+ */
+public class TestCaseResult {
+    private final int index;
+    private final TestCase testCase;
+    private final ExecutionResult result;
+    private final boolean passed;
+    
+    public TestCaseResult(int index, TestCase testCase, ExecutionResult result, boolean passed) {
+        this.index = index;
+        this.testCase = testCase;
+        this.result = result;
+        this.passed = passed;
+    }
+    
+    /**
+     * The case's position in its suite.
+     */
+    public int getIndex() {
+        return index;
+    }
+    
+    public TestCase getTestCase() {
+        return testCase;
+    }
+    
+    public ExecutionResult getResult() {
+        return result;
+    }
+    
+    public boolean isPassed() {
+        return passed;
+    }
+}
@@ -0,0 +1,53 @@
+package com.codesphere.models;
+
+import java.util.List;
+
+/**
+ * How a program did on a whole suite of test cases
+ */
+public class TestSuiteResult {
+    private final ExecutionResult compileError;
+    private final List<TestCaseResult> results;
+    private final boolean stoppedEarly;
+    private final long millis;
+    
+    public TestSuiteResult(ExecutionResult compileError, List<TestCaseResult> results, boolean stoppedEarly, long millis) {
+        this.compileError = compileError;
+        this.results = results;
+        this.stoppedEarly = stoppedEarly;
+        this.millis = millis;
+    }
+    
+    /**
+     * Why no case ran, or null if the program compiled.
+     */
+    public ExecutionResult getCompileError() {
+        return compileError;
+    }
+    
+    /**
+     * The cases that ran, in suite order; cases skipped after a failure are missing.
+     */
+    public List<TestCaseResult> getResults() {
+        return results;
+    }
+    
+    public int getPassed() {
+        int passed = 0;
+        for (TestCaseResult result : results) {
+            if (result.isPassed()) passed++;
+        }
+        return passed;
+    }
+    
+    /**
+     * Whether the remaining cases were skipped after the first failure.
+     */
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+    
+    public long getMillis() {
+        return millis;
+    }
+}
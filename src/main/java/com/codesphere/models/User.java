@@ -1,6 +1,8 @@
 
 package com.codesphere.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 import java.util.Date;
 import java.util.UUID;
@@ -104,6 +106,7 @@ public class User {
     }
     
     // For calculating online status
+    @JsonIgnore
     public boolean isOnline() {
         if (lastSeen == null) {
             return false;
@@ -115,6 +118,7 @@ public class User {
     }
     
     // For display in UI
+    @JsonIgnore
     public String getStatusText() {
         if (isOnline()) {
             return "Online";
@@ -0,0 +1,241 @@
+package com.codesphere.server;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.User;
+import com.codesphere.services.BinaryFrameCodec;
+import com.codesphere.services.CollaborationRoom;
+import com.codesphere.services.Metrics;
+import com.codesphere.services.RoomMember;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.SendHandler;
+import javax.websocket.Session;
+import javax.websocket.server.PathParam;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One client connection to the collaboration hub. Tyrus creates an endpoint per
+ * connection, so the instance doubles as the connection's member of its room.
+ * 
+ * A client announces itself with a JOIN event, opens the shared document with an
+ * OPEN_DOCUMENT event carrying its current text and is answered with a snapshot
+ * before any change of the room reaches it. A client coming back after a
+ * dropped connection sends RESUME with the last revision it saw instead.
+ * 
+ * Messages are sent without waiting for the socket, up to
+ * {@code codesphere.hub.maxPendingSends} not yet written per connection. A
+ * client that falls further behind is disconnected and resumes once it has
+ * reconnected, so it cannot make the hub buffer without bound.
+ */
+@ServerEndpoint(value = "/collaboration/{roomId}",
+        subprotocols = {BinaryFrameCodec.BINARY_SUBPROTOCOL, BinaryFrameCodec.JSON_SUBPROTOCOL})
+public class CollaborationEndpoint implements RoomMember {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int MAX_PENDING_SENDS = Integer.getInteger("codesphere.hub.maxPendingSends", 1024);
+    
+    private Session session;
+    private String roomId;
+    // Null until the client has sent its JOIN
+    private volatile CollaborationRoom room;
+    private boolean binary;
+    private final BinaryFrameCodec frameCodec = new BinaryFrameCodec(OBJECT_MAPPER);
+    
+    // Zero until the client has sent its JOIN
+    private volatile int sessionId;
+    
+    private final AtomicInteger pendingSends = new AtomicInteger();
+    private volatile boolean tooSlow;
+    
+    @OnOpen
+    public void onOpen(Session session, @PathParam("roomId") String roomId) {
+        this.session = session;
+        this.roomId = roomId;
+        this.binary = BinaryFrameCodec.BINARY_SUBPROTOCOL.equals(session.getNegotiatedSubprotocol());
+        Metrics.counter("hub.connections.opened").increment();
+    }
+    
+    @OnMessage
+    public void onText(String payload) {
+        try {
+            // Determine if it's an editor change or collaboration event
+            if (payload.contains("\"type\":")) {
+                handleEvent(OBJECT_MAPPER.readValue(payload, CollaborationEvent.class));
+            } else {
+                handleChange(OBJECT_MAPPER.readValue(payload, EditorChange.class));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    @OnMessage
+    public void onBinary(ByteBuffer frame) {
+        try {
+            Object decoded = frameCodec.decode(frame, this::resolveSessionUser);
+            if (decoded instanceof EditorChange) {
+                handleChange((EditorChange) decoded);
+            } else {
+                handleEvent((CollaborationEvent) decoded);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    @OnClose
+    public void onClose(CloseReason reason) {
+        leaveRoom();
+        Metrics.counter("hub.connections.closed").increment();
+    }
+    
+    @OnError
+    public void onError(Throwable error) {
+        // Closing follows, which takes the session out of its room
+        if (!(error instanceof IOException)) {
+            error.printStackTrace();
+        }
+    }
+    
+    private void handleChange(EditorChange change) {
+        if (sessionId == 0) return;
+        Metrics.counter("hub.changes.received").increment();
+        
+        // The connection, not the payload, decides who the change is from
+        try {
+            room.submit(this, change);
+        } catch (IllegalStateException e) {
+            // Based on a revision the room no longer keeps; the client resumes once reconnected
+            e.printStackTrace();
+            close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, "Unknown base revision"));
+        } catch (IllegalArgumentException e) {
+            // A range outside the document, which a well-behaved client never sends; the room is left as it was
+            Metrics.counter("hub.changes.rejected").increment();
+            close(new CloseReason(CloseReason.CloseCodes.PROTOCOL_ERROR, "Change outside the document"));
+        }
+    }
+    
+    private void handleEvent(CollaborationEvent event) {
+        Metrics.counter("hub.events.received").increment();
+        if ("JOIN".equals(event.getType())) {
+            if (sessionId != 0) return;
+            sessionId = event.getSessionId();
+            room = CollaborationRoom.join(roomId, this, event);
+            return;
+        }
+        if (sessionId == 0) return;
+        
+        event.setSessionId(sessionId);
+        if ("OPEN_DOCUMENT".equals(event.getType())) {
+            Object text = event.getData() != null ? event.getData().get("text") : null;
+            room.openDocument(this, text != null ? text.toString() : "");
+        } else if ("RESUME".equals(event.getType())) {
+            room.resume(this, ((Number) event.getData().get("revision")).longValue());
+        } else if ("LEAVE".equals(event.getType())) {
+            leaveRoom();
+        } else {
+            room.publishEvent(event);
+        }
+    }
+    
+    private void leaveRoom() {
+        CollaborationRoom joined = room;
+        if (sessionId != 0 && joined != null) {
+            joined.leave(this);
+            sessionId = 0;
+        }
+    }
+    
+    private User resolveSessionUser(int remoteSessionId) {
+        CollaborationRoom joined = room;
+        User user = joined != null ? joined.getSessionUser(remoteSessionId) : null;
+        if (user == null) {
+            user = new User();
+            user.setId("session-" + remoteSessionId);
+            user.setName("Guest");
+        }
+        return user;
+    }
+    
+    @Override
+    public int getSessionId() {
+        return sessionId;
+    }
+    
+    @Override
+    public void onSnapshot(DocumentSnapshot snapshot) {
+        send(snapshot);
+        Metrics.histogram("hub.snapshot.tail_length").record(snapshot.getTail().size());
+    }
+    
+    @Override
+    public void onEditorChange(EditorChange change) {
+        send(change);
+    }
+    
+    @Override
+    public void onEvent(CollaborationEvent event) {
+        send(event);
+    }
+    
+    /**
+     * Queues a message on the connection without waiting for the socket, so a slow
+     * client never holds up the room it is in.
+     */
+    private void send(Object message) {
+        if (tooSlow || !session.isOpen()) return;
+        if (pendingSends.incrementAndGet() > MAX_PENDING_SENDS) {
+            pendingSends.decrementAndGet();
+            tooSlow = true;
+            Metrics.counter("hub.connections.too_slow").increment();
+            // Not on this thread, which may hold the room's lock while the close handshake waits on the socket
+            ForkJoinPool.commonPool().execute(() -> close(
+                    new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too far behind")));
+            return;
+        }
+        SendHandler written = result -> pendingSends.decrementAndGet();
+        try {
+            if (binary) {
+                ByteBuffer frame;
+                synchronized (frameCodec) {
+                    if (message instanceof EditorChange) {
+                        frame = frameCodec.encode((EditorChange) message);
+                    } else if (message instanceof DocumentSnapshot) {
+                        frame = frameCodec.encode((DocumentSnapshot) message);
+                    } else {
+                        frame = frameCodec.encode((CollaborationEvent) message);
+                    }
+                }
+                session.getAsyncRemote().sendBinary(frame, written);
+            } else {
+                session.getAsyncRemote().sendText(OBJECT_MAPPER.writeValueAsString(message), written);
+            }
+            Metrics.counter("hub.messages.sent").increment();
+        } catch (IOException e) {
+            pendingSends.decrementAndGet();
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            pendingSends.decrementAndGet();
+            // The connection closed after the check; its own close removes it from the room
+            Metrics.counter("hub.messages.dropped").increment();
+        }
+    }
+    
+    private void close(CloseReason reason) {
+        try {
+            session.close(reason);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
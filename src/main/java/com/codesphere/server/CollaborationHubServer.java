@@ -0,0 +1,53 @@
+package com.codesphere.server;
+
+import com.codesphere.services.CollaborationRoom;
+import com.codesphere.services.Metrics;
+import org.glassfish.tyrus.server.Server;
+
+import javax.websocket.DeploymentException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Standalone collaboration hub serving ws://host:port/collaboration/{roomId}.
+ * 
+ * Runs on Tyrus over Grizzly's NIO transport, so connections are multiplexed on a
+ * few selector threads and each room only serializes its own edits. Start it with
+ * {@code mvn compile exec:java@hub}, optionally passing host and port as arguments.
+ */
+public class CollaborationHubServer {
+    public static final String DEFAULT_HOST = "localhost";
+    public static final int DEFAULT_PORT = 8080;
+    
+    private final Server server;
+    
+    public CollaborationHubServer(String host, int port) {
+        this.server = new Server(host, port, "/", Map.of(), CollaborationEndpoint.class);
+    }
+    
+    public void start() throws DeploymentException {
+        server.start();
+    }
+    
+    public void stop() {
+        server.stop();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        
+        CollaborationHubServer hub = new CollaborationHubServer(host, port);
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            hub.stop();
+            System.out.println("Rooms: " + CollaborationRoom.getLocalRoomCount());
+            System.out.println(Metrics.report());
+            stopped.countDown();
+        }));
+        
+        hub.start();
+        System.out.println("Collaboration hub listening on ws://" + host + ":" + port + "/collaboration");
+        stopped.await();
+    }
+}
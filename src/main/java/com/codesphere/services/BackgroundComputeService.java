@@ -0,0 +1,171 @@
+package com.codesphere.services;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the editor's background work on a fixed number of worker threads instead
+ * of a thread per job. Queued tasks start in priority order, and work superseded
+ * by newer input can be cancelled: queued tasks never start, running ones are told
+ * through {@link Cancellation} and are expected to stop at their next check.
+ *
+ * Every task is timed under its name: {@code compute.<name>.queue_us} from submit
+ * to start and {@code compute.<name>.run_us} for the run itself.
+ */
+public class BackgroundComputeService {
+    
+    /** In the order queued tasks are started */
+    public enum Priority {
+        // Work the user is waiting for, such as formatting
+        INTERACTIVE,
+        // Preparation ahead of use, such as loading the compiler
+        WARM_UP
+    }
+    
+    /**
+     * A computation that checks now and then whether its result is still wanted.
+     */
+    public interface Work<T> {
+        T compute(Cancellation cancellation) throws Exception;
+    }
+    
+    public interface Cancellation {
+        boolean isCancelled();
+        
+        /**
+         * Ends the computation if its result is no longer wanted.
+         */
+        default void throwIfCancelled() {
+            if (isCancelled()) {
+                throw new CancellationException();
+            }
+        }
+    }
+    
+    private static final BackgroundComputeService SHARED =
+            new BackgroundComputeService(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    
+    private final ThreadPoolExecutor workers;
+    private final AtomicLong sequence = new AtomicLong();
+    
+    // Latest task per key, for work that newer input makes stale
+    private final Map<String, ComputeTask<?>> latest = new ConcurrentHashMap<>();
+    
+    public BackgroundComputeService(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "compute-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            // The UI thread goes first when the cores are busy
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        Metrics.gauge("compute.queue_depth", () -> workers.getQueue().size());
+    }
+    
+    /**
+     * The process-wide service, with one worker per core.
+     */
+    public static BackgroundComputeService shared() {
+        return SHARED;
+    }
+    
+    public <T> ComputeTask<T> submit(Priority priority, String name, Work<T> work) {
+        ComputeTask<T> task = new ComputeTask<>(priority, name, work, sequence.incrementAndGet());
+        workers.execute(task);
+        return task;
+    }
+    
+    /**
+     * Submits a task and cancels the previous one submitted under the same key,
+     * for work whose result only matters for the newest input.
+     */
+    public <T> ComputeTask<T> submitLatest(String key, Priority priority, String name, Work<T> work) {
+        ComputeTask<T> task = new ComputeTask<>(priority, name, work, sequence.incrementAndGet());
+        ComputeTask<?> previous = latest.put(key, task);
+        if (previous != null) {
+            previous.cancel();
+        }
+        task.result.whenComplete((value, error) -> latest.remove(key, task));
+        workers.execute(task);
+        return task;
+    }
+    
+    public final class ComputeTask<T> implements Runnable, Comparable<ComputeTask<?>>, Cancellation {
+        private final Priority priority;
+        private final String name;
+        private final Work<T> work;
+        private final long sequence;
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        
+        private ComputeTask(Priority priority, String name, Work<T> work, long sequence) {
+            this.priority = priority;
+            this.name = name;
+            this.work = work;
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public void run() {
+            if (cancelled) {
+                result.cancel(false);
+                return;
+            }
+            long startNanos = System.nanoTime();
+            Metrics.histogram("compute." + name + ".queue_us").record((startNanos - submittedNanos) / 1000);
+            try {
+                T value = work.compute(this);
+                // A result that arrives after cancelling is stale all the same
+                if (cancelled) {
+                    result.cancel(false);
+                } else {
+                    result.complete(value);
+                }
+            } catch (CancellationException e) {
+                result.cancel(false);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            Metrics.histogram("compute." + name + ".run_us").record((System.nanoTime() - startNanos) / 1000);
+        }
+        
+        /**
+         * Completes with the computed value, or exceptionally with a
+         * {@link CancellationException} if the task was cancelled.
+         */
+        public CompletableFuture<T> getResult() {
+            return result;
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public void cancel() {
+            if (cancelled || result.isDone()) return;
+            cancelled = true;
+            Metrics.counter("compute." + name + ".cancelled").increment();
+            // Still queued: drop it now rather than when a worker reaches it
+            if (workers.remove(this)) {
+                result.cancel(false);
+            }
+        }
+        
+        @Override
+        public int compareTo(ComputeTask<?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
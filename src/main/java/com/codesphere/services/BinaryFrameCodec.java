@@ -0,0 +1,273 @@
+package com.codesphere.services;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Compact binary frames for the collaboration WebSocket.
+ * 
+ * Every frame starts with a version byte and a message type tag followed by the
+ * sender's session id as a varint. Users are only described in full by JOIN
+ * frames; every other frame refers to them by session id. Positions are varints
+ * and text is length-prefixed UTF-8:
+ * <pre>
+ *   EDIT         revision, start, removed length, inserted text
+ *   JOIN         user id, name, color
+ *   LEAVE        (nothing)
+ *   CURSOR_MOVE  line, column
+ *   EVENT        type, JSON data (any other collaboration event)
+ *   SNAPSHOT     revision, text, change count, then per change: session, start,
+ *                removed length, inserted text
+ * </pre>
+ */
+public class BinaryFrameCodec {
+    public static final int VERSION = 1;
+    
+    // WebSocket subprotocols, binary preferred over the JSON fallback
+    public static final String BINARY_SUBPROTOCOL = "codesphere.v1.binary";
+    public static final String JSON_SUBPROTOCOL = "codesphere.v1.json";
+    
+    static final byte EDIT = 1;
+    static final byte JOIN = 2;
+    static final byte LEAVE = 3;
+    static final byte CURSOR_MOVE = 4;
+    static final byte EVENT = 5;
+    static final byte SNAPSHOT = 6;
+    
+    private static final TypeReference<Map<String, Object>> DATA_TYPE = new TypeReference<>() {};
+    
+    private final ObjectMapper objectMapper;
+    
+    // Reused encode buffer, so a codec instance must not be shared between threads
+    private byte[] out = new byte[256];
+    private int length;
+    
+    public BinaryFrameCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+    
+    public ByteBuffer encode(EditorChange change) {
+        begin(EDIT, change.getSessionId());
+        writeVarLong(change.getRevision());
+        writeVarLong(change.getStartPosition());
+        writeVarLong(change.getEndPosition() - change.getStartPosition());
+        writeString(change.getInsertedText());
+        return finish();
+    }
+    
+    public ByteBuffer encode(CollaborationEvent event) throws JsonProcessingException {
+        String type = event.getType();
+        if ("JOIN".equals(type)) {
+            User user = event.getUser();
+            begin(JOIN, event.getSessionId());
+            writeString(user.getId());
+            writeString(user.getName());
+            writeString(user.getColor());
+        } else if ("LEAVE".equals(type)) {
+            begin(LEAVE, event.getSessionId());
+        } else if ("CURSOR_MOVE".equals(type)) {
+            begin(CURSOR_MOVE, event.getSessionId());
+            writeVarLong(((Number) event.getData().get("line")).longValue());
+            writeVarLong(((Number) event.getData().get("column")).longValue());
+        } else {
+            begin(EVENT, event.getSessionId());
+            writeString(type);
+            writeString(event.getData() != null ? objectMapper.writeValueAsString(event.getData()) : null);
+        }
+        return finish();
+    }
+    
+    /**
+     * Encodes a room snapshot. The tail changes carry no user or revision; their
+     * revisions follow on from the snapshot's.
+     */
+    public ByteBuffer encode(DocumentSnapshot snapshot) {
+        begin(SNAPSHOT, 0);
+        writeVarLong(snapshot.getRevision());
+        writeString(snapshot.getText());
+        writeVarLong(snapshot.getTail().size());
+        for (EditorChange change : snapshot.getTail()) {
+            writeVarLong(change.getSessionId());
+            writeVarLong(change.getStartPosition());
+            writeVarLong(change.getEndPosition() - change.getStartPosition());
+            writeString(change.getInsertedText());
+        }
+        return finish();
+    }
+    
+    /**
+     * Decodes one frame straight from the buffer without copying it first.
+     * 
+     * @param users resolves the session ids of previously joined users
+     * @return an {@link EditorChange}, a {@link CollaborationEvent} or a {@link DocumentSnapshot}
+     */
+    public Object decode(ByteBuffer frame, IntFunction<User> users) throws JsonProcessingException {
+        try {
+            int version = frame.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported frame version " + version);
+            }
+            byte type = frame.get();
+            int sessionId = (int) readVarLong(frame);
+            
+            if (type == EDIT) {
+                EditorChange change = new EditorChange();
+                change.setSessionId(sessionId);
+                change.setUser(users.apply(sessionId));
+                change.setRevision(readVarLong(frame));
+                int start = (int) readVarLong(frame);
+                change.setStartPosition(start);
+                change.setEndPosition(start + (int) readVarLong(frame));
+                change.setInsertedText(readString(frame));
+                return change;
+            }
+            if (type == SNAPSHOT) {
+                return readSnapshot(frame);
+            }
+            
+            CollaborationEvent event = new CollaborationEvent();
+            event.setSessionId(sessionId);
+            switch (type) {
+                case JOIN:
+                    User user = new User();
+                    user.setId(readString(frame));
+                    user.setName(readString(frame));
+                    user.setColor(readString(frame));
+                    event.setType("JOIN");
+                    event.setUser(user);
+                    break;
+                case LEAVE:
+                    event.setType("LEAVE");
+                    event.setUser(users.apply(sessionId));
+                    break;
+                case CURSOR_MOVE:
+                    Map<String, Object> position = new HashMap<>(4);
+                    position.put("line", (int) readVarLong(frame));
+                    position.put("column", (int) readVarLong(frame));
+                    event.setType("CURSOR_MOVE");
+                    event.setUser(users.apply(sessionId));
+                    event.setData(position);
+                    break;
+                case EVENT:
+                    event.setType(readString(frame));
+                    event.setUser(users.apply(sessionId));
+                    String data = readString(frame);
+                    event.setData(data != null ? objectMapper.readValue(data, DATA_TYPE) : null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown frame type " + type);
+            }
+            return event;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated frame", e);
+        }
+    }
+    
+    private static DocumentSnapshot readSnapshot(ByteBuffer frame) {
+        long revision = readVarLong(frame);
+        String text = readString(frame);
+        int count = (int) readVarLong(frame);
+        List<EditorChange> tail = new ArrayList<>(Math.min(count, frame.remaining()));
+        for (int i = 0; i < count; i++) {
+            EditorChange change = new EditorChange();
+            change.setSessionId((int) readVarLong(frame));
+            change.setRevision(revision + i + 1);
+            int start = (int) readVarLong(frame);
+            change.setStartPosition(start);
+            change.setEndPosition(start + (int) readVarLong(frame));
+            change.setInsertedText(readString(frame));
+            tail.add(change);
+        }
+        return new DocumentSnapshot(revision, text, tail);
+    }
+    
+    private void begin(byte type, int sessionId) {
+        length = 0;
+        ensureCapacity(2);
+        out[length++] = VERSION;
+        out[length++] = type;
+        writeVarLong(sessionId);
+    }
+    
+    private ByteBuffer finish() {
+        return ByteBuffer.wrap(Arrays.copyOf(out, length));
+    }
+    
+    private void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            out[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[length++] = (byte) value;
+    }
+    
+    // Length is written as varint(byteLength + 1) so that 0 can stand for null
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, out, length, bytes.length);
+        length += bytes.length;
+    }
+    
+    private void ensureCapacity(int extra) {
+        if (length + extra > out.length) {
+            out = Arrays.copyOf(out, Math.max(out.length * 2, length + extra));
+        }
+    }
+    
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int encodedLength = (int) readVarLong(in);
+        if (encodedLength == 0) {
+            return null;
+        }
+        int byteLength = encodedLength - 1;
+        if (byteLength > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        
+        String value;
+        if (in.hasArray()) {
+            // Decode in place from the backing array
+            value = new String(in.array(), in.arrayOffset() + in.position(), byteLength, StandardCharsets.UTF_8);
+        } else {
+            ByteBuffer slice = in.slice();
+            slice.limit(byteLength);
+            value = StandardCharsets.UTF_8.decode(slice).toString();
+        }
+        in.position(in.position() + byteLength);
+        return value;
+    }
+}
@@ -0,0 +1,94 @@
+package com.codesphere.services;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Collects a program's output up to a limit and drops the rest. Each write
+ * that is kept can also be passed on as text as soon as it arrives.
+ */
+class BoundedOutput extends ByteArrayOutputStream {
+    private final int limit;
+    private volatile boolean truncated;
+    // Everything the program wrote, kept or not
+    private volatile long written;
+    
+    private final OutputListener listener;
+    private final boolean error;
+    private final CharsetDecoder decoder;
+    // Bytes before this have been passed on; the rest end in an incomplete character
+    private int forwarded;
+    
+    BoundedOutput(int limit) {
+        this(limit, null, OutputListener.NONE, false);
+    }
+    
+    /**
+     * @param error whether this is standard error, as told to the listener
+     */
+    BoundedOutput(int limit, Charset charset, OutputListener listener, boolean error) {
+        super(Math.min(limit, 8192));
+        this.limit = limit;
+        this.listener = listener;
+        this.error = error;
+        this.decoder = listener == OutputListener.NONE ? null : charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    
+    @Override
+    public synchronized void write(int b) {
+        written++;
+        if (count >= limit) {
+            truncated = true;
+            return;
+        }
+        super.write(b);
+        forward();
+    }
+    
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        written += length;
+        if (length > limit - count) {
+            truncated = true;
+            length = limit - count;
+        }
+        super.write(bytes, offset, length);
+        forward();
+    }
+    
+    /**
+     * Whether output was dropped for going over the limit.
+     */
+    boolean isTruncated() {
+        return truncated;
+    }
+    
+    /**
+     * Bytes written so far, including those dropped past the limit.
+     */
+    long getWritten() {
+        return written;
+    }
+    
+    synchronized String text(Charset charset) {
+        String text = toString(charset);
+        return truncated ? text + "\n[output truncated]\n" : text;
+    }
+    
+    private void forward() {
+        if (decoder == null || forwarded == count) return;
+        ByteBuffer bytes = ByteBuffer.wrap(buf, forwarded, count - forwarded);
+        CharBuffer chars = CharBuffer.allocate((int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()));
+        decoder.decode(bytes, chars, false);
+        forwarded = bytes.position();
+        if (chars.position() > 0) {
+            listener.output(chars.flip().toString(), error);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.EditorLanguage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Formats source code in one pass over the text, without copying it. Each line is
+ * lexed as it is reached, so braces and indentation inside strings and comments are
+ * left alone, and the result is a list of edits that only touch whitespace and line
+ * breaks; an already formatted document gives no edits at all.
+ * 
+ * C-style languages are indented by brace depth, with a line break after an opening
+ * brace followed by more code and before a closing brace preceded by code. Python
+ * keeps the block structure its indentation encodes and only makes each block four
+ * spaces deeper than the one around it. Instances are immutable and can be shared.
+ */
+public class CodeFormatter {
+    
+    private static final int INDENT_WIDTH = 4;
+    // Python's own tab stops
+    private static final int TAB_WIDTH = 8;
+    
+    private static final CodeFormatter JAVA = new CodeFormatter(EditorLanguage.JAVA, false, true);
+    private static final CodeFormatter PYTHON = new CodeFormatter(EditorLanguage.PYTHON, true, false);
+    private static final CodeFormatter CPP = new CodeFormatter(EditorLanguage.CPP, false, true);
+    private static final CodeFormatter JAVASCRIPT = new CodeFormatter(EditorLanguage.JAVASCRIPT, false, false);
+    
+    private final LineLexer lexer;
+    private final boolean python;
+    // Languages whose lexer does not treat '...' as a string, but where '{' is a character
+    private final boolean charLiterals;
+    
+    private CodeFormatter(EditorLanguage language, boolean python, boolean charLiterals) {
+        this.lexer = StateMachineLexer.forLanguage(language);
+        this.python = python;
+        this.charLiterals = charLiterals;
+    }
+    
+    public static CodeFormatter forLanguage(EditorLanguage language) {
+        switch (language) {
+            case PYTHON:
+                return PYTHON;
+            case CPP:
+                return CPP;
+            case JAVASCRIPT:
+                return JAVASCRIPT;
+            case JAVA:
+            default:
+                return JAVA;
+        }
+    }
+    
+    /**
+     * Formats the whole text.
+     * 
+     * @see #format(CharSequence, int, int)
+     */
+    public List<EditorChange> format(CharSequence text) {
+        return format(text, 0, text.length());
+    }
+    
+    /**
+     * Formats the lines overlapping {@code [start, end)}, or the line holding
+     * {@code start} if the range is empty. Earlier lines are only scanned for the
+     * nesting they leave open, later ones are not read at all.
+     * 
+     * @return edits in document order, not overlapping, with offsets into {@code text}
+     *         as given; apply them back to front, or front to back shifting each by
+     *         the length change of the ones before
+     */
+    public List<EditorChange> format(CharSequence text, int start, int end) {
+        return format(text, start, end, () -> false);
+    }
+    
+    /**
+     * Like {@link #format(CharSequence, int, int)}, checking before each line whether
+     * the result is still wanted.
+     */
+    public List<EditorChange> format(CharSequence text, int start, int end,
+                                     BackgroundComputeService.Cancellation cancellation) {
+        int lastOffset = Math.max(start, end - 1);
+        Pass pass = new Pass(text);
+        int lineStart = 0;
+        while (lineStart <= lastOffset) {
+            cancellation.throwIfCancelled();
+            int lineEnd = lineStart;
+            while (lineEnd < text.length() && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            // A carriage return is part of the line break, not trailing whitespace
+            int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            pass.line(lineStart, contentEnd, lineEnd >= start);
+            if (lineEnd == text.length()) break;
+            lineStart = lineEnd + 1;
+        }
+        return pass.edits;
+    }
+    
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+    
+    /**
+     * State carried from line to line through one call to {@link #format}.
+     */
+    private final class Pass implements LineLexer.TokenSink {
+        private final CharSequence text;
+        private final LineView line;
+        private final List<EditorChange> edits = new ArrayList<>();
+        private final StringBuilder replacement = new StringBuilder();
+        private int state = LineLexer.INITIAL_STATE;
+        
+        // Strings and comments of the current line, as absolute [start, end) offsets
+        private int[] opaqueStarts = new int[8];
+        private int[] opaqueEnds = new int[8];
+        private boolean[] opaqueComments = new boolean[8];
+        private int opaqueCount;
+        
+        // C-style: open braces
+        private int level;
+        
+        // Python: widths of the enclosing blocks, open brackets, backslash continuation
+        private int[] blockWidths = new int[16];
+        private int blockCount = 1;
+        private int bracketDepth;
+        private boolean continued;
+        
+        Pass(CharSequence text) {
+            this.text = text;
+            this.line = new LineView(text);
+        }
+        
+        void line(int start, int end, boolean emit) {
+            int startState = state;
+            opaqueCount = 0;
+            line.reset(start, end);
+            state = lexer.lexLine(line, startState, this);
+            if (python) {
+                pythonLine(start, end, startState, emit);
+            } else {
+                braceLine(start, end, startState, emit);
+            }
+        }
+        
+        @Override
+        public void token(int start, int end, String styleClass) {
+            if (LineLexer.KEYWORD.equals(styleClass)) return;
+            if (opaqueCount == opaqueStarts.length) {
+                opaqueStarts = Arrays.copyOf(opaqueStarts, opaqueCount * 2);
+                opaqueEnds = Arrays.copyOf(opaqueEnds, opaqueCount * 2);
+                opaqueComments = Arrays.copyOf(opaqueComments, opaqueCount * 2);
+            }
+            opaqueStarts[opaqueCount] = line.offset + start;
+            opaqueEnds[opaqueCount] = line.offset + end;
+            opaqueComments[opaqueCount] = LineLexer.COMMENT.equals(styleClass);
+            opaqueCount++;
+        }
+        
+        private void braceLine(int start, int end, int startState, boolean emit) {
+            int first = skipWhitespace(start, end);
+            int last = trimEnd(first, end);
+            if (first == end) {
+                if (emit) replace(start, end, false, 0, false);
+                return;
+            }
+            
+            boolean codeFirst = startState == LineLexer.INITIAL_STATE;
+            if (emit) {
+                if (codeFirst) {
+                    int lineLevel = text.charAt(first) == '}' ? Math.max(0, level - 1) : level;
+                    replace(start, first, false, lineLevel, false);
+                } else if (text.charAt(first) == '*') {
+                    // Comment continuation, lined up under the comment's opening star
+                    replace(start, first, false, level, true);
+                }
+            }
+            
+            // Where the current output line starts, for a closing brace that is already first
+            int outputLineStart = codeFirst ? first : -1;
+            int opaque = 0;
+            int i = first;
+            while (i < last) {
+                while (opaque < opaqueCount && opaqueEnds[opaque] <= i) {
+                    opaque++;
+                }
+                if (opaque < opaqueCount && opaqueStarts[opaque] <= i) {
+                    i = opaqueEnds[opaque];
+                    continue;
+                }
+                char c = text.charAt(i);
+                if (c == '\'' && charLiterals) {
+                    i = charLiteralEnd(i, last);
+                } else if (c == '{') {
+                    level++;
+                    int next = skipWhitespace(i + 1, last);
+                    if (next < last && !onlyCommentsFrom(next, last, opaque)) {
+                        boolean closes = text.charAt(next) == '}';
+                        if (emit) replace(i + 1, next, true, closes ? level - 1 : level, false);
+                        outputLineStart = next;
+                    }
+                    i++;
+                } else if (c == '}') {
+                    if (i != outputLineStart) {
+                        int breakAt = i;
+                        while (isWhitespace(text.charAt(breakAt - 1))) {
+                            breakAt--;
+                        }
+                        if (emit) replace(breakAt, i, true, Math.max(0, level - 1), false);
+                        outputLineStart = i;
+                    }
+                    level = Math.max(0, level - 1);
+                    i++;
+                } else {
+                    i++;
+                }
+            }
+            if (emit) replace(last, end, false, 0, false);
+        }
+        
+        private void pythonLine(int start, int end, int startState, boolean emit) {
+            int first = skipWhitespace(start, end);
+            int last = trimEnd(first, end);
+            // Whitespace inside a string that runs on, or after a backslash, is not ours to drop
+            boolean trailingIsCode = state == LineLexer.INITIAL_STATE && (last == first || text.charAt(last - 1) != '\\');
+            if (first == end) {
+                if (emit && trailingIsCode) replace(start, end, false, 0, false);
+                return;
+            }
+            
+            if (startState == LineLexer.INITIAL_STATE && bracketDepth == 0 && !continued) {
+                int width = indentWidth(start, first);
+                if (text.charAt(first) == '#') {
+                    // A comment takes the depth of the block it lines up with, if any
+                    for (int block = 0; block < blockCount; block++) {
+                        if (blockWidths[block] == width) {
+                            if (emit) replace(start, first, false, block, false);
+                            break;
+                        }
+                    }
+                } else {
+                    boolean dedented = false;
+                    while (blockCount > 1 && width < blockWidths[blockCount - 1]) {
+                        blockCount--;
+                        dedented = true;
+                    }
+                    if (width > blockWidths[blockCount - 1]) {
+                        if (blockCount == blockWidths.length) {
+                            blockWidths = Arrays.copyOf(blockWidths, blockCount * 2);
+                        }
+                        blockWidths[blockCount++] = width;
+                        // Dedenting to a width no enclosing block has is an error Python reports; leave the line be
+                        if (emit && !dedented) replace(start, first, false, blockCount - 1, false);
+                    } else if (emit) {
+                        replace(start, first, false, blockCount - 1, false);
+                    }
+                }
+            }
+            
+            int opaque = 0;
+            for (int i = first; i < last; i++) {
+                while (opaque < opaqueCount && opaqueEnds[opaque] <= i) {
+                    opaque++;
+                }
+                if (opaque < opaqueCount && opaqueStarts[opaque] <= i) {
+                    i = opaqueEnds[opaque] - 1;
+                    continue;
+                }
+                char c = text.charAt(i);
+                if (c == '(' || c == '[' || c == '{') {
+                    bracketDepth++;
+                } else if (c == ')' || c == ']' || c == '}') {
+                    bracketDepth = Math.max(0, bracketDepth - 1);
+                }
+            }
+            continued = state == LineLexer.INITIAL_STATE && text.charAt(last - 1) == '\\';
+            if (emit && trailingIsCode) replace(last, end, false, 0, false);
+        }
+        
+        private int indentWidth(int start, int end) {
+            int width = 0;
+            for (int i = start; i < end; i++) {
+                width = text.charAt(i) == '\t' ? (width / TAB_WIDTH + 1) * TAB_WIDTH : width + 1;
+            }
+            return width;
+        }
+        
+        private int skipWhitespace(int from, int to) {
+            while (from < to && isWhitespace(text.charAt(from))) {
+                from++;
+            }
+            return from;
+        }
+        
+        private int trimEnd(int from, int to) {
+            while (to > from && isWhitespace(text.charAt(to - 1))) {
+                to--;
+            }
+            return to;
+        }
+        
+        /**
+         * Whether nothing but whitespace and comments follows {@code from} on the line.
+         */
+        private boolean onlyCommentsFrom(int from, int to, int opaque) {
+            int i = from;
+            while (i < to) {
+                while (opaque < opaqueCount && opaqueEnds[opaque] <= i) {
+                    opaque++;
+                }
+                if (opaque < opaqueCount && opaqueStarts[opaque] <= i && opaqueComments[opaque]) {
+                    i = opaqueEnds[opaque];
+                } else if (isWhitespace(text.charAt(i))) {
+                    i++;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private int charLiteralEnd(int quote, int to) {
+            int i = quote + 1;
+            while (i < to) {
+                char c = text.charAt(i);
+                if (c == '\'') {
+                    return i + 1;
+                }
+                i += c == '\\' ? 2 : 1;
+            }
+            // Not a character literal after all
+            return quote + 1;
+        }
+        
+        /**
+         * Replaces {@code [start, end)}, whitespace, with an optional line break and the
+         * indentation of {@code depth}, editing only the part that differs.
+         */
+        private void replace(int start, int end, boolean lineBreak, int depth, boolean commentStar) {
+            replacement.setLength(0);
+            if (lineBreak) {
+                replacement.append('\n');
+            }
+            for (int i = depth * INDENT_WIDTH + (commentStar ? 1 : 0); i > 0; i--) {
+                replacement.append(' ');
+            }
+            int length = replacement.length();
+            int prefix = 0;
+            while (start + prefix < end && prefix < length && text.charAt(start + prefix) == replacement.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (end - suffix > start + prefix && length - suffix > prefix
+                    && text.charAt(end - suffix - 1) == replacement.charAt(length - suffix - 1)) {
+                suffix++;
+            }
+            if (start + prefix == end - suffix && prefix == length - suffix) return;
+            edits.add(new EditorChange(start + prefix, end - suffix,
+                    replacement.substring(prefix, length - suffix),
+                    text.subSequence(start + prefix, end - suffix).toString()));
+        }
+    }
+    
+    /**
+     * One line of the text, seen without copying it.
+     */
+    private static final class LineView implements CharSequence {
+        private final CharSequence text;
+        private int offset;
+        private int length;
+        
+        LineView(CharSequence text) {
+            this.text = text;
+        }
+        
+        void reset(int start, int end) {
+            offset = start;
+            length = end - start;
+        }
+        
+        @Override
+        public int length() {
+            return length;
+        }
+        
+        @Override
+        public char charAt(int index) {
+            return text.charAt(offset + index);
+        }
+        
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(offset + start, offset + end);
+        }
+        
+        @Override
+        public String toString() {
+            return text.subSequence(offset, offset + length).toString();
+        }
+    }
+}
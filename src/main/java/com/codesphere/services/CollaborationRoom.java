@@ -0,0 +1,214 @@
+package com.codesphere.services;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.RopeDocument;
+import com.codesphere.models.User;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared document of one collaboration room and the sessions editing it.
+ * 
+ * A hosted room exists from its first JOIN until it has been empty for
+ * {@code codesphere.room.idleMillis} (a minute by default). The delay lets a
+ * client whose connection dropped resume, rather than find the document gone.
+ */
+public class CollaborationRoom {
+    // Rooms hosted by this JVM
+    private static final Map<String, CollaborationRoom> LOCAL_ROOMS = new ConcurrentHashMap<>();
+    
+    // Longer than a client's reconnect backoff, so an outage alone does not lose a room
+    private static final long IDLE_MILLIS = Long.getLong("codesphere.room.idleMillis", 60_000);
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "room-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Compaction of hosted rooms, e.g. -Dcodesphere.room.snapshotInterval=500
+    private static final int SNAPSHOT_INTERVAL = Integer.getInteger(
+            "codesphere.room.snapshotInterval", OperationSequencer.DEFAULT_SNAPSHOT_INTERVAL);
+    private static final int LOG_RETENTION = Integer.getInteger(
+            "codesphere.room.logRetention", OperationSequencer.DEFAULT_LOG_RETENTION);
+    
+    private final String roomId;
+    private final OperationSequencer sequencer;
+    private final Map<Integer, RoomMember> editors = new LinkedHashMap<>();
+    
+    // Event fan-out does not take the room lock, so cursor traffic never waits on edits
+    private final Map<Integer, RoomMember> members = new ConcurrentHashMap<>();
+    
+    // JOIN event of every member, replayed to whoever joins later
+    private final Map<Integer, CollaborationEvent> presence = new ConcurrentHashMap<>();
+    
+    public CollaborationRoom(String roomId) {
+        this(roomId, SNAPSHOT_INTERVAL, LOG_RETENTION);
+    }
+    
+    /**
+     * @see OperationSequencer#OperationSequencer(com.codesphere.models.DocumentModel, int, int)
+     */
+    public CollaborationRoom(String roomId, int snapshotInterval, int logRetention) {
+        this.roomId = roomId;
+        this.sequencer = new OperationSequencer(new RopeDocument(), snapshotInterval, logRetention);
+    }
+    
+    /**
+     * Adds a session to the presence of the room with the given id hosted by this
+     * JVM, creating the room if needed. The member first receives the JOIN events
+     * of everyone already present, then its own JOIN is published to them.
+     * 
+     * @return the room joined
+     */
+    public static CollaborationRoom join(String roomId, RoomMember member, CollaborationEvent joinEvent) {
+        // Atomic with removing an idle room, so nobody joins a room on its way out
+        CollaborationRoom room = LOCAL_ROOMS.compute(roomId, (id, existing) -> {
+            CollaborationRoom joined = existing != null ? existing : new CollaborationRoom(id);
+            joined.addMember(member, joinEvent);
+            return joined;
+        });
+        room.publishEvent(joinEvent);
+        return room;
+    }
+    
+    public static int getLocalRoomCount() {
+        return LOCAL_ROOMS.size();
+    }
+    
+    private void addMember(RoomMember member, CollaborationEvent joinEvent) {
+        synchronized (presence) {
+            for (CollaborationEvent present : presence.values()) {
+                member.onEvent(present);
+            }
+            members.put(member.getSessionId(), member);
+            presence.put(member.getSessionId(), joinEvent);
+        }
+    }
+    
+    /**
+     * Opens the shared document for a member that already joined. A room nobody has
+     * edited yet adopts the member's text; otherwise the member has to adopt the
+     * snapshot it is given, which is the last checkpoint plus the changes since.
+     */
+    public synchronized void openDocument(RoomMember member, String initialText) {
+        sequencer.seed(initialText);
+        member.onSnapshot(sequencer.snapshot());
+        editors.put(member.getSessionId(), member);
+    }
+    
+    /**
+     * Puts a member that was disconnected back in sync. It receives every change it
+     * missed since {@code revision}, or a snapshot if they are no longer all in the
+     * log, followed by a RESUMED event telling it the last revision sequenced for
+     * its own session.
+     */
+    public synchronized void resume(RoomMember member, long revision) {
+        List<EditorChange> missed = sequencer.changesSince(revision);
+        if (missed != null) {
+            for (EditorChange change : missed) {
+                member.onEditorChange(change);
+            }
+        } else {
+            member.onSnapshot(sequencer.snapshot());
+        }
+        Metrics.counter(missed != null ? "room.resume.replayed" : "room.resume.snapshot").increment();
+        
+        CollaborationEvent resumed = new CollaborationEvent();
+        resumed.setType("RESUMED");
+        resumed.setData(Map.of("revision", sequencer.getRevision(),
+                "acknowledged", sequencer.getSessionRevision(member.getSessionId())));
+        member.onEvent(resumed);
+        editors.put(member.getSessionId(), member);
+    }
+    
+    /**
+     * Removes a member and tells the remaining ones it left. Does nothing if the
+     * session has meanwhile rejoined through another connection.
+     */
+    public void leave(RoomMember member) {
+        int sessionId = member.getSessionId();
+        synchronized (this) {
+            editors.remove(sessionId, member);
+        }
+        CollaborationEvent joinEvent = null;
+        synchronized (presence) {
+            if (members.remove(sessionId, member)) {
+                joinEvent = presence.remove(sessionId);
+            }
+        }
+        if (joinEvent != null) {
+            CollaborationEvent leaveEvent = new CollaborationEvent();
+            leaveEvent.setType("LEAVE");
+            leaveEvent.setUser(joinEvent.getUser());
+            leaveEvent.setSessionId(sessionId);
+            publishEvent(leaveEvent);
+        }
+        if (members.isEmpty()) {
+            REAPER.schedule(this::removeIfIdle, IDLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Drops the room, its log and its snapshots if still nobody is in it.
+     */
+    private void removeIfIdle() {
+        boolean[] removed = new boolean[1];
+        LOCAL_ROOMS.computeIfPresent(roomId, (id, room) -> {
+            removed[0] = room == this && members.isEmpty();
+            return removed[0] ? null : room;
+        });
+        if (removed[0]) {
+            Metrics.counter("room.removed").increment();
+        }
+    }
+    
+    /**
+     * Delivers an event (cursor move, presence) to every other session in the room.
+     */
+    public void publishEvent(CollaborationEvent event) {
+        members.forEach((memberSessionId, member) -> {
+            if (memberSessionId != event.getSessionId()) {
+                member.onEvent(event);
+            }
+        });
+    }
+    
+    /**
+     * Orders a member's change and fans it out to every member, including the sender
+     * which treats it as the acknowledgement. Changes from a connection that has been
+     * replaced by a newer one of the same session are ignored.
+     */
+    public synchronized void submit(RoomMember from, EditorChange change) {
+        if (editors.get(from.getSessionId()) != from) return;
+        
+        change.setSessionId(from.getSessionId());
+        EditorChange sequenced = sequencer.receive(change);
+        for (RoomMember editor : editors.values()) {
+            editor.onEditorChange(sequenced);
+        }
+    }
+    
+    /**
+     * Returns the user who joined with the given session, or null.
+     */
+    public User getSessionUser(int sessionId) {
+        CollaborationEvent joinEvent = presence.get(sessionId);
+        return joinEvent != null ? joinEvent.getUser() : null;
+    }
+    
+    public String getRoomId() {
+        return roomId;
+    }
+    
+    public int getMemberCount() {
+        return members.size();
+    }
+}
@@ -1,43 +1,129 @@
 package com.codesphere.services;
 
 import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentModel;
+import com.codesphere.models.DocumentSnapshot;
 import com.codesphere.models.EditorChange;
+import com.codesphere.models.Rope;
+import com.codesphere.models.RopeDocument;
 import com.codesphere.models.User;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Service handling real-time collaboration features
  */
 public class CollaborationService {
     private final String serverUrl = "ws://localhost:8080/collaboration";
-    private WebSocketSession session;
+    private static final long CONNECT_TIMEOUT_MS = 2000;
+    private static final long RECONNECT_INITIAL_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 10_000;
+    // Connecting and reconnecting block on the handshake, so they get a thread of their own
+    private static final ScheduledExecutorService CONNECTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "collaboration-connect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Sends come from the document thread, the cursor timer and the connect thread, which the
+    // decorator serializes; a hub that stops reading ends the connection, to be resumed
+    private static final int SEND_TIME_LIMIT_MS = 10_000;
+    private static final int SEND_BUFFER_LIMIT_BYTES = 1 << 20;
+    private volatile ConcurrentWebSocketSessionDecorator session;
+    private volatile boolean disconnecting;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final List<Consumer<EditorChange>> editorChangeListeners = new ArrayList<>();
-    private final List<Consumer<CollaborationEvent>> collaborationEventListeners = new ArrayList<>();
+    private final BinaryFrameCodec frameCodec = new BinaryFrameCodec(objectMapper);
+    private final List<Consumer<EditorChange>> editorChangeListeners = new CopyOnWriteArrayList<>();
+    
+    // Listeners get events on the bus's threads; cursor moves are superseded by the next one, so they may be dropped
+    private final EventBus<CollaborationEvent> collaborationEvents = new EventBus<>("collaboration.events",
+            event -> "CURSOR_MOVE".equals(event.getType())
+                    ? EventBus.OverflowPolicy.DROP_OLDEST : EventBus.OverflowPolicy.BLOCK);
+    
+    // Changes, snapshots and resume acknowledgements from the socket, integrated in order on the
+    // document executor; a socket thread outrunning the editor waits rather than losing edits
+    private final EventBus<Object> inbound = new EventBus<>("collaboration.inbound",
+            message -> EventBus.OverflowPolicy.BLOCK);
     private User currentUser;
     private String currentRoomId;
     
+    // Convergence state for the shared document
+    private final int sessionId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+    private final Function<String, DocumentModel> documentFactory;
+    private Executor documentExecutor = Runnable::run;
+    private volatile CollaborationRoom room;
+    private final RoomMember localMember = new LocalRoomMember();
+    private volatile CompletableFuture<DocumentSnapshot> pendingSnapshot;
+    private DocumentModel document;
+    private ConvergenceClient convergence;
+    // Remote changes that arrived while connecting in the background, before the snapshot was adopted
+    private List<EditorChange> heldBack;
+    
+    // Room text at the acknowledged revision, to rebase local changes on a snapshot after a long outage
+    private Rope roomText;
+    private DocumentSnapshot resumeSnapshot;
+    private boolean resuming;
+    private long resumeStartedNanos;
+    
+    // Outbound batching of local keystrokes
+    private EditorChangeBatcher outboundBatcher;
+    private long batchFlushIntervalMs = EditorChangeBatcher.DEFAULT_FLUSH_INTERVAL_MS;
+    private int maxBatchSize = EditorChangeBatcher.DEFAULT_MAX_BATCH_SIZE;
+    private int pasteThreshold = EditorChangeBatcher.DEFAULT_PASTE_THRESHOLD;
+    
+    // Throttled cursor channel, independent of the edit stream
+    private final CursorBroadcaster cursorBroadcaster = new CursorBroadcaster(this::broadcastCursor);
+    private int cursorRateHz = CursorBroadcaster.DEFAULT_RATE_HZ;
+    
     // Track all active users
     private final Map<String, User> activeUsers = new ConcurrentHashMap<>();
     private final Map<String, Date> lastActivityMap = new ConcurrentHashMap<>();
+    
+    // Users by session id, learned from JOIN events, for frames that only carry the id
+    private final Map<Integer, User> sessionUsers = new ConcurrentHashMap<>();
 
     public CollaborationService(User user) {
+        this(user, RopeDocument::new);
+    }
+    
+    /**
+     * @param documentFactory creates the local mirror of the shared document from its initial text
+     */
+    public CollaborationService(User user, Function<String, DocumentModel> documentFactory) {
         this.currentUser = user;
+        this.documentFactory = documentFactory;
+        inbound.subscribe(task -> documentExecutor.execute(task), this::integrate);
         // Add current user to active users
         activeUsers.put(user.getId(), user);
         lastActivityMap.put(user.getId(), new Date());
@@ -49,6 +135,11 @@ public class CollaborationService {
     }
 
     public void connect(String roomId) {
+        this.disconnecting = false;
+        join(roomId);
+    }
+    
+    private void join(String roomId) {
         this.currentRoomId = roomId;
         try {
             // Only add the real user who is joining
@@ -62,51 +153,430 @@ public class CollaborationService {
             CollaborationEvent joinEvent = new CollaborationEvent();
             joinEvent.setType("JOIN");
             joinEvent.setUser(currentUser);
+            joinEvent.setSessionId(sessionId);
             Map<String, Object> data = new HashMap<>();
             data.put("roomId", roomId);
             data.put("joinTime", new Date());
             joinEvent.setData(data);
-            for (Consumer<CollaborationEvent> listener : collaborationEventListeners) {
-                listener.accept(joinEvent);
+            collaborationEvents.publish(joinEvent);
+            
+            // Join through the collaboration hub, or in this JVM when no hub is running
+            if (!openWebSocket(roomId)) {
+                room = CollaborationRoom.join(roomId, localMember, joinEvent);
             }
-            // Real WebSocket connection logic (if needed) can go here
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
+    private boolean openWebSocket(String roomId) {
+        // Form encoding, as the client puts the decoded path on the request line
+        String path = URLEncoder.encode(roomId, StandardCharsets.UTF_8);
+        try {
+            new StandardWebSocketClient()
+                    .doHandshake(new CollaborationWebSocketHandler(), handshakeHeaders(), URI.create(serverUrl + "/" + path))
+                    .get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Connects to a room and joins its shared document. If the room already has
+     * other content, the changes turning {@code documentText} into it are dispatched
+     * to the editor change listeners, so they should be registered before calling this.
+     * Must be called on the document executor's thread.
+     */
+    public void connect(String roomId, String documentText) {
+        connect(roomId);
+        
+        DocumentSnapshot snapshot;
+        try {
+            snapshot = openDocument(documentText);
+        } catch (Exception e) {
+            // Without a snapshot the session stays presence-only
+            e.printStackTrace();
+            return;
+        }
+        adoptSnapshot(snapshot, documentText);
+    }
+    
+    /**
+     * Like {@link #connect(String, String)}, but without blocking: the handshake and
+     * the wait for the room's snapshot happen on a background thread, and the room's
+     * text is then adopted on the document executor, against what {@code documentText}
+     * gives at that point. Remote changes arriving before that are held back until it
+     * is done. Must be called on the document executor's thread.
+     * 
+     * @return completes on the document executor, with false if the session stays presence-only
+     */
+    public CompletableFuture<Boolean> connectInBackground(String roomId, Supplier<String> documentText) {
+        disconnecting = false;
+        String openingText = documentText.get();
+        heldBack = new ArrayList<>();
+        CompletableFuture<Boolean> joined = new CompletableFuture<>();
+        CONNECTOR.execute(() -> {
+            DocumentSnapshot snapshot = null;
+            if (!disconnecting) {
+                join(roomId);
+                try {
+                    snapshot = openDocument(openingText);
+                } catch (Exception e) {
+                    // Without a snapshot the session stays presence-only
+                    e.printStackTrace();
+                }
+            }
+            DocumentSnapshot opened = snapshot;
+            documentExecutor.execute(() -> {
+                if (disconnecting) {
+                    // Left while connecting, after disconnect found nothing to close
+                    leaveRoom(leaveEvent());
+                } else if (opened != null) {
+                    adoptSnapshot(opened, documentText.get());
+                }
+                heldBack = null;
+                joined.complete(!disconnecting && opened != null);
+            });
+        });
+        return joined;
+    }
+    
+    private void adoptSnapshot(DocumentSnapshot snapshot, String documentText) {
+        roomText = snapshot.toRope();
+        String snapshotText = roomText.toString();
+        document = documentFactory.apply(snapshotText);
+        convergence = new ConvergenceClient(snapshot.getLatestRevision());
+        outboundBatcher = new EditorChangeBatcher(this::submitLocalChange, documentExecutor,
+                batchFlushIntervalMs, maxBatchSize, pasteThreshold);
+        cursorBroadcaster.start(cursorRateHz);
+        
+        // Adopt the room's text through the edits that differ, so the editor keeps its caret and undo history
+        for (EditorChange reset : TextDiff.inSequence(TextDiff.diff(documentText, snapshotText))) {
+            reset.setUser(currentUser);
+            notifyEditorChangeListeners(reset);
+        }
+        
+        List<EditorChange> early = heldBack;
+        heldBack = null;
+        if (early != null) {
+            for (EditorChange change : early) {
+                receiveEditorChange(change);
+            }
+        }
+    }
+    
+    /**
+     * Opens the room document and waits for its snapshot. Changes sequenced after the
+     * snapshot are queued on the document executor, so they are only integrated once
+     * the caller has set up the local document from it.
+     */
+    private DocumentSnapshot openDocument(String documentText) throws Exception {
+        pendingSnapshot = new CompletableFuture<>();
+        CollaborationRoom currentRoom = room;
+        if (currentRoom != null) {
+            currentRoom.openDocument(localMember, documentText);
+        } else {
+            CollaborationEvent openEvent = new CollaborationEvent();
+            openEvent.setType("OPEN_DOCUMENT");
+            openEvent.setUser(currentUser);
+            openEvent.setSessionId(sessionId);
+            openEvent.setData(Map.of("text", documentText));
+            sendMessage(openEvent);
+        }
+        return pendingSnapshot.get(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Sets the thread on which remote changes are integrated and dispatched. Local
+     * changes must be sent from the same thread, normally the JavaFX application thread.
+     */
+    public void setDocumentExecutor(Executor documentExecutor) {
+        this.documentExecutor = documentExecutor;
+    }
+    
+    /**
+     * Sets how many cursor updates per second are sent at most. Applies from the
+     * next {@link #connect(String, String)}.
+     */
+    public void setCursorBroadcastRate(int rateHz) {
+        this.cursorRateHz = rateHz;
+    }
+    
+    /**
+     * Configures how local keystrokes are coalesced before they are sent. Applies
+     * from the next {@link #connect(String, String)}.
+     * 
+     * @param flushIntervalMs longest time a keystroke is held back, 0 disables batching
+     * @param maxBatchSize    number of merged keystrokes that forces a send
+     * @param pasteThreshold  inserted length from which a change is sent immediately
+     */
+    public void configureBatching(long flushIntervalMs, int maxBatchSize, int pasteThreshold) {
+        this.batchFlushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+        this.pasteThreshold = pasteThreshold;
+    }
+    
     public void disconnect() {
+        disconnecting = true;
+        
         // Simulate a leave event for the real user
+        CollaborationEvent leaveEvent = leaveEvent();
+        collaborationEvents.publish(leaveEvent);
+        activeUsers.remove(currentUser.getId());
+        
+        cursorBroadcaster.stop();
+        if (outboundBatcher != null) {
+            outboundBatcher.flush();
+        }
+        leaveRoom(leaveEvent);
+    }
+    
+    private CollaborationEvent leaveEvent() {
         CollaborationEvent leaveEvent = new CollaborationEvent();
         leaveEvent.setType("LEAVE");
         leaveEvent.setUser(currentUser);
+        leaveEvent.setSessionId(sessionId);
         leaveEvent.setData(null);
-        for (Consumer<CollaborationEvent> listener : collaborationEventListeners) {
-            listener.accept(leaveEvent);
+        return leaveEvent;
+    }
+    
+    /**
+     * Tells the room we are gone and drops the connection and the shared document.
+     */
+    private void leaveRoom(CollaborationEvent leaveEvent) {
+        CollaborationRoom currentRoom = room;
+        WebSocketSession socket = session;
+        if (currentRoom != null) {
+            currentRoom.leave(localMember);
+        } else if (socket != null) {
+            try {
+                sendMessage(leaveEvent);
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        room = null;
+        session = null;
+        document = null;
+        roomText = null;
+        convergence = null;
+        outboundBatcher = null;
+    }
+    
+    private void scheduleReconnect(long delayMs) {
+        // Jitter keeps a room's clients from all coming back at the same instant after a hub restart
+        long jitteredMs = delayMs / 2 + ThreadLocalRandom.current().nextLong(delayMs / 2 + 1);
+        CONNECTOR.schedule(() -> {
+            if (disconnecting) return;
+            if (openWebSocket(currentRoomId)) {
+                Metrics.counter("collaboration.reconnects").increment();
+                documentExecutor.execute(this::resumeDocument);
+            } else {
+                scheduleReconnect(Math.min(delayMs * 2, RECONNECT_MAX_DELAY_MS));
+            }
+        }, jitteredMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Asks the hub for the changes sequenced since our acknowledged revision. Local
+     * changes made while offline stay queued in the convergence client and are sent
+     * once the room has caught us up.
+     */
+    private void resumeDocument() {
+        if (convergence == null) return;
+        resuming = true;
+        resumeStartedNanos = System.nanoTime();
+        CollaborationEvent resumeEvent = new CollaborationEvent();
+        resumeEvent.setType("RESUME");
+        resumeEvent.setUser(currentUser);
+        resumeEvent.setSessionId(sessionId);
+        resumeEvent.setData(Map.of("revision", convergence.getRevision()));
+        try {
+            sendMessage(resumeEvent);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private void finishResume(long acknowledgedRevision) {
+        if (convergence == null) return;
+        resuming = false;
+        if (resumeSnapshot != null) {
+            resyncWithSnapshot(resumeSnapshot, acknowledgedRevision);
+            resumeSnapshot = null;
+        }
+        
+        // Still unacknowledged after catching up, so the room never got it
+        EditorChange resend = convergence.resendOutstanding();
+        if (resend != null) {
+            submitToRoom(resend);
+        }
+        Metrics.histogram("collaboration.resume_latency_us").record((System.nanoTime() - resumeStartedNanos) / 1000);
+    }
+    
+    /**
+     * Rebases local changes on a snapshot when the missed changes have already left
+     * the room's log. Everything we missed is folded into one change covering the
+     * range where the known room text and the snapshot differ.
+     */
+    private void resyncWithSnapshot(DocumentSnapshot snapshot, long acknowledgedRevision) {
+        Rope known = roomText;
+        EditorChange inFlight = convergence.getOutstanding();
+        boolean inFlightSequenced = inFlight != null && acknowledgedRevision > convergence.getRevision();
+        if (inFlightSequenced) {
+            known = known.replace(inFlight.getStartPosition(), inFlight.getEndPosition(), insertedText(inFlight));
+        }
+        
+        String before = known.toString();
+        String after = snapshot.toRope().toString();
+        int prefix = 0;
+        int maxPrefix = Math.min(before.length(), after.length());
+        while (prefix < maxPrefix && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && before.charAt(before.length() - 1 - suffix) == after.charAt(after.length() - 1 - suffix)) {
+            suffix++;
+        }
+        EditorChange missed = new EditorChange(prefix, before.length() - suffix,
+                after.substring(prefix, after.length() - suffix), before.substring(prefix, before.length() - suffix));
+        missed.setUser(currentUser);
+        
+        EditorChange local = convergence.resync(missed, snapshot.getLatestRevision(), inFlightSequenced);
+        roomText = Rope.of(after);
+        if (!local.isNoop()) {
+            document.apply(local);
+            notifyEditorChangeListeners(local);
         }
-        activeUsers.remove(currentUser.getId());
+    }
+    
+    private static String insertedText(EditorChange change) {
+        return change.getInsertedText() != null ? change.getInsertedText() : "";
     }
 
+    /**
+     * Sends a change already applied to the local editor. Must be called on the
+     * document executor's thread.
+     */
     public void sendEditorChange(EditorChange change) {
         // Update current user activity time
         updateUserActivity(currentUser.getId());
         change.setUser(currentUser);
-        // Notify listeners directly
+        change.setSessionId(sessionId);
+        
+        // Nothing to send to until the shared document is joined
+        if (convergence == null) return;
+        
+        document.apply(change);
+        outboundBatcher.add(change);
+    }
+    
+    private void submitLocalChange(EditorChange change) {
+        EditorChange toSend = convergence.submitLocal(change);
+        if (toSend != null) {
+            submitToRoom(toSend);
+        }
+    }
+    
+    private void submitToRoom(EditorChange change) {
+        // Sent once the room has caught us up, see finishResume
+        if (resuming) return;
+        
+        Metrics.counter("collaboration.outbound.messages").increment();
+        CollaborationRoom currentRoom = room;
+        if (currentRoom != null) {
+            currentRoom.submit(localMember, change);
+            return;
+        }
+        try {
+            sendMessage(change);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Handles a message from the socket on the document executor's thread.
+     */
+    private void integrate(Object message) {
+        if (message instanceof EditorChange) {
+            receiveEditorChange((EditorChange) message);
+        } else if (message instanceof DocumentSnapshot) {
+            resumeSnapshot = (DocumentSnapshot) message;
+        } else {
+            CollaborationEvent resumed = (CollaborationEvent) message;
+            finishResume(((Number) resumed.getData().get("acknowledged")).longValue());
+        }
+    }
+    
+    private void receiveEditorChange(EditorChange change) {
+        if (convergence == null) {
+            if (heldBack != null) {
+                heldBack.add(change);
+            }
+            return;
+        }
+        
+        // Remote changes must be transformed past every local edit
+        outboundBatcher.flush();
+        roomText = roomText.replace(change.getStartPosition(), change.getEndPosition(), insertedText(change));
+        
+        if (change.getSessionId() == sessionId) {
+            // Our own change came back sequenced, send whatever waited behind it
+            EditorChange next = convergence.acknowledge();
+            if (next != null) {
+                submitToRoom(next);
+            }
+            return;
+        }
+        
+        updateUserActivity(change.getUser().getId());
+        EditorChange local = convergence.transformRemote(change);
+        if (local.isNoop()) return;
+        
+        document.apply(local);
+        notifyEditorChangeListeners(local);
+    }
+    
+    private void notifyEditorChangeListeners(EditorChange change) {
         for (Consumer<EditorChange> listener : editorChangeListeners) {
             listener.accept(change);
         }
     }
 
+    /**
+     * Records the local caret position. Only the latest position is kept and it is
+     * sent at the configured cursor rate, so this is cheap to call on every caret move.
+     */
     public void sendCursorPosition(int line, int column) {
+        cursorBroadcaster.update(line, column);
+    }
+    
+    private void broadcastCursor(long position) {
         // Update current user activity time
         updateUserActivity(currentUser.getId());
         CollaborationEvent event = new CollaborationEvent();
         event.setType("CURSOR_MOVE");
         event.setUser(currentUser);
-        event.setData(Map.of("line", line, "column", column));
-        for (Consumer<CollaborationEvent> listener : collaborationEventListeners) {
-            if (currentUser.getId().equals(event.getUser().getId())) continue;
-            listener.accept(event);
+        event.setSessionId(sessionId);
+        event.setData(Map.of("line", CursorBroadcaster.line(position), "column", CursorBroadcaster.column(position)));
+        
+        CollaborationRoom currentRoom = room;
+        if (currentRoom != null) {
+            currentRoom.publishEvent(event);
+            return;
+        }
+        try {
+            sendMessage(event);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
     
@@ -150,20 +620,137 @@ public class CollaborationService {
         editorChangeListeners.add(listener);
     }
 
+    /**
+     * Adds a listener called on a dispatch thread, never the socket thread. Events
+     * reach each listener in order, except that cursor moves may be skipped when
+     * the listener falls behind.
+     */
     public void addCollaborationEventListener(Consumer<CollaborationEvent> listener) {
-        collaborationEventListeners.add(listener);
+        collaborationEvents.subscribe(listener);
+    }
+
+    /**
+     * Sends a message over the WebSocket using the format negotiated at handshake:
+     * binary frames when the server accepted {@link BinaryFrameCodec#BINARY_SUBPROTOCOL},
+     * JSON text otherwise. Safe to call from any thread.
+     */
+    private void sendMessage(Object message) throws IOException {
+        WebSocketSession socket = session;
+        if (socket == null || !socket.isOpen()) return;
+        
+        if (BinaryFrameCodec.BINARY_SUBPROTOCOL.equals(socket.getAcceptedProtocol())) {
+            ByteBuffer frame;
+            synchronized (frameCodec) {
+                frame = message instanceof EditorChange
+                        ? frameCodec.encode((EditorChange) message)
+                        : frameCodec.encode((CollaborationEvent) message);
+            }
+            socket.sendMessage(new BinaryMessage(frame));
+        } else {
+            socket.sendMessage(new TextMessage(objectMapper.writeValueAsString(message)));
+        }
+    }
+    
+    /**
+     * Handshake headers offering the binary protocol with JSON as fallback.
+     */
+    private WebSocketHttpHeaders handshakeHeaders() {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketProtocol(List.of(
+                BinaryFrameCodec.BINARY_SUBPROTOCOL, BinaryFrameCodec.JSON_SUBPROTOCOL));
+        return headers;
+    }
+    
+    private void handleRemoteEvent(CollaborationEvent event) {
+        if ("RESUMED".equals(event.getType())) {
+            // Behind the replayed changes
+            inbound.publish(event);
+            return;
+        }
+        
+        // Handle user presence
+        if ("JOIN".equals(event.getType())) {
+            // Add the user to active users and remember its session for compact frames
+            activeUsers.put(event.getUser().getId(), event.getUser());
+            lastActivityMap.put(event.getUser().getId(), new Date());
+            sessionUsers.put(event.getSessionId(), event.getUser());
+        } else if ("LEAVE".equals(event.getType())) {
+            // Remove the user from active users, unless it is us in another window
+            if (!event.getUser().getId().equals(currentUser.getId())) {
+                activeUsers.remove(event.getUser().getId());
+            }
+            sessionUsers.remove(event.getSessionId());
+        } else {
+            // Update user activity time for other events
+            updateUserActivity(event.getUser().getId());
+        }
+        
+        // Don't process events from this session
+        if (event.getSessionId() != sessionId) {
+            collaborationEvents.publish(event);
+        }
+    }
+    
+    private void handleSnapshot(DocumentSnapshot snapshot) {
+        CompletableFuture<DocumentSnapshot> opening = pendingSnapshot;
+        if (opening != null && !opening.isDone()) {
+            opening.complete(snapshot);
+        } else {
+            // Resuming after too long an outage, ordered with the changes around it
+            inbound.publish(snapshot);
+        }
+    }
+    
+    private User resolveSessionUser(int remoteSessionId) {
+        User user = sessionUsers.get(remoteSessionId);
+        if (user == null) {
+            // Frame from a session whose JOIN we have not seen yet
+            user = new User();
+            user.setId("session-" + remoteSessionId);
+            user.setName("Guest");
+        }
+        return user;
     }
 
-    private class CollaborationWebSocketHandler extends TextWebSocketHandler {
+    /**
+     * Membership of a room hosted in this JVM, used when no hub is reachable
+     */
+    private class LocalRoomMember implements RoomMember {
+        @Override
+        public int getSessionId() {
+            return sessionId;
+        }
+        
+        @Override
+        public void onSnapshot(DocumentSnapshot snapshot) {
+            pendingSnapshot.complete(snapshot);
+        }
+        
+        @Override
+        public void onEditorChange(EditorChange change) {
+            // Not through the inbound bus: the sender may be our own document thread, which must never wait on itself
+            documentExecutor.execute(() -> receiveEditorChange(change));
+        }
+        
+        @Override
+        public void onEvent(CollaborationEvent event) {
+            handleRemoteEvent(event);
+        }
+    }
+    
+    private class CollaborationWebSocketHandler extends AbstractWebSocketHandler {
         @Override
         public void afterConnectionEstablished(WebSocketSession session) {
+            CollaborationService.this.session =
+                    new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, SEND_BUFFER_LIMIT_BYTES);
             try {
                 // Send a join event
                 CollaborationEvent joinEvent = new CollaborationEvent();
                 joinEvent.setType("JOIN");
                 joinEvent.setUser(currentUser);
+                joinEvent.setSessionId(sessionId);
                 joinEvent.setData(Map.of("roomId", currentRoomId, "joinTime", new Date()));
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(joinEvent)));
+                sendMessage(joinEvent);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -175,48 +762,44 @@ public class CollaborationService {
                 String payload = message.getPayload();
                 // Determine if it's an editor change or collaboration event
                 if (payload.contains("\"type\":")) {
-                    CollaborationEvent event = objectMapper.readValue(payload, CollaborationEvent.class);
-                    
-                    // Handle user presence
-                    if ("JOIN".equals(event.getType())) {
-                        // Add the user to active users
-                        activeUsers.put(event.getUser().getId(), event.getUser());
-                        lastActivityMap.put(event.getUser().getId(), new Date());
-                    } else if ("LEAVE".equals(event.getType())) {
-                        // Remove the user from active users
-                        activeUsers.remove(event.getUser().getId());
-                    } else {
-                        // Update user activity time for other events
-                        updateUserActivity(event.getUser().getId());
-                    }
-                    
-                    // Don't process events from the current user
-                    if (!event.getUser().getId().equals(currentUser.getId())) {
-                        for (Consumer<CollaborationEvent> listener : collaborationEventListeners) {
-                            listener.accept(event);
-                        }
-                    }
+                    handleRemoteEvent(objectMapper.readValue(payload, CollaborationEvent.class));
+                } else if (payload.contains("\"tail\":")) {
+                    handleSnapshot(objectMapper.readValue(payload, DocumentSnapshot.class));
                 } else {
-                    EditorChange change = objectMapper.readValue(payload, EditorChange.class);
-                    
-                    // Update user activity time
-                    updateUserActivity(change.getUser().getId());
-                    
-                    // Don't process changes from the current user
-                    if (!change.getUser().getId().equals(currentUser.getId())) {
-                        for (Consumer<EditorChange> listener : editorChangeListeners) {
-                            listener.accept(change);
-                        }
-                    }
+                    // Integrate on the document thread, never on the socket thread
+                    inbound.publish(objectMapper.readValue(payload, EditorChange.class));
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        
+        @Override
+        protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+            try {
+                Object decoded = frameCodec.decode(message.getPayload(), CollaborationService.this::resolveSessionUser);
+                if (decoded instanceof EditorChange) {
+                    // Integrate on the document thread, never on the socket thread
+                    inbound.publish(decoded);
+                } else if (decoded instanceof DocumentSnapshot) {
+                    handleSnapshot((DocumentSnapshot) decoded);
+                } else {
+                    handleRemoteEvent((CollaborationEvent) decoded);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
 
         @Override
         public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-            // Handle reconnection logic here if needed
+            ConcurrentWebSocketSessionDecorator current = CollaborationService.this.session;
+            if (current == null || current.getDelegate() != session) return;
+            CollaborationService.this.session = null;
+            Metrics.counter("collaboration.disconnects").increment();
+            if (!disconnecting) {
+                scheduleReconnect(RECONNECT_INITIAL_DELAY_MS);
+            }
         }
     }
 }
@@ -0,0 +1,330 @@
+package com.codesphere.services;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiler output kept by content: the key is a hash of everything the output
+ * depends on (language, compiler, flags and source), so running the same code
+ * again, from any user, skips the compiler.
+ * 
+ * An entry is a set of named files, such as a program's class files or its
+ * binary. Entries live in memory and on disk, each tier bounded by size and
+ * evicting the least recently used entries; the disk tier outlasts the editor
+ * and can be shared by pointing {@code codesphere.cache.dir} at one directory.
+ * The directory is the index of the disk tier: a key missing from memory is
+ * looked for there, each entry's modification time is when it was last used,
+ * and storing an entry measures the whole directory before evicting, so editors
+ * sharing it see each other's entries and keep it within the limit together.
+ * Only the memory tier is behind a lock; reading files is not, and writing
+ * them and evicting happen on a background thread, so storing an entry returns
+ * once it is in memory.
+ * 
+ * Hits are counted as {@code compile_cache.memory_hits} and
+ * {@code compile_cache.disk_hits}, misses as {@code compile_cache.misses}, and
+ * {@code compile_cache.hit_rate_percent} puts them together.
+ */
+public class CompilationCache {
+    public static final long DEFAULT_MEMORY_BYTES = 64L << 20;
+    public static final long DEFAULT_DISK_BYTES = 512L << 20;
+    
+    // Temporary files older than this were left by an editor that stopped mid-write
+    private static final long ABANDONED_WRITE_MS = TimeUnit.MINUTES.toMillis(1);
+    
+    // Writes entries to disk and trims it, one at a time, off the compiling threads
+    private static final ExecutorService DISK_WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "compile-cache-disk");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private static final CompilationCache SHARED = new CompilationCache(defaultDirectory(), DEFAULT_MEMORY_BYTES, DEFAULT_DISK_BYTES);
+    
+    private final Path directory;
+    private final long memoryLimit;
+    private final long diskLimit;
+    
+    // In access order, least recently used first
+    private final LinkedHashMap<String, Map<String, byte[]>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    // As last measured, counting what other editors sharing the directory stored
+    private volatile long diskBytes;
+    
+    private final LongAdder memoryHits = Metrics.counter("compile_cache.memory_hits");
+    private final LongAdder diskHits = Metrics.counter("compile_cache.disk_hits");
+    private final LongAdder misses = Metrics.counter("compile_cache.misses");
+    
+    /**
+     * @param directory where entries are kept on disk, or null to keep them in memory only
+     */
+    public CompilationCache(Path directory, long memoryLimit, long diskLimit) {
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+        this.directory = directory != null && createDirectory(directory) ? directory : null;
+        if (this.directory != null) {
+            DISK_WRITER.execute(this::trimDisk);
+        }
+        Metrics.gauge("compile_cache.hit_rate_percent", () -> {
+            long hits = memoryHits.sum() + diskHits.sum();
+            long lookups = hits + misses.sum();
+            return lookups == 0 ? 0 : hits * 100 / lookups;
+        });
+        Metrics.gauge("compile_cache.memory_bytes", this::getMemoryBytes);
+        Metrics.gauge("compile_cache.disk_bytes", this::getDiskBytes);
+    }
+    
+    /**
+     * The cache all backends share, in {@code ~/.codesphere/compile-cache} unless
+     * {@code codesphere.cache.dir} says otherwise.
+     */
+    public static CompilationCache shared() {
+        return SHARED;
+    }
+    
+    /**
+     * Hashes the parts into a key; any part that changes the compiler's output belongs in it.
+     */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                // Keeps ("ab", "c") apart from ("a", "bc")
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * The files stored under a key, or null if there are none. The map and arrays
+     * are shared with other callers and must not be modified.
+     */
+    public Map<String, byte[]> get(String key) {
+        return lookUp(key, true);
+    }
+    
+    /**
+     * Like {@link #get}, but not counted towards the hit rate; for looking again
+     * after waiting on someone who may have stored the entry meanwhile.
+     */
+    public Map<String, byte[]> peek(String key) {
+        return lookUp(key, false);
+    }
+    
+    private Map<String, byte[]> lookUp(String key, boolean counted) {
+        synchronized (this) {
+            Map<String, byte[]> files = memory.get(key);
+            if (files != null) {
+                if (counted) memoryHits.increment();
+                return files;
+            }
+        }
+        Path file = directory != null ? directory.resolve(key) : null;
+        if (file != null && Files.exists(file)) {
+            try {
+                Map<String, byte[]> files = decode(Files.readAllBytes(file));
+                // Marks it used, for this editor's evictions and for those of others sharing the directory
+                file.toFile().setLastModified(System.currentTimeMillis());
+                if (counted) diskHits.increment();
+                synchronized (this) {
+                    remember(key, files);
+                }
+                return files;
+            } catch (IOException e) {
+                // Evicted meanwhile, or damaged; treated as never stored
+                deleteOnDisk(file);
+            }
+        }
+        if (counted) misses.increment();
+        return null;
+    }
+    
+    /**
+     * Stores the files under a key; they are in memory when this returns, and
+     * written to disk in the background.
+     */
+    public void put(String key, Map<String, byte[]> files) {
+        Map<String, byte[]> stored = Collections.unmodifiableMap(new LinkedHashMap<>(files));
+        synchronized (this) {
+            remember(key, stored);
+        }
+        if (directory == null) return;
+        DISK_WRITER.execute(() -> writeToDisk(key, stored));
+    }
+    
+    private void writeToDisk(String key, Map<String, byte[]> stored) {
+        byte[] encoded = encode(stored);
+        if (encoded.length > diskLimit) return;
+        try {
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temporary, encoded);
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        trimDisk();
+    }
+    
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+    
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+    
+    private void remember(String key, Map<String, byte[]> files) {
+        long size = sizeOf(files);
+        // One entry may not push out everything else
+        if (size > memoryLimit / 4) return;
+        Map<String, byte[]> previous = memory.put(key, files);
+        if (previous != null) {
+            memoryBytes -= sizeOf(previous);
+        }
+        memoryBytes += size;
+        Iterator<Map<String, byte[]>> eldest = memory.values().iterator();
+        while (memoryBytes > memoryLimit) {
+            memoryBytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Measures the entries on disk, which other editors may be adding to as well,
+     * and deletes the least recently used while they are over the limit, along with
+     * temporary files whose write was abandoned.
+     */
+    private void trimDisk() {
+        List<File> files;
+        try (Stream<Path> listed = Files.list(directory)) {
+            files = listed.map(Path::toFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        long abandonedBefore = System.currentTimeMillis() - ABANDONED_WRITE_MS;
+        for (File file : files) {
+            // Recent ones may still be being written, by this editor or another
+            if (file.getName().endsWith(".tmp") && file.lastModified() < abandonedBefore) {
+                deleteOnDisk(file.toPath());
+            }
+        }
+        List<File> entries = files.stream()
+                .filter(file -> file.getName().matches("[0-9a-f]{64}"))
+                .sorted(Comparator.comparingLong(File::lastModified))
+                .collect(Collectors.toList());
+        // Entries deleted by someone else while listing measure 0
+        long total = 0;
+        long[] sizes = new long[entries.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = entries.get(i).length();
+            total += sizes[i];
+        }
+        for (int i = 0; i < sizes.length && total > diskLimit; i++) {
+            deleteOnDisk(entries.get(i).toPath());
+            total -= sizes[i];
+        }
+        diskBytes = total;
+    }
+    
+    private static void deleteOnDisk(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * @return false if the directory cannot be used
+     */
+    private static boolean createDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+    
+    private static Path defaultDirectory() {
+        String configured = System.getProperty("codesphere.cache.dir");
+        return configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".codesphere", "compile-cache");
+    }
+    
+    private static long sizeOf(Map<String, byte[]> files) {
+        long size = 0;
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            size += file.getKey().length() * 2L + file.getValue().length;
+        }
+        return size;
+    }
+    
+    private static byte[] encode(Map<String, byte[]> files) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(files.size());
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                out.writeUTF(file.getKey());
+                out.writeInt(file.getValue().length);
+                out.write(file.getValue());
+            }
+        } catch (IOException e) {
+            // Not thrown by a byte array stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static Map<String, byte[]> decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int count = in.readInt();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int length = in.readInt();
+            if (length < 0 || length > encoded.length) {
+                throw new IOException("Damaged cache entry");
+            }
+            byte[] content = new byte[length];
+            in.readFully(content);
+            files.put(name, content);
+        }
+        return Collections.unmodifiableMap(files);
+    }
+}
@@ -0,0 +1,126 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorChange;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Client side of the operational transform. At most one local change is in
+ * flight to the room at a time; later local changes wait in a buffer (merged
+ * where they are adjacent) and remote changes are transformed past both.
+ */
+public class ConvergenceClient {
+    private long revision;
+    private EditorChange outstanding;
+    private final List<EditorChange> buffer = new ArrayList<>();
+    
+    public ConvergenceClient(long revision) {
+        this.revision = revision;
+    }
+    
+    /**
+     * Records a change already applied to the local document.
+     * 
+     * @return the change to send now, or null if it has to wait for an acknowledgement
+     */
+    public EditorChange submitLocal(EditorChange change) {
+        if (outstanding == null) {
+            outstanding = change.copy();
+            outstanding.setRevision(revision);
+            return outstanding;
+        }
+        
+        // Fold adjacent typing into the last buffered change
+        if (!buffer.isEmpty()) {
+            EditorChange merged = buffer.get(buffer.size() - 1).mergeWith(change);
+            if (merged != null) {
+                buffer.set(buffer.size() - 1, merged);
+                return null;
+            }
+        }
+        buffer.add(change.copy());
+        return null;
+    }
+    
+    /**
+     * Handles the room echoing back our outstanding change.
+     * 
+     * @return the next buffered change to send, or null if nothing is waiting
+     */
+    public EditorChange acknowledge() {
+        if (outstanding == null) {
+            throw new IllegalStateException("Acknowledgement received with no change in flight");
+        }
+        revision++;
+        outstanding = null;
+        if (buffer.isEmpty()) {
+            return null;
+        }
+        outstanding = buffer.remove(0);
+        outstanding.setRevision(revision);
+        return outstanding;
+    }
+    
+    /**
+     * Transforms a change made by another client so it applies on top of our
+     * unacknowledged local changes.
+     * 
+     * @return the change to apply to the local document
+     */
+    public EditorChange transformRemote(EditorChange remote) {
+        revision++;
+        EditorChange incoming = remote.copy();
+        if (outstanding != null) {
+            EditorChange local = outstanding.transform(incoming, false);
+            incoming = incoming.transform(outstanding, true);
+            outstanding = local;
+        }
+        for (int i = 0; i < buffer.size(); i++) {
+            EditorChange pending = buffer.get(i);
+            buffer.set(i, pending.transform(incoming, false));
+            incoming = incoming.transform(pending, true);
+        }
+        return incoming;
+    }
+    
+    /**
+     * Returns the change still in flight, based on the current revision so that it
+     * can be sent again after a reconnect, or null if nothing is in flight.
+     */
+    public EditorChange resendOutstanding() {
+        if (outstanding == null) {
+            return null;
+        }
+        outstanding.setRevision(revision);
+        return outstanding;
+    }
+    
+    /**
+     * Catches up with the room when the changes we missed are no longer available
+     * one by one. {@code missed} turns the room text we last knew, plus our change
+     * in flight if the room did sequence it, into the room text at {@code newRevision}.
+     * 
+     * @return the change to apply to the local document
+     */
+    public EditorChange resync(EditorChange missed, long newRevision, boolean outstandingSequenced) {
+        if (outstandingSequenced) {
+            outstanding = buffer.isEmpty() ? null : buffer.remove(0);
+        }
+        EditorChange incoming = transformRemote(missed);
+        revision = newRevision;
+        return incoming;
+    }
+    
+    public EditorChange getOutstanding() {
+        return outstanding;
+    }
+    
+    public long getRevision() {
+        return revision;
+    }
+    
+    public boolean hasPendingChanges() {
+        return outstanding != null;
+    }
+}
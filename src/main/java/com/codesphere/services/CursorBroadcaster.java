@@ -0,0 +1,84 @@
+package com.codesphere.services;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Latest-wins channel for the local cursor. Caret moves only overwrite a single
+ * slot; a timer on its own thread sends whatever is in the slot at a fixed rate,
+ * so intermediate positions are dropped and cursor traffic never queues up in
+ * front of text edits.
+ */
+public class CursorBroadcaster {
+    public static final int DEFAULT_RATE_HZ = 20;
+    
+    private static final long NONE = -1;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cursor-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final AtomicLong latest = new AtomicLong(NONE);
+    private final LongConsumer sender;
+    private long lastSent = NONE;
+    private ScheduledFuture<?> task;
+    
+    /**
+     * @param sender receives the packed position to send, see {@link #line(long)} and {@link #column(long)}
+     */
+    public CursorBroadcaster(LongConsumer sender) {
+        this.sender = sender;
+    }
+    
+    public synchronized void start(int rateHz) {
+        stop();
+        long periodMicros = 1_000_000L / Math.max(1, rateHz);
+        task = TIMER.scheduleAtFixedRate(this::tick, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+    
+    /**
+     * Records the newest caret position, replacing any position not sent yet.
+     */
+    public void update(int line, int column) {
+        Metrics.counter("collaboration.cursor.updates").increment();
+        latest.set(pack(line, column));
+    }
+    
+    private void tick() {
+        long position = latest.getAndSet(NONE);
+        if (position == NONE || position == lastSent) return;
+        
+        lastSent = position;
+        Metrics.counter("collaboration.cursor.sent").increment();
+        try {
+            sender.accept(position);
+        } catch (RuntimeException e) {
+            // Keep the timer alive, the next position will be sent on the next tick
+            e.printStackTrace();
+        }
+    }
+    
+    public static long pack(int line, int column) {
+        return ((long) line << 32) | (column & 0xFFFFFFFFL);
+    }
+    
+    public static int line(long position) {
+        return (int) (position >>> 32);
+    }
+    
+    public static int column(long position) {
+        return (int) position;
+    }
+}
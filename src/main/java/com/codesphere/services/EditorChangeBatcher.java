@@ -0,0 +1,119 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorChange;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Outbound batching stage for local edits. Contiguous changes are merged into
+ * a single change until the flush interval elapses or the batch grows past its
+ * size threshold. A change that does not continue the batch (the caret jumped)
+ * or a large insert (a paste) flushes right away.
+ * 
+ * All methods must be called on the document thread; timed flushes are handed
+ * back to it through the document executor.
+ */
+public class EditorChangeBatcher {
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 30;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final int DEFAULT_PASTE_THRESHOLD = 32;
+    
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "editor-change-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final Consumer<EditorChange> sink;
+    private final Executor documentExecutor;
+    private final long flushIntervalMs;
+    private final int maxBatchSize;
+    private final int pasteThreshold;
+    
+    private final Metrics.Histogram batchSizes = Metrics.histogram("collaboration.outbound.batch_size");
+    private final Metrics.Histogram flushLatency = Metrics.histogram("collaboration.outbound.flush_latency_us");
+    
+    private EditorChange batch;
+    private int batchSize;
+    private long batchStartedNanos;
+    private long generation;
+    
+    public EditorChangeBatcher(Consumer<EditorChange> sink, Executor documentExecutor) {
+        this(sink, documentExecutor, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_MAX_BATCH_SIZE, DEFAULT_PASTE_THRESHOLD);
+    }
+    
+    /**
+     * @param sink            receives each flushed batch as one change
+     * @param flushIntervalMs longest time a change waits for more keystrokes
+     * @param maxBatchSize    number of merged changes that forces a flush
+     * @param pasteThreshold  inserted length from which a change is flushed immediately
+     */
+    public EditorChangeBatcher(Consumer<EditorChange> sink, Executor documentExecutor,
+                               long flushIntervalMs, int maxBatchSize, int pasteThreshold) {
+        this.sink = sink;
+        this.documentExecutor = documentExecutor;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+        this.pasteThreshold = pasteThreshold;
+    }
+    
+    public void add(EditorChange change) {
+        if (batch != null) {
+            EditorChange merged = batch.mergeWith(change);
+            if (merged != null) {
+                batch = merged;
+                batchSize++;
+            } else {
+                // Caret jumped elsewhere, the old batch is complete
+                flush();
+            }
+        }
+        if (batch == null) {
+            startBatch(change);
+        }
+        
+        if (batchSize >= maxBatchSize || change.getInsertedLength() >= pasteThreshold || flushIntervalMs <= 0) {
+            flush();
+        }
+    }
+    
+    /**
+     * Sends the pending batch, if any. Called before remote changes are integrated
+     * so the convergence layer always knows about every local edit.
+     */
+    public void flush() {
+        if (batch == null) return;
+        
+        EditorChange flushed = batch;
+        batchSizes.record(batchSize);
+        flushLatency.record((System.nanoTime() - batchStartedNanos) / 1_000);
+        batch = null;
+        batchSize = 0;
+        generation++;
+        sink.accept(flushed);
+    }
+    
+    public boolean isEmpty() {
+        return batch == null;
+    }
+    
+    private void startBatch(EditorChange change) {
+        batch = change;
+        batchSize = 1;
+        batchStartedNanos = System.nanoTime();
+        
+        long scheduledGeneration = ++generation;
+        if (flushIntervalMs > 0) {
+            TIMER.schedule(() -> documentExecutor.execute(() -> {
+                // Ignore timers of batches that were already flushed
+                if (generation == scheduledGeneration) {
+                    flush();
+                }
+            }), flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
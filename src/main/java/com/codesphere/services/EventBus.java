@@ -0,0 +1,207 @@
+package com.codesphere.services;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Delivers messages to subscribers on their own executors, so the thread publishing
+ * (typically a socket thread) never runs listener code.
+ * 
+ * Each subscriber has a bounded queue drained in order by one task at a time. When a
+ * queue is full the message's {@link OverflowPolicy} decides: superseded messages such
+ * as cursor moves evict the oldest droppable message, everything else makes the
+ * publisher wait, which pushes back on the socket instead of losing edits.
+ */
+public class EventBus<T> {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    
+    // Messages delivered per task before the subscriber's executor gets a turn to run something else
+    private static final int DRAIN_BATCH = 256;
+    
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService DISPATCH_POOL = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "event-bus-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicInteger SUBSCRIBER_COUNT = new AtomicInteger();
+    
+    public enum OverflowPolicy {
+        /** Evict the oldest queued message that may be dropped */
+        DROP_OLDEST,
+        /** Wait until the subscriber has made room */
+        BLOCK
+    }
+    
+    private final String name;
+    private final int queueCapacity;
+    private final Function<T, OverflowPolicy> overflowPolicy;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    
+    public EventBus(String name, Function<T, OverflowPolicy> overflowPolicy) {
+        this(name, DEFAULT_QUEUE_CAPACITY, overflowPolicy);
+    }
+    
+    /**
+     * @param name           prefix of the bus metrics
+     * @param queueCapacity  messages each subscriber may have pending
+     * @param overflowPolicy what to do with a message when a subscriber's queue is full
+     */
+    public EventBus(String name, int queueCapacity, Function<T, OverflowPolicy> overflowPolicy) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Subscribes a handler called on the bus's shared dispatch threads.
+     */
+    public Subscription subscribe(Consumer<T> handler) {
+        return subscribe(DISPATCH_POOL, handler);
+    }
+    
+    /**
+     * Subscribes a handler called on the given executor, one message at a time and
+     * in publishing order.
+     */
+    public Subscription subscribe(Executor executor, Consumer<T> handler) {
+        Subscription subscription = new Subscription(
+                name + ".subscriber-" + SUBSCRIBER_COUNT.incrementAndGet(), executor, handler);
+        subscriptions.add(subscription);
+        Metrics.gauge(subscription.name + ".queue_depth", subscription::getQueueDepth);
+        return subscription;
+    }
+    
+    /**
+     * Queues a message for every subscriber. May wait for a subscriber to catch up,
+     * depending on the message's overflow policy.
+     */
+    public void publish(T message) {
+        OverflowPolicy policy = overflowPolicy.apply(message);
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(message, policy);
+        }
+    }
+    
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+    
+    public final class Subscription implements Runnable {
+        private final String name;
+        private final Executor executor;
+        private final Consumer<T> handler;
+        private final ArrayDeque<T> queue = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private boolean scheduled;
+        private volatile boolean cancelled;
+        
+        private Subscription(String name, Executor executor, Consumer<T> handler) {
+            this.name = name;
+            this.executor = executor;
+            this.handler = handler;
+        }
+        
+        private void offer(T message, OverflowPolicy policy) {
+            boolean schedule = false;
+            lock.lock();
+            try {
+                while (queue.size() >= queueCapacity && !cancelled) {
+                    if (policy == OverflowPolicy.BLOCK) {
+                        Metrics.counter(name + ".blocked").increment();
+                        notFull.awaitUninterruptibly();
+                    } else if (!dropOldest()) {
+                        // Nothing droppable queued, the new message is the one to go
+                        Metrics.counter(name + ".dropped").increment();
+                        return;
+                    }
+                }
+                if (cancelled) return;
+                queue.add(message);
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+        
+        private boolean dropOldest() {
+            for (Iterator<T> it = queue.iterator(); it.hasNext(); ) {
+                if (overflowPolicy.apply(it.next()) == OverflowPolicy.DROP_OLDEST) {
+                    it.remove();
+                    Metrics.counter(name + ".dropped").increment();
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * Drains up to a batch of messages, then yields the executor if more are pending.
+         */
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                T message;
+                lock.lock();
+                try {
+                    message = queue.poll();
+                    if (message == null || cancelled) {
+                        scheduled = false;
+                        return;
+                    }
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    handler.accept(message);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            executor.execute(this);
+        }
+        
+        public int getQueueDepth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+        
+        /**
+         * Stops delivery, discarding pending messages and releasing blocked publishers.
+         */
+        public void cancel() {
+            subscriptions.remove(this);
+            Metrics.removeGauge(name + ".queue_depth");
+            lock.lock();
+            try {
+                cancelled = true;
+                queue.clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.codesphere.services;
+
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+
+/**
+ * Something that can compile and run a user's program.
+ */
+public interface ExecutionBackend {
+    
+    /**
+     * Runs the program to completion, failure or timeout, passing its output to
+     * the listener as it is printed. Meant to be called as background work: once
+     * the run is cancelled the program is stopped and a
+     * {@link java.util.concurrent.CancellationException} is thrown.
+     */
+    ExecutionResult execute(ExecutionRequest request, OutputListener output,
+                            BackgroundComputeService.Cancellation cancellation) throws Exception;
+    
+    /**
+     * Compiles the program ahead of running it several times, so that the runs
+     * find it compiled. Backends that compile nothing do nothing.
+     * 
+     * @return the compile error, or null if the program is ready to run
+     */
+    default ExecutionResult prepare(ExecutionRequest request, BackgroundComputeService.Cancellation cancellation) throws Exception {
+        return null;
+    }
+    
+    /**
+     * Runs the program, with its output only in the result.
+     */
+    default ExecutionResult execute(ExecutionRequest request, BackgroundComputeService.Cancellation cancellation) throws Exception {
+        return execute(request, OutputListener.NONE, cancellation);
+    }
+}
@@ -0,0 +1,469 @@
+package com.codesphere.services;
+
+import com.codesphere.services.BackgroundComputeService.Cancellation;
+import com.codesphere.services.BackgroundComputeService.Work;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which program runs next when more are waiting than there are cores.
+ * At most {@code limit} runs go at once; the rest wait, and free runners are
+ * shared fairly, first between rooms and then between the users of a room, so
+ * one busy room or one impatient user cannot starve the others.
+ * 
+ * Fairness is by run time: every room and user is charged the time its runs
+ * took, divided by its weight, and the waiting run of whoever has been charged
+ * least goes next. Someone who was idle comes back level with the least
+ * charged of those waiting, not ahead by everything they did not use.
+ * 
+ * A user has one run at a time in a room; submitting another cancels the one
+ * before, along with any runs forked from it. Waiting runs are told their
+ * place in the queue as it changes.
+ * 
+ * Runs are timed as {@code execution.queue_us} from submit to start and
+ * {@code execution.run_us} for the run itself.
+ */
+public class ExecutionScheduler {
+    
+    /**
+     * Told about a run's place in the queue. Called with the scheduler locked,
+     * so it must not block or call back into the scheduler.
+     */
+    public interface QueueListener {
+        QueueListener NONE = new QueueListener() {
+            @Override
+            public void waiting(int ahead) {
+            }
+            
+            @Override
+            public void started() {
+            }
+        };
+        
+        /**
+         * The run is waiting with this many runs due to start before it.
+         */
+        void waiting(int ahead);
+        
+        void started();
+    }
+    
+    private static final ExecutionScheduler SHARED =
+            new ExecutionScheduler(Runtime.getRuntime().availableProcessors());
+    
+    // Charged for a run when it starts, until it finishes and the real time is known
+    private static final long INITIAL_ESTIMATE_MILLIS = 100;
+    
+    private final int limit;
+    private final ThreadPoolExecutor workers;
+    
+    // Rooms and users with runs waiting or running, in the order they became active
+    private final Map<String, Flow> rooms = new LinkedHashMap<>();
+    private final Map<String, Double> weights = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledRun<?>> latest = new HashMap<>();
+    private int running;
+    private int waiting;
+    private long estimateMillis = INITIAL_ESTIMATE_MILLIS;
+    
+    public ExecutionScheduler(int limit) {
+        this.limit = limit;
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(limit, limit, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "execution-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        workers.allowCoreThreadTimeOut(true);
+        Metrics.gauge("execution.running", this::getRunning);
+        Metrics.gauge("execution.waiting", this::getWaiting);
+    }
+    
+    /**
+     * The process-wide scheduler, running one program per core.
+     */
+    public static ExecutionScheduler shared() {
+        return SHARED;
+    }
+    
+    /**
+     * Gives a room or user a larger (or smaller) share than the default of 1.
+     * Rooms and users are separate: a weight set for a room name does not apply
+     * to a user with the same name.
+     */
+    public void setRoomWeight(String room, double weight) {
+        weights.put(roomKey(room), weight);
+    }
+    
+    public void setUserWeight(String user, double weight) {
+        weights.put(userKey(user), weight);
+    }
+    
+    /**
+     * Queues a run for a user in a room, cancelling the user's previous run there.
+     */
+    public synchronized <T> ScheduledRun<T> submit(String room, String user, Work<T> work, QueueListener listener) {
+        ScheduledRun<T> run = new ScheduledRun<>(room, user, null, work, listener);
+        enqueue(run);
+        // Only now, so that withdrawing it does not make the user look idle and reset their share
+        ScheduledRun<?> previous = latest.put(key(room, user), run);
+        if (previous != null) {
+            previous.cancel();
+        }
+        dispatch();
+        return run;
+    }
+    
+    /**
+     * Cancels the user's latest run in a room, if it has not finished.
+     */
+    public synchronized void cancel(String room, String user) {
+        ScheduledRun<?> run = latest.remove(key(room, user));
+        if (run != null) {
+            run.cancel();
+        }
+    }
+    
+    private synchronized <T> ScheduledRun<T> fork(ScheduledRun<?> parent, Work<T> work, QueueListener listener) {
+        ScheduledRun<T> run = new ScheduledRun<>(parent.room, parent.user, parent, work, listener);
+        String key = key(parent.room, parent.user);
+        ScheduledRun<?> current = latest.get(key);
+        if (parent.cancelled || (current != null && current != parent)) {
+            // The parent has been cancelled or superseded, and so has anything it forks
+            run.cancelled = true;
+            run.done = true;
+            run.result.cancel(false);
+            return run;
+        }
+        latest.put(key, parent);
+        parent.children.add(run);
+        enqueue(run);
+        dispatch();
+        return run;
+    }
+    
+    private void enqueue(ScheduledRun<?> run) {
+        String room = run.room;
+        String user = run.user;
+        Flow roomFlow = rooms.get(room);
+        if (roomFlow == null) {
+            roomFlow = new Flow(weight(roomKey(room)), leastCharged(rooms));
+            rooms.put(room, roomFlow);
+        }
+        Flow userFlow = roomFlow.users.get(user);
+        if (userFlow == null) {
+            userFlow = new Flow(weight(userKey(user)), leastCharged(roomFlow.users));
+            roomFlow.users.put(user, userFlow);
+        }
+        userFlow.queue.add(run);
+        roomFlow.waiting++;
+        waiting++;
+    }
+    
+    public synchronized int getRunning() {
+        return running;
+    }
+    
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+    
+    /**
+     * Starts waiting runs while runners are free, then tells the rest where they stand.
+     */
+    private void dispatch() {
+        while (running < limit) {
+            Flow room = leastChargedWaiting(rooms);
+            if (room == null) break;
+            Flow user = leastChargedWaiting(room.users);
+            ScheduledRun<?> run = user.queue.poll();
+            room.waiting--;
+            waiting--;
+            
+            run.charged = estimateMillis;
+            room.charge(estimateMillis);
+            user.charge(estimateMillis);
+            room.running++;
+            user.running++;
+            running++;
+            run.listener.started();
+            workers.execute(run);
+        }
+        
+        List<ScheduledRun<?>> order = waitingOrder();
+        for (int i = 0; i < order.size(); i++) {
+            ScheduledRun<?> run = order.get(i);
+            if (run.ahead != i) {
+                run.ahead = i;
+                run.listener.waiting(i);
+            }
+        }
+    }
+    
+    /**
+     * The waiting runs in the order they would start if nothing else arrived
+     * and every run took the current estimate.
+     */
+    private List<ScheduledRun<?>> waitingOrder() {
+        List<ScheduledRun<?>> order = new ArrayList<>(waiting);
+        Map<Flow, Double> charged = new HashMap<>();
+        Map<Flow, Iterator<ScheduledRun<?>>> queues = new HashMap<>();
+        Map<Flow, Integer> left = new HashMap<>();
+        for (Flow room : rooms.values()) {
+            charged.put(room, room.charged);
+            left.put(room, room.waiting);
+            for (Flow user : room.users.values()) {
+                charged.put(user, user.charged);
+                queues.put(user, user.queue.iterator());
+            }
+        }
+        while (order.size() < waiting) {
+            Flow room = null;
+            for (Flow candidate : rooms.values()) {
+                if (left.get(candidate) > 0 && (room == null || charged.get(candidate) < charged.get(room))) {
+                    room = candidate;
+                }
+            }
+            Flow user = null;
+            for (Flow candidate : room.users.values()) {
+                if (queues.get(candidate).hasNext() && (user == null || charged.get(candidate) < charged.get(user))) {
+                    user = candidate;
+                }
+            }
+            order.add(queues.get(user).next());
+            left.merge(room, -1, Integer::sum);
+            charged.merge(room, estimateMillis / room.weight, Double::sum);
+            charged.merge(user, estimateMillis / user.weight, Double::sum);
+        }
+        return order;
+    }
+    
+    private synchronized void finished(ScheduledRun<?> run, long millis) {
+        Flow room = rooms.get(run.room);
+        Flow user = room.users.get(run.user);
+        // The estimate charged at the start is replaced by the real time
+        room.charge(millis - run.charged);
+        user.charge(millis - run.charged);
+        room.running--;
+        user.running--;
+        running--;
+        estimateMillis = Math.max(1, (estimateMillis * 7 + millis) / 8);
+        forgetIdle(run);
+        release(run);
+        dispatch();
+    }
+    
+    private synchronized boolean withdraw(ScheduledRun<?> run) {
+        Flow room = rooms.get(run.room);
+        Flow user = room != null ? room.users.get(run.user) : null;
+        if (user == null || !user.queue.remove(run)) return false;
+        room.waiting--;
+        waiting--;
+        forgetIdle(run);
+        release(run);
+        dispatch();
+        return true;
+    }
+    
+    /**
+     * Marks a run done, and forgets the user's latest run once it and everything
+     * it forked are done.
+     */
+    private void release(ScheduledRun<?> run) {
+        run.done = true;
+        ScheduledRun<?> owner = run.parent != null ? run.parent : run;
+        if (!owner.done) return;
+        for (ScheduledRun<?> child : owner.children) {
+            if (!child.done) return;
+        }
+        latest.remove(key(owner.room, owner.user), owner);
+    }
+    
+    private void forgetIdle(ScheduledRun<?> run) {
+        Flow room = rooms.get(run.room);
+        Flow user = room.users.get(run.user);
+        if (user.isIdle()) {
+            room.users.remove(run.user);
+        }
+        if (room.isIdle()) {
+            rooms.remove(run.room);
+        }
+    }
+    
+    private double weight(String key) {
+        return weights.getOrDefault(key, 1.0);
+    }
+    
+    private static String key(String room, String user) {
+        return room + '\0' + user;
+    }
+    
+    private static String roomKey(String room) {
+        return "room:" + room;
+    }
+    
+    private static String userKey(String user) {
+        return "user:" + user;
+    }
+    
+    /**
+     * Where a newly active flow starts: level with the least charged of the
+     * others, so idle time is not saved up.
+     */
+    private static double leastCharged(Map<String, Flow> flows) {
+        double least = Double.NaN;
+        for (Flow flow : flows.values()) {
+            if (Double.isNaN(least) || flow.charged < least) {
+                least = flow.charged;
+            }
+        }
+        return Double.isNaN(least) ? 0 : least;
+    }
+    
+    private static Flow leastChargedWaiting(Map<String, Flow> flows) {
+        Flow least = null;
+        for (Flow flow : flows.values()) {
+            if (flow.hasWaiting() && (least == null || flow.charged < least.charged)) {
+                least = flow;
+            }
+        }
+        return least;
+    }
+    
+    /**
+     * A room, or a user within a room, with its share of the runners.
+     */
+    private static final class Flow {
+        final double weight;
+        // Run time used so far, in milliseconds divided by the weight
+        double charged;
+        int running;
+        // Rooms only: their users, and how many runs wait across them
+        final Map<String, Flow> users = new LinkedHashMap<>();
+        int waiting;
+        // Users only: their runs in the order submitted
+        final ArrayDeque<ScheduledRun<?>> queue = new ArrayDeque<>();
+        
+        Flow(double weight, double charged) {
+            this.weight = weight;
+            this.charged = charged;
+        }
+        
+        void charge(long millis) {
+            charged += millis / weight;
+        }
+        
+        boolean hasWaiting() {
+            return waiting > 0 || !queue.isEmpty();
+        }
+        
+        boolean isIdle() {
+            return running == 0 && !hasWaiting();
+        }
+    }
+    
+    public final class ScheduledRun<T> implements Runnable, Cancellation {
+        private final String room;
+        private final String user;
+        private final ScheduledRun<?> parent;
+        private final Work<T> work;
+        private final QueueListener listener;
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile boolean cancelled;
+        
+        // Guarded by the scheduler
+        private long charged;
+        private int ahead = -1;
+        private boolean done;
+        private final List<ScheduledRun<?>> children = new ArrayList<>();
+        
+        private ScheduledRun(String room, String user, ScheduledRun<?> parent, Work<T> work, QueueListener listener) {
+            this.room = room;
+            this.user = user;
+            this.parent = parent;
+            this.work = work;
+            this.listener = listener;
+        }
+        
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            Metrics.histogram("execution.queue_us").record((startNanos - submittedNanos) / 1000);
+            if (cancelled) {
+                result.cancel(false);
+                finished(this, 0);
+                return;
+            }
+            try {
+                T value = work.compute(this);
+                if (cancelled) {
+                    result.cancel(false);
+                } else {
+                    result.complete(value);
+                }
+            } catch (CancellationException e) {
+                result.cancel(false);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            long runNanos = System.nanoTime() - startNanos;
+            Metrics.histogram("execution.run_us").record(runNanos / 1000);
+            finished(this, runNanos / 1_000_000);
+        }
+        
+        /**
+         * Completes with the run's value, or exceptionally with a
+         * {@link CancellationException} if it was cancelled.
+         */
+        public CompletableFuture<T> getResult() {
+            return result;
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        /**
+         * Queues more work for the same user as part of this run, such as the
+         * cases of a test suite. It takes the user's turns like any other run,
+         * and is cancelled along with this run, even after this run has finished.
+         */
+        public <U> ScheduledRun<U> fork(Work<U> work, QueueListener listener) {
+            return ExecutionScheduler.this.fork(this, work, listener);
+        }
+        
+        public void cancel() {
+            boolean wasCancelled;
+            List<ScheduledRun<?>> forked;
+            synchronized (ExecutionScheduler.this) {
+                wasCancelled = cancelled;
+                cancelled = true;
+                forked = new ArrayList<>(children);
+            }
+            for (ScheduledRun<?> child : forked) {
+                child.cancel();
+            }
+            if (wasCancelled || result.isDone()) return;
+            Metrics.counter("execution.cancelled").increment();
+            // Still waiting: leave the queue now rather than when its turn comes
+            if (withdraw(this)) {
+                result.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,710 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.models.ResourceUsage;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles and runs Java programs inside the editor's own JVM, which keeps a run
+ * at the cost of a compile instead of a JVM start.
+ * 
+ * Sources are compiled with the system compiler into memory and loaded by a
+ * classloader of their own that sees only the platform classes, so every run
+ * starts with fresh statics and none of CodeSphere's classes. {@code main} runs
+ * on its own thread group with {@code System.out}, {@code System.err} and
+ * {@code System.in} routed to the run for it and any thread it starts. Calls to
+ * {@code System.exit} and {@code Runtime.halt}, which would close the editor, and
+ * to {@code System.setOut}, {@code setErr} and {@code setIn}, which would take
+ * over the streams of every run and of the editor, are rejected at compile time.
+ * Only calls written in the source are seen: one made through reflection or a
+ * method handle gets past the check, so this guards against mistakes, not
+ * against a program set on escaping. A program that outlives its timeout or
+ * output limit is interrupted and then stopped.
+ * 
+ * Processor time is the sum over the run's threads, from the JVM's per-thread
+ * counters. Memory has no per-run counter inside a shared heap, so it is how
+ * far the heap left after garbage collection grew while the program ran: it
+ * counts only what the program keeps alive, catches up when the collector runs,
+ * and also takes in whatever other runs at the same time keep.
+ * 
+ * Both limits are therefore best effort, and results say so. A program that
+ * allocates quickly can fill the heap it shares with the editor before the
+ * growth shows, which ends it with an {@link OutOfMemoryError} reported as over
+ * the memory limit, if the editor survives it. On JDK 20 and later threads can
+ * no longer be stopped, so one that ignores interruption keeps running after
+ * its run is over.
+ */
+public class InMemoryJavaBackend implements ExecutionBackend {
+    private static final InMemoryJavaBackend SHARED = new InMemoryJavaBackend(CompilationCache.shared());
+    
+    private static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+    
+    // Annotation processing would only look for processors on an empty class path
+    private static final List<String> OPTIONS = Collections.singletonList("-proc:none");
+    
+    private static final Pattern PUBLIC_TYPE = Pattern.compile(
+            "\\bpublic\\s+(?:(?:abstract|final|static|strictfp)\\s+)*(?:class|interface|enum|record)\\s+([\\p{L}_$][\\p{L}\\p{N}_$]*)");
+    
+    private static final String WARM_UP_SOURCE = "public class Main {\n" +
+            "    public static void main(String[] args) {\n" +
+            "        System.out.println(\"warm\");\n" +
+            "    }\n" +
+            "}";
+    
+    private static final long POLL_MILLIS = 20;
+    private static final long STOP_GRACE_MILLIS = 100;
+    
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean THREAD_CPU_TIME = enableThreadCpuTime();
+    
+    // The run the current thread belongs to, inherited by the threads it starts
+    private static final InheritableThreadLocal<RunStreams> CURRENT_RUN = new InheritableThreadLocal<>();
+    private static boolean routingInstalled;
+    
+    private final CompilationCache cache;
+    private final AtomicInteger runs = new AtomicInteger();
+    
+    // Caches the platform classes between compilations; not thread-safe, so compiles take turns
+    private StandardJavaFileManager standardFileManager;
+    
+    public InMemoryJavaBackend(CompilationCache cache) {
+        this.cache = cache;
+    }
+    
+    public static InMemoryJavaBackend shared() {
+        return SHARED;
+    }
+    
+    @Override
+    public ExecutionResult execute(ExecutionRequest request, OutputListener output,
+                                   BackgroundComputeService.Cancellation cancellation) throws Exception {
+        long compileStart = System.nanoTime();
+        Compilation compilation = compilation(request.getSource());
+        long compileMillis = (System.nanoTime() - compileStart) / 1_000_000;
+        Metrics.histogram("execution.java.compile_us").record((System.nanoTime() - compileStart) / 1000);
+        if (compilation.diagnostics != null) {
+            return ExecutionResult.compileError(compilation.diagnostics, compileMillis);
+        }
+        cancellation.throwIfCancelled();
+        
+        MemoryClassLoader loader = new MemoryClassLoader(compilation.classes);
+        Method main = findMain(loader, compilation);
+        if (main == null) {
+            return ExecutionResult.compileError("error: no class declares public static void main(String[] args)\n", compileMillis);
+        }
+        return run(main, loader, request, output, compileMillis, cancellation);
+    }
+    
+    /**
+     * Compiles and runs a small program once, so that the first run the user asks
+     * for does not pay for loading and JIT-compiling the compiler.
+     */
+    @Override
+    public ExecutionResult prepare(ExecutionRequest request, BackgroundComputeService.Cancellation cancellation) throws Exception {
+        long compileStart = System.nanoTime();
+        Compilation compilation = compilation(request.getSource());
+        return compilation.diagnostics != null
+                ? ExecutionResult.compileError(compilation.diagnostics, (System.nanoTime() - compileStart) / 1_000_000)
+                : null;
+    }
+    
+    public void warmUp() {
+        try {
+            execute(new ExecutionRequest(EditorLanguage.JAVA, WARM_UP_SOURCE), () -> false);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    
+    private Compilation compilation(String source) throws IOException {
+        String key = CompilationCache.key("java", System.getProperty("java.version"), String.join(" ", OPTIONS), source);
+        Map<String, byte[]> cached = cache.get(key);
+        return cached != null ? new Compilation(null, cached, publicTypeName(source)) : compile(key, source);
+    }
+    
+    private synchronized Compilation compile(String key, String source) throws IOException {
+        // Whoever held the lock may just have compiled the same source
+        Map<String, byte[]> cached = cache.peek(key);
+        if (cached != null) {
+            return new Compilation(null, cached, publicTypeName(source));
+        }
+        if (COMPILER == null) {
+            return new Compilation("error: no Java compiler available; CodeSphere has to run on a JDK to execute Java\n", null, null);
+        }
+        if (standardFileManager == null) {
+            standardFileManager = COMPILER.getStandardFileManager(null, null, null);
+            standardFileManager.setLocation(StandardLocation.CLASS_PATH, Collections.emptyList());
+        }
+        
+        String typeName = publicTypeName(source);
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+        JavacTask task = (JavacTask) COMPILER.getTask(null, fileManager, diagnostics, OPTIONS, null,
+                Collections.singletonList(new SourceFile(typeName, source)));
+        ForbiddenCallFinder forbiddenCalls = new ForbiddenCallFinder(task);
+        task.addTaskListener(forbiddenCalls);
+        boolean compiled = task.call();
+        
+        if (!compiled || !forbiddenCalls.errors.isEmpty()) {
+            StringBuilder text = new StringBuilder();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    text.append(typeName).append(".java:").append(diagnostic.getLineNumber())
+                            .append(": error: ").append(diagnostic.getMessage(null)).append('\n');
+                }
+            }
+            for (Map.Entry<Long, String> error : forbiddenCalls.errors.entrySet()) {
+                text.append(typeName).append(".java:").append(error.getKey())
+                        .append(": error: ").append(error.getValue()).append('\n');
+            }
+            return new Compilation(text.toString(), null, typeName);
+        }
+        cache.put(key, fileManager.classes);
+        return new Compilation(null, fileManager.classes, typeName);
+    }
+    
+    private static String publicTypeName(String source) {
+        Matcher matcher = PUBLIC_TYPE.matcher(source);
+        return matcher.find() ? matcher.group(1) : "Main";
+    }
+    
+    /**
+     * The public type's {@code main}, or failing that the first one declared.
+     */
+    private static Method findMain(MemoryClassLoader loader, Compilation compilation) throws ClassNotFoundException {
+        Method first = null;
+        for (String className : compilation.classes.keySet()) {
+            // Loading without initializing, so no static initializer runs outside the run
+            Class<?> type = Class.forName(className, false, loader);
+            Method main;
+            try {
+                main = type.getMethod("main", String[].class);
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+            if (!Modifier.isStatic(main.getModifiers()) || main.getReturnType() != void.class
+                    || !Modifier.isPublic(type.getModifiers())) {
+                continue;
+            }
+            if (type.getEnclosingClass() == null && type.getSimpleName().equals(compilation.typeName)) {
+                return main;
+            }
+            if (first == null) {
+                first = main;
+            }
+        }
+        return first;
+    }
+    
+    private ExecutionResult run(Method main, ClassLoader loader, ExecutionRequest request, OutputListener output,
+                                long compileMillis, BackgroundComputeService.Cancellation cancellation) throws InterruptedException {
+        installRouting();
+        RunStreams streams = new RunStreams(request.getStdin(), request.getOutputLimitBytes(), output);
+        boolean[] failed = new boolean[1];
+        boolean[] outOfMemory = new boolean[1];
+        ThreadGroup group = new ThreadGroup("run-" + runs.incrementAndGet());
+        RunUsage usage = new RunUsage();
+        Thread mainThread = new Thread(group, () -> {
+            CURRENT_RUN.set(streams);
+            try {
+                main.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                failed[0] = true;
+                Throwable error = e.getCause();
+                if (error instanceof ThreadDeath) {
+                    // Stopped at a limit, which the result already says
+                    return;
+                }
+                outOfMemory[0] = error instanceof OutOfMemoryError;
+                trimInvocationFrames(error);
+                // Reported the way the JVM reports an exception that ends main
+                System.err.print("Exception in thread \"main\" ");
+                error.printStackTrace();
+            } catch (IllegalAccessException e) {
+                failed[0] = true;
+                e.printStackTrace();
+            } finally {
+                // Exact for main, whatever it did since the last sample
+                usage.finished(Thread.currentThread());
+            }
+        }, "main");
+        mainThread.setDaemon(true);
+        mainThread.setContextClassLoader(loader);
+        
+        long start = System.nanoTime();
+        long deadline = start + request.getTimeoutMillis() * 1_000_000;
+        ExecutionResult.Status ending = null;
+        boolean stopped = true;
+        try {
+            mainThread.start();
+            ending = awaitThreads(group, deadline, request, streams, usage, cancellation);
+        } finally {
+            if (ending != ExecutionResult.Status.COMPLETED) {
+                stopped = stop(group);
+            }
+            // Whatever a stopped program still prints is dropped
+            streams.close();
+        }
+        if (ending == ExecutionResult.Status.COMPLETED && outOfMemory[0]) {
+            ending = ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED;
+        }
+        long runMillis = (System.nanoTime() - start) / 1_000_000;
+        Metrics.histogram("execution.java.run_us").record((System.nanoTime() - start) / 1000);
+        
+        ResourceUsage used = new ResourceUsage(runMillis, usage.getCpuMillis(), usage.getPeakMemoryBytes(),
+                streams.out.getWritten() + streams.err.getWritten(), true);
+        UsageMetrics.record("execution.java", used);
+        
+        String stdout = streams.out.text(Charset.defaultCharset());
+        String stderr = streams.err.text(Charset.defaultCharset());
+        if (!stopped) {
+            stderr += "\nThe program ignored being interrupted and this JDK cannot stop threads; "
+                    + "it keeps running inside CodeSphere until it ends by itself\n";
+        }
+        if (ending != ExecutionResult.Status.COMPLETED) {
+            Metrics.counter("execution.java." + ending.name().toLowerCase()).increment();
+            return new ExecutionResult(ending, stdout, stderr, -1, compileMillis, used);
+        }
+        return failed[0]
+                ? new ExecutionResult(ExecutionResult.Status.RUNTIME_ERROR, stdout, stderr, 1, compileMillis, used)
+                : new ExecutionResult(ExecutionResult.Status.COMPLETED, stdout, stderr, 0, compileMillis, used);
+    }
+    
+    /**
+     * Waits for main and every thread it started to end, as the JVM would.
+     * 
+     * @return COMPLETED, or the limit the program ran into first
+     */
+    private static ExecutionResult.Status awaitThreads(ThreadGroup group, long deadlineNanos, ExecutionRequest limits,
+                                                       RunStreams streams, RunUsage usage,
+                                                       BackgroundComputeService.Cancellation cancellation) throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        while (true) {
+            int count = group.enumerate(threads);
+            if (count == 0) {
+                return ExecutionResult.Status.COMPLETED;
+            }
+            if (count == threads.length) {
+                threads = new Thread[count * 2];
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                long remainingMillis = (deadlineNanos - System.nanoTime()) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    return ExecutionResult.Status.TIMED_OUT;
+                }
+                threads[i].join(Math.min(remainingMillis, POLL_MILLIS));
+                cancellation.throwIfCancelled();
+                if (streams.out.isTruncated() || streams.err.isTruncated()) {
+                    return ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED;
+                }
+                usage.sample(threads, count);
+                if (usage.getCpuMillis() > limits.getCpuLimitMillis()) {
+                    return ExecutionResult.Status.CPU_LIMIT_EXCEEDED;
+                }
+                if (usage.getPeakMemoryBytes() > limits.getMemoryLimitBytes()) {
+                    return ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED;
+                }
+                if (threads[i].isAlive()) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    private static boolean enableThreadCpuTime() {
+        if (!THREADS.isThreadCpuTimeSupported()) return false;
+        try {
+            THREADS.setThreadCpuTimeEnabled(true);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return THREADS.isThreadCpuTimeEnabled();
+        }
+    }
+    
+    /**
+     * Bytes in the heap as the last garbage collection of each part of it left them.
+     */
+    private static long liveHeapBytes() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage afterCollection = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (afterCollection != null) {
+                used += afterCollection.getUsed();
+            }
+        }
+        return used;
+    }
+    
+    /**
+     * Interrupts the program's threads, and stops those that do not end by themselves.
+     * 
+     * @return false if some could not be stopped and are still running
+     */
+    @SuppressWarnings({"deprecation", "removal"})
+    private static boolean stop(ThreadGroup group) throws InterruptedException {
+        group.interrupt();
+        Thread[] threads = new Thread[group.activeCount() + 4];
+        int count = group.enumerate(threads);
+        long deadline = System.nanoTime() + STOP_GRACE_MILLIS * 1_000_000;
+        boolean stopped = true;
+        for (int i = 0; i < count; i++) {
+            threads[i].join(Math.max(1, (deadline - System.nanoTime()) / 1_000_000));
+            if (threads[i].isAlive()) {
+                try {
+                    threads[i].stop();
+                } catch (UnsupportedOperationException e) {
+                    // Newer JDKs cannot stop threads; the daemon thread lingers until the program gives up
+                    Metrics.counter("execution.java.unstoppable").increment();
+                    stopped = false;
+                }
+            }
+        }
+        return stopped;
+    }
+    
+    /**
+     * Drops the frames below the program's {@code main}: reflection and this class.
+     */
+    private static void trimInvocationFrames(Throwable error) {
+        StackTraceElement[] trace = error.getStackTrace();
+        int end = trace.length;
+        while (end > 0) {
+            String className = trace[end - 1].getClassName();
+            if (!className.startsWith("jdk.internal.reflect.") && !className.startsWith("java.lang.reflect.")
+                    && !className.startsWith(InMemoryJavaBackend.class.getName()) && !className.equals("java.lang.Thread")) {
+                break;
+            }
+            end--;
+        }
+        error.setStackTrace(Arrays.copyOf(trace, end));
+    }
+    
+    /**
+     * Points the standard streams at whichever run the writing thread belongs to,
+     * and at the original streams for every other thread.
+     */
+    private static synchronized void installRouting() {
+        if (routingInstalled) return;
+        Charset charset = Charset.defaultCharset();
+        System.setOut(new PrintStream(new RoutedOutput(System.out, false), true, charset));
+        System.setErr(new PrintStream(new RoutedOutput(System.err, true), true, charset));
+        System.setIn(new RoutedInput(System.in));
+        routingInstalled = true;
+    }
+    
+    private static RunStreams currentRun() {
+        RunStreams run = CURRENT_RUN.get();
+        return run == null || run.closed ? null : run;
+    }
+    
+    private static final class RoutedOutput extends OutputStream {
+        private final OutputStream original;
+        private final boolean error;
+        
+        RoutedOutput(OutputStream original, boolean error) {
+            this.original = original;
+            this.error = error;
+        }
+        
+        private OutputStream target() {
+            RunStreams run = currentRun();
+            return run == null ? original : error ? run.err : run.out;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+        
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target().write(bytes, offset, length);
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+    
+    private static final class RoutedInput extends InputStream {
+        private final InputStream original;
+        
+        RoutedInput(InputStream original) {
+            this.original = original;
+        }
+        
+        private InputStream target() {
+            RunStreams run = currentRun();
+            return run == null ? original : run.in;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            return target().read();
+        }
+        
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return target().read(bytes, offset, length);
+        }
+        
+        @Override
+        public int available() throws IOException {
+            return target().available();
+        }
+    }
+    
+    private static final class RunStreams {
+        final BoundedOutput out;
+        final BoundedOutput err;
+        final InputStream in;
+        volatile boolean closed;
+        
+        RunStreams(String stdin, int outputLimitBytes, OutputListener listener) {
+            out = new BoundedOutput(outputLimitBytes, Charset.defaultCharset(), listener, false);
+            err = new BoundedOutput(outputLimitBytes, Charset.defaultCharset(), listener, true);
+            in = new ByteArrayInputStream(stdin.getBytes(Charset.defaultCharset()));
+        }
+        
+        void close() {
+            closed = true;
+        }
+    }
+    
+    /**
+     * Processor time of a run's threads and the growth of the live heap, sampled while it runs.
+     */
+    private static final class RunUsage {
+        // Each thread's processor time when last seen, kept after the thread ends
+        private final Map<Long, Long> threadCpuNanos = new ConcurrentHashMap<>();
+        private final long baselineHeapBytes = liveHeapBytes();
+        private volatile long peakMemoryBytes;
+        
+        void sample(Thread[] threads, int count) {
+            if (THREAD_CPU_TIME) {
+                for (int i = 0; i < count; i++) {
+                    record(threads[i].getId(), THREADS.getThreadCpuTime(threads[i].getId()));
+                }
+            }
+            peakMemoryBytes = Math.max(peakMemoryBytes, liveHeapBytes() - baselineHeapBytes);
+        }
+        
+        /**
+         * Called by a thread of the run as it ends.
+         */
+        void finished(Thread thread) {
+            if (THREAD_CPU_TIME) {
+                record(thread.getId(), THREADS.getCurrentThreadCpuTime());
+            }
+        }
+        
+        private void record(long threadId, long cpuNanos) {
+            // -1 once the thread has ended
+            if (cpuNanos >= 0) {
+                threadCpuNanos.merge(threadId, cpuNanos, Math::max);
+            }
+        }
+        
+        long getCpuMillis() {
+            if (!THREAD_CPU_TIME) return ResourceUsage.UNKNOWN;
+            long nanos = 0;
+            for (long each : threadCpuNanos.values()) {
+                nanos += each;
+            }
+            return nanos / 1_000_000;
+        }
+        
+        long getPeakMemoryBytes() {
+            return peakMemoryBytes;
+        }
+    }
+    
+    private static final class Compilation {
+        final String diagnostics;
+        final Map<String, byte[]> classes;
+        final String typeName;
+        
+        Compilation(String diagnostics, Map<String, byte[]> classes, String typeName) {
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+            this.typeName = typeName;
+        }
+    }
+    
+    private static final class SourceFile extends SimpleJavaFileObject {
+        private final String source;
+        
+        SourceFile(String typeName, String source) {
+            super(URI.create("string:///" + typeName + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+        
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+    
+    /**
+     * Keeps the class files the compiler writes, by binary name, in the order written.
+     */
+    private static final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+        
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            URI uri = URI.create("memory:///" + className.replace('.', '/') + kind.extension);
+            return new SimpleJavaFileObject(uri, kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+        
+        @Override
+        public void close() {
+            // The standard file manager is kept for the next compilation
+        }
+    }
+    
+    /**
+     * Defines the compiled classes, with the platform classes as the only others in sight.
+     */
+    private static final class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+        
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super(ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+        
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+    
+    /**
+     * Finds calls and method references to {@code System.exit}, {@code Runtime.exit},
+     * {@code Runtime.halt} and the {@code System} stream setters once the compiler
+     * has resolved them, with the error to report for each line.
+     */
+    private static final class ForbiddenCallFinder implements TaskListener {
+        final TreeMap<Long, String> errors = new TreeMap<>();
+        private final Trees trees;
+        
+        ForbiddenCallFinder(JavacTask task) {
+            trees = Trees.instance(task);
+        }
+        
+        @Override
+        public void finished(TaskEvent event) {
+            if (event.getKind() != TaskEvent.Kind.ANALYZE) return;
+            CompilationUnitTree unit = event.getCompilationUnit();
+            TreePath path = trees.getPath(event.getTypeElement());
+            if (path == null) return;
+            new TreePathScanner<Void, Void>() {
+                @Override
+                public Void visitMethodInvocation(MethodInvocationTree node, Void unused) {
+                    check(unit, node);
+                    return super.visitMethodInvocation(node, unused);
+                }
+                
+                @Override
+                public Void visitMemberReference(MemberReferenceTree node, Void unused) {
+                    check(unit, node);
+                    return super.visitMemberReference(node, unused);
+                }
+                
+                private void check(CompilationUnitTree unit, Tree node) {
+                    Element element = trees.getElement(getCurrentPath());
+                    if (element == null || element.getKind() != ElementKind.METHOD) return;
+                    String owner = ((TypeElement) element.getEnclosingElement()).getQualifiedName().toString();
+                    String name = element.getSimpleName().toString();
+                    String error = null;
+                    if (owner.equals("java.lang.System") && name.equals("exit")
+                            || owner.equals("java.lang.Runtime") && (name.equals("exit") || name.equals("halt"))) {
+                        error = "exiting the JVM would close CodeSphere; return from main instead";
+                    } else if (owner.equals("java.lang.System")
+                            && (name.equals("setOut") || name.equals("setErr") || name.equals("setIn"))) {
+                        error = "System." + name + " would replace the stream for all of CodeSphere; "
+                                + "read or write through a stream of your own instead";
+                    }
+                    if (error != null) {
+                        long position = trees.getSourcePositions().getStartPosition(unit, node);
+                        errors.putIfAbsent(unit.getLineMap().getLineNumber(position), error);
+                    }
+                }
+            }.scan(path, null);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.codesphere.services;
+
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Syntax highlighting that survives edits and never has to lex a whole file at once.
+ * 
+ * Lines before the frontier are lexed and painted in their final style, and their
+ * start states are kept, so after an edit lexing resumes at the edited line and stops
+ * at the first line past the edit whose start state did not change. Lines from the
+ * frontier on are lexed in slices by {@link #advance}; until then the visible ones
+ * can be painted provisionally by {@link #paintViewport}. For those lines the state
+ * they were last painted with is kept, so a line is only repainted when it would
+ * come out differently.
+ * 
+ * Lines are read through a function from line index to text, so the highlighter
+ * works on whatever holds the document. Painted lines are handed out as ranges of
+ * style spans. Not thread-safe.
+ */
+public class IncrementalHighlighter {
+    /** Lines re-lexed on the spot after an edit; the background pass does the rest */
+    public static final int MAX_EDIT_LINES = 1000;
+    
+    private static final int UNKNOWN_STATE = -1;
+    
+    private static final Collection<String> KEYWORD_STYLE = Collections.singleton(LineLexer.KEYWORD);
+    private static final Collection<String> STRING_STYLE = Collections.singleton(LineLexer.STRING);
+    private static final Collection<String> COMMENT_STYLE = Collections.singleton(LineLexer.COMMENT);
+    private static final LineLexer.TokenSink IGNORE_TOKENS = (start, end, styleClass) -> { };
+    
+    private LineLexer lexer;
+    
+    // Before the frontier, the start state of each line; from the frontier on, the
+    // state the line was last painted with, UNKNOWN if never painted or edited since
+    private int[] lineStates = new int[16];
+    private int lineCount;
+    private int frontier;
+    private int frontierState = LineLexer.INITIAL_STATE;
+    
+    public IncrementalHighlighter(LineLexer lexer) {
+        this.lexer = lexer;
+    }
+    
+    /**
+     * Switches language; takes effect from the next {@link #reset}.
+     */
+    public void setLexer(LineLexer lexer) {
+        this.lexer = lexer;
+    }
+    
+    /**
+     * Forgets all highlighting, for a new document or language.
+     */
+    public void reset(int lineCount) {
+        this.lineCount = 0;
+        splice(0, 0, lineCount);
+        frontier = 0;
+        frontierState = LineLexer.INITIAL_STATE;
+    }
+    
+    /**
+     * Lexes the whole document and returns its spans.
+     */
+    public StyleSpans<Collection<String>> highlightAll(IntFunction<? extends CharSequence> lines, int lineCount) {
+        reset(lineCount);
+        List<HighlightRange> ranges = new ArrayList<>(1);
+        advance(lineCount, lines, ranges::add);
+        // Nothing was painted before, so every line is in the one range
+        return ranges.get(0).spans;
+    }
+    
+    /**
+     * Updates the highlighting after an edit starting in {@code line}, which removed
+     * {@code removedBreaks} line breaks and inserted {@code insertedBreaks}. Edits
+     * past the frontier are only recorded; the edited lines get painted by the
+     * viewport or the background pass.
+     * 
+     * @param lines the document after the edit
+     */
+    public void edit(int line, int removedBreaks, int insertedBreaks,
+                     IntFunction<? extends CharSequence> lines, Consumer<HighlightRange> painter) {
+        splice(line + 1, removedBreaks, insertedBreaks);
+        if (line >= frontier) {
+            lineStates[line] = UNKNOWN_STATE;
+            return;
+        }
+        frontier = Math.max(line + 1, frontier - removedBreaks + insertedBreaks);
+        
+        RangeBuilder range = new RangeBuilder(line);
+        int lastEdited = line + insertedBreaks;
+        int state = lineStates[line];
+        int current = line;
+        while (true) {
+            state = range.lexLine(lines.apply(current), state);
+            current++;
+            if (current >= frontier || current - line >= MAX_EDIT_LINES) {
+                // Past the edit's reach, or too far to do now; the background pass takes over from here
+                frontier = current;
+                frontierState = state;
+                break;
+            }
+            if (current > lastEdited && lineStates[current] == state) {
+                break;
+            }
+            range.lineBreak();
+            lineStates[current] = state;
+        }
+        Metrics.histogram("highlight.relexed_lines").record(current - line);
+        painter.accept(range.build());
+    }
+    
+    /**
+     * Lexes up to {@code maxLines} lines from the frontier, painting those whose
+     * paint is out of date.
+     * 
+     * @return whether lines are left to lex
+     */
+    public boolean advance(int maxLines, IntFunction<? extends CharSequence> lines, Consumer<HighlightRange> painter) {
+        int end = (int) Math.min(lineCount, (long) frontier + maxLines);
+        frontierState = paintLines(frontier, end, frontierState, lines, painter);
+        frontier = end;
+        return frontier < lineCount;
+    }
+    
+    /**
+     * Paints the lines {@code first} to {@code last} inclusive. Lines up to the
+     * frontier are already final; if the viewport starts past it, its lines are
+     * lexed from their last known state and the background pass corrects them once
+     * it gets there.
+     */
+    public void paintViewport(int first, int last, IntFunction<? extends CharSequence> lines, Consumer<HighlightRange> painter) {
+        int end = Math.min(last + 1, lineCount);
+        if (first <= frontier) {
+            if (end > frontier) {
+                advance(end - frontier, lines, painter);
+            }
+            return;
+        }
+        int guess = lineStates[first] != UNKNOWN_STATE ? lineStates[first] : LineLexer.INITIAL_STATE;
+        paintLines(first, end, guess, lines, painter);
+    }
+    
+    public boolean isComplete() {
+        return frontier >= lineCount;
+    }
+    
+    public int getLineCount() {
+        return lineCount;
+    }
+    
+    /**
+     * Lexes lines {@code [from, to)} starting in {@code state}, repainting the ones
+     * last painted with another start state.
+     * 
+     * @return the state at the end of the last line
+     */
+    private int paintLines(int from, int to, int state, IntFunction<? extends CharSequence> lines,
+                           Consumer<HighlightRange> painter) {
+        RangeBuilder run = null;
+        for (int line = from; line < to; line++) {
+            CharSequence text = lines.apply(line);
+            if (lineStates[line] == state) {
+                // Painted like this already, only the end state is needed
+                if (run != null) {
+                    painter.accept(run.build());
+                    run = null;
+                }
+                state = lexer.lexLine(text, state, IGNORE_TOKENS);
+                continue;
+            }
+            if (run == null) {
+                run = new RangeBuilder(line);
+            } else {
+                run.lineBreak();
+            }
+            lineStates[line] = state;
+            state = run.lexLine(text, state);
+        }
+        if (run != null) {
+            painter.accept(run.build());
+        }
+        return state;
+    }
+    
+    /**
+     * Replaces {@code removed} line states at {@code index} with {@code inserted} unknown ones.
+     */
+    private void splice(int index, int removed, int inserted) {
+        int newCount = lineCount - removed + inserted;
+        if (newCount > lineStates.length) {
+            lineStates = Arrays.copyOf(lineStates, Math.max(newCount, lineStates.length * 2));
+        }
+        System.arraycopy(lineStates, index + removed, lineStates, index + inserted, lineCount - index - removed);
+        Arrays.fill(lineStates, index, index + inserted, UNKNOWN_STATE);
+        lineCount = newCount;
+    }
+    
+    /**
+     * Turns the tokens of consecutive lines into style spans, unstyled between tokens.
+     */
+    private class RangeBuilder implements LineLexer.TokenSink {
+        private final StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+        private final int firstLine;
+        private int lines;
+        private int styledTo;
+        
+        RangeBuilder(int firstLine) {
+            this.firstLine = firstLine;
+        }
+        
+        int lexLine(CharSequence text, int state) {
+            styledTo = 0;
+            int endState = lexer.lexLine(text, state, this);
+            // Always add something so an empty line still gets a span
+            if (text.length() > styledTo || text.length() == 0) {
+                builder.add(Collections.emptyList(), text.length() - styledTo);
+            }
+            lines++;
+            return endState;
+        }
+        
+        /**
+         * The line break between the last line lexed and the next one.
+         */
+        void lineBreak() {
+            builder.add(Collections.emptyList(), 1);
+        }
+        
+        @Override
+        public void token(int start, int end, String styleClass) {
+            if (start > styledTo) {
+                builder.add(Collections.emptyList(), start - styledTo);
+            }
+            builder.add(styleOf(styleClass), end - start);
+            styledTo = end;
+        }
+        
+        HighlightRange build() {
+            return new HighlightRange(firstLine, firstLine + lines, builder.create());
+        }
+    }
+    
+    private static Collection<String> styleOf(String styleClass) {
+        switch (styleClass) {
+            case LineLexer.KEYWORD:
+                return KEYWORD_STYLE;
+            case LineLexer.STRING:
+                return STRING_STYLE;
+            default:
+                return COMMENT_STYLE;
+        }
+    }
+    
+    /**
+     * Spans for the lines {@code [firstLine, endLine)}, including the line breaks
+     * between them.
+     */
+    public static class HighlightRange {
+        private final int firstLine;
+        private final int endLine;
+        private final StyleSpans<Collection<String>> spans;
+        
+        HighlightRange(int firstLine, int endLine, StyleSpans<Collection<String>> spans) {
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+            this.spans = spans;
+        }
+        
+        public int getFirstLine() {
+            return firstLine;
+        }
+        
+        public int getEndLine() {
+            return endLine;
+        }
+        
+        public StyleSpans<Collection<String>> getSpans() {
+            return spans;
+        }
+    }
+}
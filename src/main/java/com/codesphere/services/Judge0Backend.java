@@ -0,0 +1,430 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.models.ResourceUsage;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs programs on a Judge0 server instead of this machine.
+ * 
+ * Nothing holds a connection open while a program runs. Runs submitted close
+ * together go out as one batch request, and the server's tokens are then polled
+ * in batches too, each run less often the longer it takes. All requests share
+ * one asynchronous HTTP client and its connections, so hundreds of runs in
+ * flight cost a handful of sockets and no threads.
+ * 
+ * The server is {@code codesphere.judge0.url} (default
+ * {@code http://localhost:2358}), with {@code codesphere.judge0.token} sent as
+ * its auth token if set. Judge0 returns output only once a run is over, so that
+ * is when the listener hears it. The processor time and memory limits are left
+ * to the server to enforce, and the result carries what it measured.
+ */
+public class Judge0Backend implements ExecutionBackend {
+    // Judge0's default limit on submissions per batch
+    public static final int BATCH_SIZE = 20;
+    
+    // How long a submission waits for others to share its batch
+    private static final long BATCH_WINDOW_MILLIS = 2;
+    private static final long FIRST_POLL_MILLIS = 20;
+    private static final long MAX_POLL_MILLIS = 1000;
+    // Allowed on top of the run's own timeout for queueing on the server
+    private static final long SERVER_GRACE_MILLIS = 60_000;
+    
+    private static final String FIELDS = "token,status,stdout,stderr,compile_output,message,exit_code,time,wall_time,memory";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    
+    private static Judge0Backend shared;
+    
+    private final URI server;
+    private final String authToken;
+    private final HttpClient client;
+    
+    // Runs and tokens are only touched on this thread
+    private final ScheduledExecutorService poller;
+    private final ConcurrentLinkedQueue<Run> unsent = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Run> submitted = new HashMap<>();
+    private ScheduledFuture<?> nextPoll;
+    private long nextPollNanos;
+    
+    public Judge0Backend(URI server, String authToken) {
+        this.server = server;
+        this.authToken = authToken;
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService io = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "judge0-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(io)
+                .build();
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "judge0-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Metrics.gauge("judge0.in_flight", inFlight::get);
+    }
+    
+    /**
+     * Whether a Judge0 server has been configured, in which case it runs every language.
+     */
+    public static boolean isConfigured() {
+        return System.getProperty("codesphere.judge0.url") != null;
+    }
+    
+    public static synchronized Judge0Backend shared() {
+        if (shared == null) {
+            shared = new Judge0Backend(URI.create(System.getProperty("codesphere.judge0.url", "http://localhost:2358")),
+                    System.getProperty("codesphere.judge0.token"));
+        }
+        return shared;
+    }
+    
+    @Override
+    public ExecutionResult execute(ExecutionRequest request, OutputListener output,
+                                   BackgroundComputeService.Cancellation cancellation) throws Exception {
+        Run run = new Run(request);
+        enqueue(run);
+        try {
+            while (true) {
+                try {
+                    ExecutionResult result = run.result.get(25, TimeUnit.MILLISECONDS);
+                    if (!result.getStdout().isEmpty()) output.output(result.getStdout(), false);
+                    if (!result.getStderr().isEmpty()) output.output(result.getStderr(), true);
+                    return result;
+                } catch (TimeoutException e) {
+                    cancellation.throwIfCancelled();
+                }
+            }
+        } catch (CancellationException e) {
+            // Judge0 only deletes submissions for admins; the run is just no longer polled
+            run.result.cancel(false);
+            throw e;
+        }
+    }
+    
+    /**
+     * Submits a run without waiting for it, for callers with many runs in flight.
+     */
+    public CompletableFuture<ExecutionResult> submit(ExecutionRequest request) {
+        Run run = new Run(request);
+        enqueue(run);
+        return run.result;
+    }
+    
+    private void enqueue(Run run) {
+        inFlight.incrementAndGet();
+        run.result.whenComplete((result, error) -> inFlight.decrementAndGet());
+        unsent.add(run);
+        if (flushScheduled.compareAndSet(false, true)) {
+            poller.schedule(this::flush, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Sends everything waiting, one batch request per {@link #BATCH_SIZE} runs.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        while (!unsent.isEmpty()) {
+            List<Run> batch = new ArrayList<>(BATCH_SIZE);
+            Run run;
+            while (batch.size() < BATCH_SIZE && (run = unsent.poll()) != null) {
+                if (!run.result.isDone()) batch.add(run);
+            }
+            if (batch.isEmpty()) continue;
+            Metrics.histogram("judge0.batch_size").record(batch.size());
+            
+            ObjectNode body = OBJECT_MAPPER.createObjectNode();
+            ArrayNode submissions = body.putArray("submissions");
+            for (Run each : batch) {
+                ObjectNode submission = submissions.addObject();
+                submission.put("language_id", languageId(each.request.getLanguage()));
+                submission.put("source_code", encode(each.request.getSource()));
+                submission.put("stdin", encode(each.request.getStdin()));
+                submission.put("cpu_time_limit", Math.min(each.request.getCpuLimitMillis(), each.request.getTimeoutMillis()) / 1000.0);
+                submission.put("wall_time_limit", each.request.getTimeoutMillis() / 1000.0);
+                submission.put("memory_limit", each.request.getMemoryLimitBytes() / 1024);
+            }
+            send(request("/submissions/batch?base64_encoded=true")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .build())
+                    .whenCompleteAsync((tokens, error) -> submitted(batch, tokens, error), poller);
+        }
+    }
+    
+    private void submitted(List<Run> batch, JsonNode tokens, Throwable error) {
+        for (int i = 0; i < batch.size(); i++) {
+            Run run = batch.get(i);
+            JsonNode token = tokens != null ? tokens.path(i).path("token") : null;
+            if (token == null || !token.isTextual()) {
+                // The whole request failed, or the server refused this submission
+                run.result.completeExceptionally(error != null ? error
+                        : new IOException("Judge0 refused the submission: " + tokens.path(i)));
+                continue;
+            }
+            run.token = token.asText();
+            run.pollAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FIRST_POLL_MILLIS);
+            submitted.put(run.token, run);
+        }
+        schedulePoll();
+    }
+    
+    /**
+     * Asks about every run that is due, in batches, and backs off the ones still running.
+     */
+    private void poll() {
+        nextPoll = null;
+        long now = System.nanoTime();
+        List<Run> due = new ArrayList<>();
+        for (Iterator<Run> runs = submitted.values().iterator(); runs.hasNext(); ) {
+            Run run = runs.next();
+            if (run.result.isDone()) {
+                runs.remove();
+            } else if (now - run.deadlineNanos > 0) {
+                runs.remove();
+                run.result.complete(new ExecutionResult(ExecutionResult.Status.TIMED_OUT, "", "Judge0 did not answer in time\n",
+                        -1, 0, TimeUnit.NANOSECONDS.toMillis(now - run.submittedNanos)));
+            } else if (!run.polling && now - run.pollAtNanos >= 0) {
+                due.add(run);
+            }
+        }
+        for (int from = 0; from < due.size(); from += BATCH_SIZE) {
+            List<Run> batch = due.subList(from, Math.min(due.size(), from + BATCH_SIZE));
+            StringBuilder tokens = new StringBuilder();
+            for (Run run : batch) {
+                if (tokens.length() > 0) tokens.append(',');
+                tokens.append(run.token);
+                run.polling = true;
+            }
+            Metrics.counter("judge0.polls").increment();
+            send(request("/submissions/batch?base64_encoded=true&fields=" + FIELDS + "&tokens=" + tokens).GET().build())
+                    .whenCompleteAsync((answer, error) -> polled(batch, answer, error), poller);
+        }
+        schedulePoll();
+    }
+    
+    private void polled(List<Run> batch, JsonNode answer, Throwable error) {
+        Map<String, JsonNode> byToken = new HashMap<>();
+        if (answer != null) {
+            for (JsonNode submission : answer.path("submissions")) {
+                byToken.put(submission.path("token").asText(), submission);
+            }
+        }
+        long now = System.nanoTime();
+        for (Run run : batch) {
+            run.polling = false;
+            JsonNode submission = byToken.get(run.token);
+            int status = submission != null ? submission.path("status").path("id").asInt() : 0;
+            if (status > 2) {
+                submitted.remove(run.token);
+                Metrics.histogram("judge0.turnaround_us").record((now - run.submittedNanos) / 1000);
+                try {
+                    ExecutionResult result = limitOutput(result(submission, status, run.request), run.request.getOutputLimitBytes());
+                    UsageMetrics.record("judge0", result.getUsage());
+                    run.result.complete(result);
+                } catch (IOException e) {
+                    run.result.completeExceptionally(e);
+                }
+            } else {
+                // Still queued or running (or the poll failed): ask again later, less often
+                run.pollIntervalMillis = Math.min(MAX_POLL_MILLIS, run.pollIntervalMillis * 2);
+                run.pollAtNanos = now + TimeUnit.MILLISECONDS.toNanos(run.pollIntervalMillis);
+            }
+        }
+        if (error != null) {
+            error.printStackTrace();
+        }
+        schedulePoll();
+    }
+    
+    /**
+     * Wakes the poller for the earliest run due, unless it is already set to wake sooner.
+     */
+    private void schedulePoll() {
+        long earliest = Long.MAX_VALUE;
+        boolean any = false;
+        for (Run run : submitted.values()) {
+            if (run.polling) continue;
+            if (!any || run.pollAtNanos - earliest < 0) {
+                earliest = run.pollAtNanos;
+                any = true;
+            }
+        }
+        if (!any) return;
+        if (nextPoll != null) {
+            if (nextPollNanos - earliest <= 0) return;
+            nextPoll.cancel(false);
+        }
+        nextPollNanos = earliest;
+        nextPoll = poller.schedule(this::poll, Math.max(0, earliest - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+    
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(server.resolve(path)).timeout(Duration.ofSeconds(30));
+        if (authToken != null) {
+            builder.header("X-Auth-Token", authToken);
+        }
+        return builder;
+    }
+    
+    private CompletableFuture<JsonNode> send(HttpRequest request) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException("Judge0 answered " + response.statusCode() + ": " + response.body());
+            }
+            try {
+                return OBJECT_MAPPER.readTree(response.body());
+            } catch (IOException e) {
+                throw new IllegalStateException("Judge0 answered with invalid JSON", e);
+            }
+        });
+    }
+    
+    /**
+     * What Judge0 measured: "time" is processor time and "memory" the peak
+     * resident set in kilobytes.
+     */
+    private static ResourceUsage usage(JsonNode submission, String stdout, String stderr) {
+        JsonNode time = submission.path("time");
+        JsonNode wallTime = submission.path("wall_time");
+        JsonNode memory = submission.path("memory");
+        // Times come as strings of seconds
+        long cpuMillis = time.isValueNode() && !time.isNull() ? Math.round(time.asDouble() * 1000) : ResourceUsage.UNKNOWN;
+        long wallMillis = wallTime.isValueNode() && !wallTime.isNull() ? Math.round(wallTime.asDouble() * 1000) : Math.max(0, cpuMillis);
+        long memoryBytes = memory.isNumber() ? memory.asLong() * 1024 : ResourceUsage.UNKNOWN;
+        return new ResourceUsage(wallMillis, cpuMillis, memoryBytes,
+                stdout.getBytes(StandardCharsets.UTF_8).length + stderr.getBytes(StandardCharsets.UTF_8).length);
+    }
+    
+    private static ExecutionResult result(JsonNode submission, int status, ExecutionRequest request) throws IOException {
+        String stdout = decode(submission.path("stdout"));
+        String stderr = decode(submission.path("stderr"));
+        int exitCode = submission.path("exit_code").isInt() ? submission.path("exit_code").asInt() : -1;
+        ResourceUsage usage = usage(submission, stdout, stderr);
+        switch (status) {
+            case 3:
+            case 4:
+                return new ExecutionResult(ExecutionResult.Status.COMPLETED, stdout, stderr, Math.max(0, exitCode), 0, usage);
+            case 5:
+                // One status for both time limits; the processor time tells which it was
+                return new ExecutionResult(usage.getCpuMillis() >= request.getCpuLimitMillis()
+                        ? ExecutionResult.Status.CPU_LIMIT_EXCEEDED : ExecutionResult.Status.TIMED_OUT,
+                        stdout, stderr, -1, 0, usage);
+            case 6:
+                return ExecutionResult.compileError(decode(submission.path("compile_output")), 0);
+            case 8:
+                // SIGXFSZ: the output went over the server's file size limit
+                return new ExecutionResult(ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED, stdout, stderr, -1, 0, usage);
+            case 7:
+            case 9:
+            case 10:
+            case 11:
+            case 12:
+                String message = decode(submission.path("message"));
+                // Running out of memory kills the program with a signal like any other crash
+                boolean outOfMemory = usage.getPeakMemoryBytes() >= request.getMemoryLimitBytes();
+                return new ExecutionResult(outOfMemory ? ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED : ExecutionResult.Status.RUNTIME_ERROR,
+                        stdout, message.isEmpty() ? stderr : stderr + message + "\n", exitCode, 0, usage);
+            default:
+                // Internal or exec format error: a problem with the server, not the program
+                throw new IOException("Judge0 could not run the program: "
+                        + submission.path("status").path("description").asText() + " " + decode(submission.path("message")));
+        }
+    }
+    
+    /**
+     * Cuts the output to the request's quota, which Judge0 does not enforce.
+     */
+    private static ExecutionResult limitOutput(ExecutionResult result, int limit) {
+        byte[] stdout = result.getStdout().getBytes(StandardCharsets.UTF_8);
+        byte[] stderr = result.getStderr().getBytes(StandardCharsets.UTF_8);
+        if (stdout.length <= limit && stderr.length <= limit) return result;
+        return new ExecutionResult(ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED,
+                truncate(stdout, limit), truncate(stderr, limit), -1, result.getCompileMillis(), result.getUsage());
+    }
+    
+    private static String truncate(byte[] text, int limit) {
+        if (text.length <= limit) return new String(text, StandardCharsets.UTF_8);
+        return new String(text, 0, limit, StandardCharsets.UTF_8) + "\n[output truncated]\n";
+    }
+    
+    private static int languageId(EditorLanguage language) {
+        switch (language) {
+            case JAVA:
+                return 62;
+            case PYTHON:
+                return 71;
+            case CPP:
+                return 54;
+            case JAVASCRIPT:
+                return 63;
+            default:
+                throw new IllegalArgumentException("No Judge0 language for " + language);
+        }
+    }
+    
+    private static String encode(String text) {
+        return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String decode(JsonNode field) {
+        if (!field.isTextual()) return "";
+        // Judge0 wraps base64 at 60 characters
+        return new String(Base64.getMimeDecoder().decode(field.asText()), StandardCharsets.UTF_8);
+    }
+    
+    private static final class Run {
+        final ExecutionRequest request;
+        final CompletableFuture<ExecutionResult> result = new CompletableFuture<>();
+        final long submittedNanos = System.nanoTime();
+        final long deadlineNanos;
+        
+        // Set and read on the poller thread
+        String token;
+        long pollAtNanos;
+        long pollIntervalMillis = FIRST_POLL_MILLIS;
+        boolean polling;
+        
+        Run(ExecutionRequest request) {
+            this.request = request;
+            this.deadlineNanos = submittedNanos + TimeUnit.MILLISECONDS.toNanos(request.getTimeoutMillis() + SERVER_GRACE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.codesphere.services;
+
+/**
+ * Lexer that highlights a document one line at a time. Everything a line needs
+ * from the lines before it (an open block comment, a triple-quoted string) is
+ * carried in an int state, so a line can be re-lexed on its own.
+ */
+public interface LineLexer {
+    /** State at the start of the document and after any complete token */
+    int INITIAL_STATE = 0;
+    
+    String KEYWORD = "keyword";
+    String STRING = "string";
+    String COMMENT = "comment";
+    
+    /**
+     * Reports the styled tokens of a line, in order and without overlaps.
+     * 
+     * @param line  text of the line without its line break
+     * @param state state at the end of the previous line
+     * @return state at the end of this line
+     */
+    int lexLine(CharSequence line, int state, TokenSink sink);
+    
+    interface TokenSink {
+        /**
+         * @param start      offset of the token in the line
+         * @param end        offset just past the token
+         * @param styleClass one of {@link #KEYWORD}, {@link #STRING} or {@link #COMMENT}
+         */
+        void token(int start, int end, String styleClass);
+    }
+}
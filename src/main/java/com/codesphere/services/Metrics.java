@@ -0,0 +1,115 @@
+package com.codesphere.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of counters, gauges and histograms for the editor's hot paths
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    
+    private Metrics() {
+    }
+    
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+    
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+    }
+    
+    /**
+     * Registers a value sampled when the report is taken, replacing any gauge of the same name.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+    
+    public static void removeGauge(String name) {
+        GAUGES.remove(name);
+    }
+    
+    /**
+     * One line per metric, sorted by name.
+     */
+    public static String report() {
+        Map<String, String> lines = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> lines.put(name, Long.toString(counter.sum())));
+        GAUGES.forEach((name, gauge) -> lines.put(name, Long.toString(gauge.getAsLong())));
+        HISTOGRAMS.forEach((name, histogram) -> lines.put(name, histogram.toString()));
+        
+        StringBuilder report = new StringBuilder();
+        lines.forEach((name, value) -> report.append(name).append(' ').append(value).append('\n'));
+        return report.toString();
+    }
+    
+    /**
+     * Lock-free histogram with power-of-two buckets, precise enough for
+     * latencies and sizes spanning several orders of magnitude.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+        
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private volatile long max;
+        
+        public void record(long value) {
+            long v = Math.max(0, value);
+            // Bucket i holds values in [2^(i-1), 2^i - 1], bucket 0 holds zero
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+            count.increment();
+            sum.add(v);
+            if (v > max) {
+                max = v;
+            }
+        }
+        
+        public long count() {
+            return count.sum();
+        }
+        
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+        
+        public long max() {
+            return max;
+        }
+        
+        /**
+         * Upper bound of the bucket holding the given percentile (0-100).
+         */
+        public long percentile(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+                    count(), mean(), percentile(50), percentile(99), max());
+        }
+    }
+}
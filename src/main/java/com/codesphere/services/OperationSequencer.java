@@ -0,0 +1,155 @@
+package com.codesphere.services;
+
+import com.codesphere.models.DocumentModel;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Server side of the operational transform: gives every change in a room a
+ * sequence number and transforms late changes against the ones ordered before them.
+ * 
+ * Every {@code snapshotInterval} changes the document is checkpointed and the log
+ * is truncated to the {@code logRetention} changes before the checkpoint, so memory
+ * stays bounded however long the room lives. Joining sessions receive the last
+ * checkpoint plus the changes after it; clients based on a revision older than
+ * the log have to start over from such a snapshot.
+ */
+public class OperationSequencer {
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1_000;
+    public static final int DEFAULT_LOG_RETENTION = 10_000;
+    
+    private final DocumentModel document;
+    private final int snapshotInterval;
+    private final int logRetention;
+    private long revision;
+    
+    // Changes after logStartRevision; log.get(i) produced revision logStartRevision + i + 1
+    private final List<EditorChange> log = new ArrayList<>();
+    private long logStartRevision;
+    
+    // Last checkpoint, materialized to a string on the first join that needs it
+    private long checkpointRevision;
+    private CharSequence checkpoint = "";
+    private String checkpointText;
+    
+    // Last revision each session got sequenced, so reconnecting clients learn whether their change arrived
+    private final Map<Integer, Long> sessionRevisions = new HashMap<>();
+    
+    public OperationSequencer(DocumentModel document) {
+        this(document, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_LOG_RETENTION);
+    }
+    
+    /**
+     * @param snapshotInterval number of changes between two checkpoints of the document
+     * @param logRetention     number of changes kept from before the last checkpoint,
+     *                         which bounds how far back a client can resume
+     */
+    public OperationSequencer(DocumentModel document, int snapshotInterval, int logRetention) {
+        this.document = document;
+        this.snapshotInterval = snapshotInterval;
+        this.logRetention = logRetention;
+    }
+    
+    /**
+     * Orders a change sent by a client whose revision field holds the last
+     * revision that client had seen.
+     * 
+     * @return the change as applied to the room document, carrying its sequence number
+     */
+    public synchronized EditorChange receive(EditorChange change) {
+        long baseRevision = change.getRevision();
+        if (baseRevision < logStartRevision || baseRevision > revision) {
+            throw new IllegalStateException("Change based on revision " + baseRevision
+                    + " but the room keeps revisions " + logStartRevision + " to " + revision);
+        }
+        
+        // Changes ordered since the client's base revision win ties
+        EditorChange transformed = change.copy();
+        for (long r = baseRevision; r < revision; r++) {
+            transformed = transformed.transform(log.get((int) (r - logStartRevision)), false);
+        }
+        
+        document.apply(transformed);
+        transformed.setRevision(++revision);
+        log.add(transformed);
+        sessionRevisions.put(transformed.getSessionId(), revision);
+        
+        if (revision - checkpointRevision >= snapshotInterval) {
+            checkpoint();
+        }
+        return transformed;
+    }
+    
+    private void checkpoint() {
+        checkpointRevision = revision;
+        checkpoint = document.snapshot();
+        checkpointText = null;
+        
+        long keepFrom = Math.max(logStartRevision, checkpointRevision - logRetention);
+        if (keepFrom > logStartRevision) {
+            log.subList(0, (int) (keepFrom - logStartRevision)).clear();
+            logStartRevision = keepFrom;
+        }
+        Metrics.counter("room.checkpoints").increment();
+    }
+    
+    /**
+     * Returns the changes sequenced after the given revision, oldest first, or null
+     * if some of them have already been truncated from the log.
+     */
+    public synchronized List<EditorChange> changesSince(long sinceRevision) {
+        if (sinceRevision < logStartRevision || sinceRevision > revision) {
+            return null;
+        }
+        return new ArrayList<>(log.subList((int) (sinceRevision - logStartRevision), log.size()));
+    }
+    
+    /**
+     * Oldest revision a client can still base a change on or resume from.
+     */
+    public synchronized long getOldestRevision() {
+        return logStartRevision;
+    }
+    
+    /**
+     * Returns the revision of the last change sequenced for a session, 0 if none.
+     */
+    public synchronized long getSessionRevision(int sessionId) {
+        return sessionRevisions.getOrDefault(sessionId, 0L);
+    }
+    
+    public synchronized long getRevision() {
+        return revision;
+    }
+    
+    /**
+     * The last checkpoint and the changes sequenced since, which together give the
+     * document at the current revision.
+     */
+    public synchronized DocumentSnapshot snapshot() {
+        if (checkpointText == null) {
+            checkpointText = checkpoint.toString();
+        }
+        return new DocumentSnapshot(checkpointRevision, checkpointText, changesSince(checkpointRevision));
+    }
+    
+    /**
+     * Replaces the content of a room nobody has edited yet.
+     * 
+     * @return whether the room was still empty and got seeded
+     */
+    public synchronized boolean seed(String text) {
+        if (revision > 0 || document.length() > 0) {
+            return false;
+        }
+        document.replace(0, 0, text);
+        checkpoint = document.snapshot();
+        checkpointText = null;
+        return true;
+    }
+}
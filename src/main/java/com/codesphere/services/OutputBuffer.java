@@ -0,0 +1,139 @@
+package com.codesphere.services;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Output on its way from a running program to the screen: a ring of characters
+ * the program's side writes into and the UI drains once per frame. When the UI
+ * falls behind the oldest output is dropped, so a program printing without end
+ * costs a fixed amount of memory and never waits for the screen.
+ */
+public class OutputBuffer implements OutputListener {
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    
+    private final char[] ring;
+    private int head;
+    private int size;
+    
+    // Lengths of the stretches of text from each stream, oldest first; only changes of stream add one
+    private final ArrayDeque<Run> runs = new ArrayDeque<>();
+    private long dropped;
+    
+    public OutputBuffer(int capacity) {
+        ring = new char[capacity];
+    }
+    
+    @Override
+    public synchronized void output(String text, boolean error) {
+        // Of a write longer than the whole ring only the end fits
+        int skip = Math.max(0, text.length() - ring.length);
+        int length = text.length() - skip;
+        dropped += skip;
+        if (size + length > ring.length) {
+            dropOldest(size + length - ring.length);
+        }
+        
+        int tail = (head + size) % ring.length;
+        int first = Math.min(length, ring.length - tail);
+        text.getChars(skip, skip + first, ring, tail);
+        text.getChars(skip + first, skip + length, ring, 0);
+        size += length;
+        
+        Run last = runs.peekLast();
+        if (last != null && last.error == error) {
+            last.length += length;
+        } else if (length > 0) {
+            runs.addLast(new Run(length, error));
+        }
+    }
+    
+    /**
+     * Takes everything written since the last call.
+     * 
+     * @return null if nothing was written or dropped
+     */
+    public synchronized Drained drain() {
+        if (size == 0 && dropped == 0) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder(size);
+        int first = Math.min(size, ring.length - head);
+        text.append(ring, head, first).append(ring, 0, size - first);
+        
+        int[] errorRanges = new int[runs.size() * 2];
+        int ranges = 0;
+        int position = 0;
+        for (Run run : runs) {
+            if (run.error) {
+                errorRanges[ranges++] = position;
+                errorRanges[ranges++] = position + run.length;
+            }
+            position += run.length;
+        }
+        Drained drained = new Drained(text.toString(), Arrays.copyOf(errorRanges, ranges), dropped);
+        head = 0;
+        size = 0;
+        runs.clear();
+        dropped = 0;
+        return drained;
+    }
+    
+    private void dropOldest(int count) {
+        head = (head + count) % ring.length;
+        size -= count;
+        dropped += count;
+        while (count > 0) {
+            Run oldest = runs.peekFirst();
+            int removed = Math.min(count, oldest.length);
+            oldest.length -= removed;
+            count -= removed;
+            if (oldest.length == 0) {
+                runs.removeFirst();
+            }
+        }
+    }
+    
+    private static final class Run {
+        int length;
+        final boolean error;
+        
+        Run(int length, boolean error) {
+            this.length = length;
+            this.error = error;
+        }
+    }
+    
+    /**
+     * Output taken from the buffer in one go.
+     */
+    public static final class Drained {
+        private final String text;
+        private final int[] errorRanges;
+        private final long dropped;
+        
+        Drained(String text, int[] errorRanges, long dropped) {
+            this.text = text;
+            this.errorRanges = errorRanges;
+            this.dropped = dropped;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        /**
+         * Start and end offsets into the text of what went to standard error, in pairs.
+         */
+        public int[] getErrorRanges() {
+            return errorRanges;
+        }
+        
+        /**
+         * Characters dropped before this text because the UI fell behind.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+    }
+}
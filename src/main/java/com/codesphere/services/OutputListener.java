@@ -0,0 +1,16 @@
+package com.codesphere.services;
+
+/**
+ * Receives a program's output while it runs.
+ */
+public interface OutputListener {
+    OutputListener NONE = (text, error) -> { };
+    
+    /**
+     * Called with each piece of output as soon as it is read, on whichever thread
+     * read it; must not block.
+     * 
+     * @param error whether the text went to standard error
+     */
+    void output(String text, boolean error);
+}
@@ -0,0 +1,503 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorLanguage;
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.models.ResourceUsage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs Python, JavaScript and C++ programs as child processes of the editor.
+ * 
+ * Interpreters are started ahead of time: each language keeps a few standby
+ * processes running a small harness that blocks until it is handed a program on
+ * standard input, followed by the program's own input. Taking one starts its
+ * replacement in the background, so interpreter start-up is never on the path
+ * from Run to output. A standby process runs one program and exits rather than
+ * being reused, so no state carries over from one user's program to the next.
+ * C++ has nothing to start ahead, but precompiles the standard headers once;
+ * g++ then uses them whenever a program starts with one of them, and binaries
+ * are kept in the {@link CompilationCache}.
+ * 
+ * Every run gets a wall-clock timeout and limits on its processor time, memory
+ * and output, past which the process and everything it started are killed, and
+ * no more than a fixed number of programs run at once. What a run used is read
+ * from the system while it runs, see {@link ProcessStats}. The interpreters and
+ * compiler are found on the path, or given by the {@code codesphere.python},
+ * {@code codesphere.node} and {@code codesphere.cxx} system properties.
+ */
+public class ProcessPoolBackend implements ExecutionBackend {
+    /** Standby interpreters kept per language */
+    public static final int STANDBY_PROCESSES = 2;
+    
+    private static final long POLL_MILLIS = 5;
+    // The compiler is trusted with processor time and memory, only not with forever
+    private static final ExecutionRequest COMPILER_LIMITS = new ExecutionRequest(EditorLanguage.CPP, "", "",
+            30_000, 64 * 1024, Long.MAX_VALUE, Long.MAX_VALUE);
+    
+    private static final String PYTHON = System.getProperty("codesphere.python", "python3");
+    private static final String NODE = System.getProperty("codesphere.node", "node");
+    private static final String CXX = System.getProperty("codesphere.cxx", "g++");
+    private static final List<String> CXX_FLAGS = Arrays.asList("-std=c++17", "-O2", "-pipe");
+    
+    // Headers precompiled for programs that start by including them
+    private static final String[] PRECOMPILED_HEADERS = {"bits/stdc++.h", "iostream"};
+    
+    // Reads "<length>\n<source>" from stdin, leaving the rest of stdin to the program
+    private static final String PYTHON_HARNESS = String.join("\n",
+            "import sys, traceback",
+            "header = sys.stdin.buffer.readline()",
+            "if not header:",
+            "    sys.exit(0)",
+            "source = sys.stdin.buffer.read(int(header)).decode('utf-8')",
+            "sys.argv = ['main.py']",
+            "try:",
+            "    exec(compile(source, 'main.py', 'exec'), {'__name__': '__main__', '__builtins__': __builtins__})",
+            "except SystemExit:",
+            "    raise",
+            "except BaseException:",
+            "    kind, value, trace = sys.exc_info()",
+            "    traceback.print_exception(kind, value, trace.tb_next)",
+            "    sys.exit(1)");
+    
+    // Reads the header byte by byte so nothing of the program's input is buffered away from
+    // process.stdin, and reports uncaught errors without the harness's own frames
+    private static final String NODE_HARNESS = String.join("\n",
+            "const fs = require('fs');",
+            "const one = Buffer.alloc(1);",
+            "let header = '';",
+            "while (fs.readSync(0, one, 0, 1) === 1 && one[0] !== 10) header += String.fromCharCode(one[0]);",
+            "if (header === '') process.exit(0);",
+            "const source = Buffer.alloc(Number(header));",
+            "for (let read = 0, n; read < source.length; read += n) {",
+            "    n = fs.readSync(0, source, read, source.length - read);",
+            "    if (n === 0) break;",
+            "}",
+            "process.on('uncaughtException', error => {",
+            "    const stack = String(error && error.stack || error).split('\\n');",
+            "    process.stderr.write(stack.filter(line => !/^\\s+at .*(\\[eval\\]|node:internal)/.test(line)).join('\\n') + '\\n');",
+            "    process.exit(1);",
+            "});",
+            "const main = { exports: {} };",
+            "require('vm').compileFunction(source.toString('utf8'),",
+            "    ['exports', 'require', 'module', '__filename', '__dirname'], { filename: 'main.js' })",
+            "    (main.exports, require, main, 'main.js', '.');");
+    
+    private static final ProcessPoolBackend SHARED =
+            new ProcessPoolBackend(Math.max(1, Runtime.getRuntime().availableProcessors()), CompilationCache.shared());
+    
+    // Spawns standby processes, feeds programs their input and builds headers; all of it blocking I/O
+    private static final ExecutorService IO = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "process-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final Semaphore runSlots;
+    private final Map<EditorLanguage, StandbyPool> standby = new EnumMap<>(EditorLanguage.class);
+    private final CompilationCache cache;
+    private final AtomicInteger jobs = new AtomicInteger();
+    private Path workspace;
+    private boolean headersRequested;
+    private volatile Path precompiledHeaders;
+    private String compilerVersion;
+    
+    public ProcessPoolBackend(int maxConcurrentRuns, CompilationCache cache) {
+        this.cache = cache;
+        runSlots = new Semaphore(maxConcurrentRuns, true);
+        standby.put(EditorLanguage.PYTHON, new StandbyPool(EditorLanguage.PYTHON,
+                Arrays.asList(PYTHON, "-u", "-c", PYTHON_HARNESS)));
+        standby.put(EditorLanguage.JAVASCRIPT, new StandbyPool(EditorLanguage.JAVASCRIPT,
+                Arrays.asList(NODE, "-e", NODE_HARNESS)));
+        Metrics.gauge("execution.process.running", () -> maxConcurrentRuns - runSlots.availablePermits());
+    }
+    
+    /**
+     * The process-wide backend, running as many programs at once as there are cores.
+     */
+    public static ProcessPoolBackend shared() {
+        return SHARED;
+    }
+    
+    /**
+     * Gets a language ready in the background: starts its standby interpreters,
+     * or precompiles the C++ headers the first time.
+     */
+    public void warmUp(EditorLanguage language) {
+        if (language == EditorLanguage.CPP) {
+            synchronized (this) {
+                if (headersRequested) return;
+                headersRequested = true;
+            }
+            IO.execute(this::precompileHeaders);
+            return;
+        }
+        StandbyPool pool = standby.get(language);
+        if (pool != null) {
+            pool.refill();
+        }
+    }
+    
+    @Override
+    public ExecutionResult execute(ExecutionRequest request, OutputListener output,
+                                   BackgroundComputeService.Cancellation cancellation) throws Exception {
+        // Wait for a free slot, still giving up if the run is superseded
+        while (!runSlots.tryAcquire(POLL_MILLIS * 10, TimeUnit.MILLISECONDS)) {
+            cancellation.throwIfCancelled();
+        }
+        try {
+            if (request.getLanguage() == EditorLanguage.CPP) {
+                return compileAndRun(request, output, cancellation);
+            }
+            StandbyPool pool = standby.get(request.getLanguage());
+            if (pool == null) {
+                throw new IllegalArgumentException("No process backend for " + request.getLanguage());
+            }
+            byte[] source = request.getSource().getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream input = new ByteArrayOutputStream(source.length + request.getStdin().length() + 16);
+            input.write((source.length + "\n").getBytes(StandardCharsets.US_ASCII));
+            input.write(source);
+            input.write(request.getStdin().getBytes(StandardCharsets.UTF_8));
+            
+            String name = request.getLanguage().name().toLowerCase();
+            ExecutionResult result = run(pool.take(), input.toByteArray(), request, output, 0, cancellation);
+            record(name, result);
+            return result;
+        } finally {
+            runSlots.release();
+        }
+    }
+    
+    @Override
+    public ExecutionResult prepare(ExecutionRequest request, BackgroundComputeService.Cancellation cancellation) throws Exception {
+        if (request.getLanguage() != EditorLanguage.CPP) return null;
+        Path directory = Files.createTempDirectory(workspace(), "cpp-" + jobs.incrementAndGet() + "-");
+        try {
+            ExecutionResult compiled = binary(directory, request.getSource(), cancellation);
+            return compiled.getStatus() == ExecutionResult.Status.COMPLETED ? null : compiled;
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+    
+    private ExecutionResult compileAndRun(ExecutionRequest request, OutputListener output,
+                                          BackgroundComputeService.Cancellation cancellation) throws Exception {
+        Path directory = Files.createTempDirectory(workspace(), "cpp-" + jobs.incrementAndGet() + "-");
+        try {
+            ExecutionResult compiled = binary(directory, request.getSource(), cancellation);
+            if (compiled.getStatus() != ExecutionResult.Status.COMPLETED) {
+                return compiled;
+            }
+            
+            Process program = start(new ProcessBuilder(directory.resolve("main").toString()).directory(directory.toFile()));
+            ExecutionResult result = run(program, request.getStdin().getBytes(StandardCharsets.UTF_8), request,
+                    output, compiled.getCompileMillis(), cancellation);
+            record("cpp", result);
+            return result;
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+    
+    /**
+     * Puts the program's binary in the directory as {@code main}, from the cache
+     * if it is there. A completed result carries the compile time.
+     */
+    private ExecutionResult binary(Path directory, String source, BackgroundComputeService.Cancellation cancellation)
+            throws Exception {
+        Path binary = directory.resolve("main");
+        String key = CompilationCache.key("cpp", compilerVersion(), String.join(" ", CXX_FLAGS), source);
+        Map<String, byte[]> cached = cache.get(key);
+        if (cached != null) {
+            Files.write(binary, cached.get("main"));
+            binary.toFile().setExecutable(true);
+            return new ExecutionResult(ExecutionResult.Status.COMPLETED, "", "", 0, 0, 0);
+        }
+        ExecutionResult compiled = compile(directory, source, cancellation);
+        if (compiled.getStatus() == ExecutionResult.Status.COMPLETED) {
+            cache.put(key, Collections.singletonMap("main", Files.readAllBytes(binary)));
+        }
+        return compiled;
+    }
+    
+    /**
+     * Compiles {@code main.cpp} in the directory into {@code main}.
+     * 
+     * @return a COMPILE_ERROR result with the diagnostics, or a COMPLETED one with the compile time
+     */
+    private ExecutionResult compile(Path directory, String source, BackgroundComputeService.Cancellation cancellation)
+            throws IOException, InterruptedException {
+        Files.write(directory.resolve("main.cpp"), source.getBytes(StandardCharsets.UTF_8));
+        List<String> command = new ArrayList<>();
+        command.add(CXX);
+        command.addAll(CXX_FLAGS);
+        Path headers = precompiledHeaders;
+        if (headers != null) {
+            command.add("-I");
+            command.add(headers.toString());
+        }
+        command.addAll(Arrays.asList("-o", "main", "main.cpp"));
+        
+        Process compiler = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+        ExecutionResult compiled = run(compiler, new byte[0], COMPILER_LIMITS, OutputListener.NONE, 0, cancellation);
+        Metrics.histogram("execution.cpp.compile_us").record(compiled.getRunMillis() * 1000);
+        if (compiled.getStatus() != ExecutionResult.Status.COMPLETED) {
+            String diagnostics = compiled.getStatus() == ExecutionResult.Status.TIMED_OUT
+                    ? compiled.getStdout() + "error: compilation timed out\n"
+                    : compiled.getStdout();
+            return ExecutionResult.compileError(diagnostics, compiled.getRunMillis());
+        }
+        return new ExecutionResult(ExecutionResult.Status.COMPLETED, "", "", 0, compiled.getRunMillis(), 0);
+    }
+    
+    /**
+     * The compiler's version line, part of every cache key so that a new compiler
+     * does not run binaries from an old one.
+     */
+    private synchronized String compilerVersion() throws IOException, InterruptedException {
+        if (compilerVersion == null) {
+            Process process = new ProcessBuilder(CXX, "--version").redirectErrorStream(true).start();
+            ExecutionResult version = run(process, new byte[0], COMPILER_LIMITS, OutputListener.NONE, 0, () -> false);
+            compilerVersion = CXX + " " + version.getStdout().split("\n", 2)[0];
+        }
+        return compilerVersion;
+    }
+    
+    /**
+     * Starts a process, retrying while its binary is still open for writing in a
+     * process forked at the same time ("Text file busy").
+     */
+    private static Process start(ProcessBuilder builder) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return builder.start();
+            } catch (IOException e) {
+                if (attempt == 5 || e.getMessage() == null || !e.getMessage().contains("Text file busy")) {
+                    throw e;
+                }
+                Thread.sleep(attempt * 5L);
+            }
+        }
+    }
+    
+    private static void record(String name, ExecutionResult result) {
+        Metrics.histogram("execution." + name + ".run_us").record(result.getRunMillis() * 1000);
+        UsageMetrics.record("execution." + name, result.getUsage());
+        if (result.getStatus() != ExecutionResult.Status.COMPLETED && result.getStatus() != ExecutionResult.Status.RUNTIME_ERROR) {
+            Metrics.counter("execution." + name + "." + result.getStatus().name().toLowerCase()).increment();
+        }
+    }
+    
+    /**
+     * Feeds a started process its input and collects its output, passing it on as
+     * it is read, until the process exits or goes over one of the request's limits;
+     * only the request's limits are used. The process and its descendants are
+     * killed unless they exited by themselves.
+     */
+    private static ExecutionResult run(Process process, byte[] input, ExecutionRequest limits, OutputListener output,
+                                       long compileMillis, BackgroundComputeService.Cancellation cancellation)
+            throws IOException, InterruptedException {
+        // Before the program gets its input, so a standby interpreter's start-up is not counted
+        ProcessStats stats = new ProcessStats(process.toHandle());
+        long start = System.nanoTime();
+        long deadline = start + limits.getTimeoutMillis() * 1_000_000;
+        // Written from another thread: a program that does not read its input must not block the run
+        IO.execute(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(input);
+            } catch (IOException e) {
+                // The program exited without reading all of it
+            }
+        });
+        
+        BoundedOutput stdout = new BoundedOutput(limits.getOutputLimitBytes(), StandardCharsets.UTF_8, output, false);
+        BoundedOutput stderr = new BoundedOutput(limits.getOutputLimitBytes(), StandardCharsets.UTF_8, output, true);
+        byte[] buffer = new byte[8192];
+        ExecutionResult.Status ending = null;
+        try {
+            while (ending == null) {
+                stats.sample();
+                boolean exited = process.waitFor(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                drain(process.getInputStream(), stdout, buffer);
+                drain(process.getErrorStream(), stderr, buffer);
+                if (exited) {
+                    ending = process.exitValue() == 0 ? ExecutionResult.Status.COMPLETED : ExecutionResult.Status.RUNTIME_ERROR;
+                } else if (stdout.isTruncated() || stderr.isTruncated()) {
+                    ending = ExecutionResult.Status.OUTPUT_LIMIT_EXCEEDED;
+                } else if (stats.getCpuMillis() > limits.getCpuLimitMillis()) {
+                    ending = ExecutionResult.Status.CPU_LIMIT_EXCEEDED;
+                } else if (stats.getPeakMemoryBytes() > limits.getMemoryLimitBytes()) {
+                    ending = ExecutionResult.Status.MEMORY_LIMIT_EXCEEDED;
+                } else if (System.nanoTime() - deadline > 0) {
+                    ending = ExecutionResult.Status.TIMED_OUT;
+                } else {
+                    cancellation.throwIfCancelled();
+                }
+            }
+        } finally {
+            if (process.isAlive()) {
+                kill(process);
+            }
+        }
+        long runMillis = (System.nanoTime() - start) / 1_000_000;
+        int exitCode = process.exitValue();
+        if (ending != ExecutionResult.Status.COMPLETED && ending != ExecutionResult.Status.RUNTIME_ERROR) {
+            exitCode = -1;
+        }
+        ResourceUsage usage = new ResourceUsage(runMillis, stats.getCpuMillis(), stats.getPeakMemoryBytes(),
+                stdout.getWritten() + stderr.getWritten());
+        return new ExecutionResult(ending, stdout.text(StandardCharsets.UTF_8), stderr.text(StandardCharsets.UTF_8),
+                exitCode, compileMillis, usage);
+    }
+    
+    /**
+     * Copies what can be read without blocking.
+     */
+    private static void drain(InputStream stream, BoundedOutput output, byte[] buffer) throws IOException {
+        int available;
+        while ((available = stream.available()) > 0) {
+            int read = stream.read(buffer, 0, Math.min(buffer.length, available));
+            if (read <= 0) return;
+            output.write(buffer, 0, read);
+        }
+    }
+    
+    private static void kill(Process process) throws InterruptedException {
+        // Children first, while they can still be found through their parent
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        process.waitFor();
+    }
+    
+    /**
+     * Precompiles the standard headers into a directory g++ searches first. A
+     * precompiled header is only used when it is the first thing a program
+     * includes, so programs compile exactly as they would without it.
+     */
+    private void precompileHeaders() {
+        try {
+            Path directory = Files.createTempDirectory(workspace(), "pch-");
+            for (String header : PRECOMPILED_HEADERS) {
+                Path source = directory.resolve("sources").resolve(header.replace('/', '_') + ".h");
+                Path output = directory.resolve("include").resolve(header + ".gch");
+                Files.createDirectories(source.getParent());
+                Files.createDirectories(output.getParent());
+                Files.write(source, ("#include <" + header + ">\n").getBytes(StandardCharsets.US_ASCII));
+                
+                List<String> command = new ArrayList<>();
+                command.add(CXX);
+                command.addAll(CXX_FLAGS);
+                command.addAll(Arrays.asList("-x", "c++-header", source.toString(), "-o", output.toString()));
+                Process compiler = new ProcessBuilder(command).redirectErrorStream(true).start();
+                ExecutionResult result = run(compiler, new byte[0], COMPILER_LIMITS, OutputListener.NONE, 0, () -> false);
+                if (result.getStatus() != ExecutionResult.Status.COMPLETED) {
+                    // Not every toolchain has every header; programs then simply compile without it
+                    Files.deleteIfExists(output);
+                }
+            }
+            precompiledHeaders = directory.resolve("include");
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Directory the programs run in, removed when the editor exits.
+     */
+    private synchronized Path workspace() throws IOException {
+        if (workspace == null) {
+            workspace = Files.createTempDirectory("codesphere-run-");
+            Path created = workspace;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteRecursively(created)));
+        }
+        return workspace;
+    }
+    
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Interpreters of one language waiting for a program.
+     */
+    private final class StandbyPool {
+        private final EditorLanguage language;
+        private final List<String> command;
+        private final BlockingQueue<Process> idle = new LinkedBlockingQueue<>();
+        private final AtomicInteger starting = new AtomicInteger();
+        
+        StandbyPool(EditorLanguage language, List<String> command) {
+            this.language = language;
+            this.command = command;
+        }
+        
+        /**
+         * A waiting interpreter, or a new one if none is left.
+         */
+        Process take() throws IOException {
+            Process process;
+            do {
+                process = idle.poll();
+            } while (process != null && !process.isAlive());
+            if (process == null) {
+                Metrics.counter("execution." + language.name().toLowerCase() + ".cold_starts").increment();
+                process = start();
+            }
+            refill();
+            return process;
+        }
+        
+        /**
+         * Starts interpreters in the background until enough are waiting or on their way.
+         */
+        void refill() {
+            while (true) {
+                int pending = starting.get();
+                if (idle.size() + pending >= STANDBY_PROCESSES) return;
+                if (!starting.compareAndSet(pending, pending + 1)) continue;
+                IO.execute(() -> {
+                    try {
+                        idle.add(start());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        starting.decrementAndGet();
+                    }
+                });
+            }
+        }
+        
+        private Process start() throws IOException {
+            ProcessBuilder builder = new ProcessBuilder(command).directory(workspace().toFile());
+            builder.environment().put("PYTHONIOENCODING", "utf-8");
+            builder.environment().put("PYTHONDONTWRITEBYTECODE", "1");
+            return builder.start();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.codesphere.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Samples the processor time and memory of a running process and everything it
+ * started. On Linux both come from {@code /proc}; elsewhere only processor time
+ * is known, from {@link ProcessHandle.Info}. A process's numbers vanish with it,
+ * so whatever it used after the last sample is not counted.
+ */
+final class ProcessStats {
+    private static final Path PROC = Paths.get("/proc");
+    private static final boolean HAS_PROC = Files.isReadable(PROC.resolve("self").resolve("stat"));
+    
+    // The unit of the times in /proc/<pid>/stat; 100 on every mainstream Linux
+    private static final long TICKS_PER_SECOND = 100;
+    
+    // Finding descendants scans every process on the machine, so it is done every few samples
+    private static final int SAMPLES_PER_DESCENDANT_SCAN = 10;
+    
+    private final ProcessHandle process;
+    private final long baselineCpuMillis;
+    private List<ProcessHandle> descendants = new ArrayList<>();
+    private int samples;
+    private long cpuMillis;
+    private long peakMemoryBytes = HAS_PROC ? 0 : -1;
+    
+    /**
+     * Starts counting from what the process has already used, such as a standby
+     * interpreter's start-up.
+     */
+    ProcessStats(ProcessHandle process) {
+        this.process = process;
+        baselineCpuMillis = Math.max(0, cpuMillis(process));
+    }
+    
+    void sample() {
+        if (samples++ % SAMPLES_PER_DESCENDANT_SCAN == 0) {
+            descendants = process.descendants().collect(Collectors.toList());
+        }
+        long cpu = cpuMillis(process);
+        if (cpu < 0) return;
+        String status = HAS_PROC ? read(process, "status") : null;
+        long memory = size(status, "VmRSS:");
+        for (ProcessHandle descendant : descendants) {
+            cpu += Math.max(0, cpuMillis(descendant));
+            if (HAS_PROC) {
+                memory += Math.max(0, size(read(descendant, "status"), "VmRSS:"));
+            }
+        }
+        cpuMillis = Math.max(cpuMillis, cpu - baselineCpuMillis);
+        if (status != null) {
+            // The high-water mark catches a peak between samples, for the process itself at least
+            peakMemoryBytes = Math.max(peakMemoryBytes, Math.max(memory, size(status, "VmHWM:")));
+        }
+    }
+    
+    long getCpuMillis() {
+        return cpuMillis;
+    }
+    
+    /**
+     * The largest resident set seen, or -1 where it cannot be measured.
+     */
+    long getPeakMemoryBytes() {
+        return peakMemoryBytes;
+    }
+    
+    /**
+     * User and system time, with that of the children it has waited for, or -1 once it is gone.
+     */
+    private static long cpuMillis(ProcessHandle process) {
+        if (!HAS_PROC) {
+            return process.info().totalCpuDuration().map(Duration::toMillis).orElse(-1L);
+        }
+        String stat = read(process, "stat");
+        if (stat == null) return -1;
+        // The command name can hold spaces and parentheses; the fields after it cannot
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        // utime, stime, cutime and cstime are fields 14 to 17, counting the pid and name
+        long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12])
+                + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+        return ticks * 1000 / TICKS_PER_SECOND;
+    }
+    
+    /**
+     * A size line of {@code /proc/<pid>/status}, in bytes, or -1 if there is none.
+     */
+    private static long size(String status, String field) {
+        if (status == null) return -1;
+        int start = status.indexOf(field);
+        if (start < 0) return -1;
+        int end = status.indexOf('\n', start);
+        String kilobytes = status.substring(start + field.length(), end < 0 ? status.length() : end).trim();
+        return Long.parseLong(kilobytes.substring(0, kilobytes.indexOf(' '))) * 1024;
+    }
+    
+    private static String read(ProcessHandle process, String file) {
+        try {
+            return new String(Files.readAllBytes(PROC.resolve(Long.toString(process.pid())).resolve(file)), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            // The process has exited
+            return null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorLanguage;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Line lexer driven by one regular expression per language, with groups KEYWORD,
+ * STRING and COMMENT for complete tokens and OPEN for a block comment or
+ * triple-quoted string that continues on the next line. Not thread-safe: the
+ * matcher is reused from line to line.
+ * 
+ * The editor uses {@link StateMachineLexer}; this one is the reference it is
+ * benchmarked against.
+ */
+public class RegexLineLexer implements LineLexer {
+    
+    // Pattern for Java syntax highlighting
+    private static final String JAVA_KEYWORDS = keywords(EditorLanguage.JAVA);
+    private static final String JAVA_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
+    private static final String JAVA_COMMENT_PATTERN = "//.*" + "|" + "/\\*.*?\\*/";
+    private static final Pattern JAVA_PATTERN = Pattern.compile(
+            "(?<KEYWORD>" + JAVA_KEYWORDS + ")"
+            + "|(?<STRING>" + JAVA_STRING_PATTERN + ")"
+            + "|(?<COMMENT>" + JAVA_COMMENT_PATTERN + ")"
+            + "|(?<OPEN>/\\*.*)"
+    );
+    
+    // Pattern for Python syntax highlighting; a quote followed by two more opens a triple-quoted string
+    private static final String PYTHON_KEYWORDS = keywords(EditorLanguage.PYTHON);
+    private static final String PYTHON_STRING_PATTERN = "\"\"\".*?\"\"\"" + "|" + "'''.*?'''" + "|" + "\"(?!\"\")([^\"\\\\]|\\\\.)*\"" + "|" + "'(?!'')([^'\\\\]|\\\\.)*'";
+    private static final String PYTHON_COMMENT_PATTERN = "#.*";
+    private static final Pattern PYTHON_PATTERN = Pattern.compile(
+            "(?<KEYWORD>" + PYTHON_KEYWORDS + ")"
+            + "|(?<STRING>" + PYTHON_STRING_PATTERN + ")"
+            + "|(?<COMMENT>" + PYTHON_COMMENT_PATTERN + ")"
+            + "|(?<OPEN>\"\"\".*|'''.*)"
+    );
+    
+    // Pattern for C++ syntax highlighting
+    private static final String CPP_KEYWORDS = keywords(EditorLanguage.CPP);
+    private static final String CPP_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"";
+    private static final String CPP_COMMENT_PATTERN = "//.*" + "|" + "/\\*.*?\\*/";
+    private static final Pattern CPP_PATTERN = Pattern.compile(
+            "(?<KEYWORD>" + CPP_KEYWORDS + ")"
+            + "|(?<STRING>" + CPP_STRING_PATTERN + ")"
+            + "|(?<COMMENT>" + CPP_COMMENT_PATTERN + ")"
+            + "|(?<OPEN>/\\*.*)"
+    );
+    
+    // Pattern for JavaScript syntax highlighting
+    private static final String JS_KEYWORDS = keywords(EditorLanguage.JAVASCRIPT);
+    private static final String JS_STRING_PATTERN = "\"([^\"\\\\]|\\\\.)*\"" + "|" + "'([^'\\\\]|\\\\.)*'";
+    private static final String JS_COMMENT_PATTERN = "//.*" + "|" + "/\\*.*?\\*/";
+    private static final Pattern JS_PATTERN = Pattern.compile(
+            "(?<KEYWORD>" + JS_KEYWORDS + ")"
+            + "|(?<STRING>" + JS_STRING_PATTERN + ")"
+            + "|(?<COMMENT>" + JS_COMMENT_PATTERN + ")"
+            + "|(?<OPEN>/\\*.*)"
+    );
+    
+    private final Matcher matcher;
+    
+    // State i + 1 means inside a construct opened by openers[i], closed by closers[i] and styled styles[i]
+    private final String[] openers;
+    private final String[] closers;
+    private final String[] styles;
+    
+    private RegexLineLexer(Pattern pattern, String[] openers, String[] closers, String[] styles) {
+        this.matcher = pattern.matcher("");
+        this.openers = openers;
+        this.closers = closers;
+        this.styles = styles;
+    }
+    
+    public static RegexLineLexer forLanguage(EditorLanguage language) {
+        switch (language) {
+            case PYTHON:
+                return new RegexLineLexer(PYTHON_PATTERN,
+                        new String[]{"\"\"\"", "'''"}, new String[]{"\"\"\"", "'''"}, new String[]{STRING, STRING});
+            case CPP:
+                return blockComments(CPP_PATTERN);
+            case JAVASCRIPT:
+                return blockComments(JS_PATTERN);
+            case JAVA:
+            default:
+                return blockComments(JAVA_PATTERN);
+        }
+    }
+    
+    private static String keywords(EditorLanguage language) {
+        return "\\b(" + String.join("|", language.getKeywords()) + ")\\b";
+    }
+    
+    private static RegexLineLexer blockComments(Pattern pattern) {
+        return new RegexLineLexer(pattern, new String[]{"/*"}, new String[]{"*/"}, new String[]{COMMENT});
+    }
+    
+    @Override
+    public int lexLine(CharSequence line, int state, TokenSink sink) {
+        int position = 0;
+        if (state != INITIAL_STATE) {
+            // Finish the construct left open by the previous line
+            int close = indexOf(line, closers[state - 1], 0);
+            if (close < 0) {
+                sink.token(0, line.length(), styles[state - 1]);
+                return state;
+            }
+            position = close + closers[state - 1].length();
+            sink.token(0, position, styles[state - 1]);
+        }
+        
+        matcher.reset(line);
+        matcher.region(position, line.length());
+        // Keep \b seeing the text before the region
+        matcher.useTransparentBounds(true);
+        while (matcher.find()) {
+            if (matcher.start("OPEN") >= 0) {
+                int open = openerAt(line, matcher.start());
+                sink.token(matcher.start(), line.length(), styles[open]);
+                return open + 1;
+            }
+            String styleClass =
+                matcher.start("KEYWORD") >= 0 ? KEYWORD :
+                matcher.start("STRING") >= 0 ? STRING :
+                COMMENT;
+            sink.token(matcher.start(), matcher.end(), styleClass);
+        }
+        return INITIAL_STATE;
+    }
+    
+    private int openerAt(CharSequence line, int position) {
+        for (int i = 0; i < openers.length; i++) {
+            if (startsWith(line, openers[i], position)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No opener at " + position);
+    }
+    
+    private static int indexOf(CharSequence text, String token, int from) {
+        for (int i = from; i <= text.length() - token.length(); i++) {
+            if (startsWith(text, token, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean startsWith(CharSequence text, String token, int position) {
+        if (position + token.length() > text.length()) {
+            return false;
+        }
+        for (int j = 0; j < token.length(); j++) {
+            if (text.charAt(position + j) != token.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,29 @@
+package com.codesphere.services;
+
+import com.codesphere.models.CollaborationEvent;
+import com.codesphere.models.DocumentSnapshot;
+import com.codesphere.models.EditorChange;
+
+/**
+ * A session taking part in a {@link CollaborationRoom}, either a client in this
+ * JVM or a WebSocket connection held by the collaboration hub
+ */
+public interface RoomMember {
+    int getSessionId();
+    
+    /**
+     * Called once when the member opens the shared document, before any sequenced
+     * change is delivered to it.
+     */
+    void onSnapshot(DocumentSnapshot snapshot);
+    
+    /**
+     * Receives every sequenced change in revision order, including the member's own.
+     */
+    void onEditorChange(EditorChange change);
+    
+    /**
+     * Receives the events published by the other members of the room.
+     */
+    void onEvent(CollaborationEvent event);
+}
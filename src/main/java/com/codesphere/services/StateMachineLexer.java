@@ -0,0 +1,270 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorLanguage;
+
+import java.util.List;
+
+/**
+ * Single-pass line lexer: one table lookup per character decides what a token
+ * starting there can be, and keywords are recognised by walking a trie over the
+ * identifier in place. Gives the same tokens as {@link RegexLineLexer} in time
+ * linear in the line length, without backtracking or allocating per token.
+ * Instances are immutable and can be shared.
+ */
+public class StateMachineLexer implements LineLexer {
+    
+    // What a character can start, per language
+    private static final byte OTHER = 0;
+    private static final byte WORD = 1;
+    private static final byte DOUBLE_QUOTE = 2;
+    private static final byte SINGLE_QUOTE = 3;
+    private static final byte SLASH = 4;
+    private static final byte HASH = 5;
+    
+    // Multi-line states, numbered like RegexLineLexer's
+    private static final int IN_BLOCK_COMMENT = 1;
+    private static final int IN_TRIPLE_DOUBLE = 1;
+    private static final int IN_TRIPLE_SINGLE = 2;
+    
+    private static final StateMachineLexer JAVA = new StateMachineLexer(EditorLanguage.JAVA, false, false);
+    private static final StateMachineLexer PYTHON = new StateMachineLexer(EditorLanguage.PYTHON, true, true);
+    private static final StateMachineLexer CPP = new StateMachineLexer(EditorLanguage.CPP, false, false);
+    private static final StateMachineLexer JAVASCRIPT = new StateMachineLexer(EditorLanguage.JAVASCRIPT, true, false);
+    
+    private final byte[] actions = new byte[128];
+    private final KeywordTrie keywords;
+    private final boolean python;
+    
+    private StateMachineLexer(EditorLanguage language, boolean singleQuotedStrings, boolean python) {
+        this.keywords = new KeywordTrie(language.getKeywords());
+        this.python = python;
+        for (char c = 0; c < 128; c++) {
+            if (isAsciiWordChar(c)) {
+                actions[c] = WORD;
+            }
+        }
+        actions['"'] = DOUBLE_QUOTE;
+        if (singleQuotedStrings) {
+            actions['\''] = SINGLE_QUOTE;
+        }
+        if (python) {
+            actions['#'] = HASH;
+        } else {
+            actions['/'] = SLASH;
+        }
+    }
+    
+    public static StateMachineLexer forLanguage(EditorLanguage language) {
+        switch (language) {
+            case PYTHON:
+                return PYTHON;
+            case CPP:
+                return CPP;
+            case JAVASCRIPT:
+                return JAVASCRIPT;
+            case JAVA:
+            default:
+                return JAVA;
+        }
+    }
+    
+    @Override
+    public int lexLine(CharSequence line, int state, TokenSink sink) {
+        int length = line.length();
+        int i = 0;
+        if (state != INITIAL_STATE) {
+            // Finish the construct left open by the previous line
+            String closer = closerOf(state);
+            int close = indexOf(line, closer, 0);
+            String style = python ? STRING : COMMENT;
+            if (close < 0) {
+                sink.token(0, length, style);
+                return state;
+            }
+            i = close + closer.length();
+            sink.token(0, i, style);
+        }
+        
+        // Once a quote finds no closing quote, no later quote of that kind on the line will either
+        boolean doubleUnterminated = false;
+        boolean singleUnterminated = false;
+        
+        while (i < length) {
+            char c = line.charAt(i);
+            byte action = c < 128 ? actions[c] : Character.isLetterOrDigit(c) ? WORD : OTHER;
+            switch (action) {
+                case WORD: {
+                    int end = i + 1;
+                    while (end < length && isWordChar(line.charAt(end))) {
+                        end++;
+                    }
+                    if (keywords.contains(line, i, end)) {
+                        sink.token(i, end, KEYWORD);
+                    }
+                    i = end;
+                    break;
+                }
+                case DOUBLE_QUOTE:
+                case SINGLE_QUOTE: {
+                    if (python && startsWithTriple(line, i, c)) {
+                        String triple = c == '"' ? "\"\"\"" : "'''";
+                        int close = indexOf(line, triple, i + 3);
+                        if (close < 0) {
+                            sink.token(i, length, STRING);
+                            return c == '"' ? IN_TRIPLE_DOUBLE : IN_TRIPLE_SINGLE;
+                        }
+                        sink.token(i, close + 3, STRING);
+                        i = close + 3;
+                        break;
+                    }
+                    boolean unterminated = c == '"' ? doubleUnterminated : singleUnterminated;
+                    int end = unterminated ? -1 : stringEnd(line, i, c);
+                    if (end < 0) {
+                        if (c == '"') {
+                            doubleUnterminated = true;
+                        } else {
+                            singleUnterminated = true;
+                        }
+                        i++;
+                        break;
+                    }
+                    sink.token(i, end, STRING);
+                    i = end;
+                    break;
+                }
+                case SLASH: {
+                    char next = i + 1 < length ? line.charAt(i + 1) : 0;
+                    if (next == '/') {
+                        sink.token(i, length, COMMENT);
+                        return INITIAL_STATE;
+                    }
+                    if (next == '*') {
+                        int close = indexOf(line, "*/", i + 2);
+                        if (close < 0) {
+                            sink.token(i, length, COMMENT);
+                            return IN_BLOCK_COMMENT;
+                        }
+                        sink.token(i, close + 2, COMMENT);
+                        i = close + 2;
+                        break;
+                    }
+                    i++;
+                    break;
+                }
+                case HASH:
+                    sink.token(i, length, COMMENT);
+                    return INITIAL_STATE;
+                default:
+                    i++;
+            }
+        }
+        return INITIAL_STATE;
+    }
+    
+    private String closerOf(int state) {
+        if (!python) {
+            return "*/";
+        }
+        return state == IN_TRIPLE_DOUBLE ? "\"\"\"" : "'''";
+    }
+    
+    /**
+     * Returns the offset past the quote closing the string opened at {@code start},
+     * or -1 if the line ends first.
+     */
+    private static int stringEnd(CharSequence line, int start, char quote) {
+        int length = line.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = line.charAt(i);
+            if (c == quote) {
+                return i + 1;
+            }
+            if (c == '\\') {
+                // An escape needs a character to escape
+                if (i + 1 == length) {
+                    return -1;
+                }
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean startsWithTriple(CharSequence line, int i, char quote) {
+        return i + 2 < line.length() && line.charAt(i + 1) == quote && line.charAt(i + 2) == quote;
+    }
+    
+    private static int indexOf(CharSequence text, String token, int from) {
+        char first = token.charAt(0);
+        int last = text.length() - token.length();
+        for (int i = from; i <= last; i++) {
+            if (text.charAt(i) != first) continue;
+            int j = 1;
+            while (j < token.length() && text.charAt(i + j) == token.charAt(j)) {
+                j++;
+            }
+            if (j == token.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static boolean isAsciiWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+    
+    private static boolean isWordChar(char c) {
+        return c < 128 ? isAsciiWordChar(c) : Character.isLetterOrDigit(c);
+    }
+    
+    /**
+     * Trie over lowercase ASCII letters, flattened into one array of child indexes.
+     */
+    private static final class KeywordTrie {
+        private static final int ALPHABET = 26;
+        
+        private final int[] children;
+        private final boolean[] terminal;
+        
+        KeywordTrie(List<String> words) {
+            int maxNodes = 1;
+            for (String word : words) {
+                maxNodes += word.length();
+            }
+            children = new int[maxNodes * ALPHABET];
+            terminal = new boolean[maxNodes];
+            
+            int nodes = 1;
+            for (String word : words) {
+                int node = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    int slot = node * ALPHABET + (word.charAt(i) - 'a');
+                    if (children[slot] == 0) {
+                        children[slot] = nodes++;
+                    }
+                    node = children[slot];
+                }
+                terminal[node] = true;
+            }
+        }
+        
+        boolean contains(CharSequence text, int start, int end) {
+            int node = 0;
+            for (int i = start; i < end; i++) {
+                int letter = text.charAt(i) - 'a';
+                if (letter < 0 || letter >= ALPHABET) {
+                    return false;
+                }
+                node = children[node * ALPHABET + letter];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
+    }
+}
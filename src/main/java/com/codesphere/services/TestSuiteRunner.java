@@ -0,0 +1,163 @@
+package com.codesphere.services;
+
+import com.codesphere.models.ExecutionRequest;
+import com.codesphere.models.ExecutionResult;
+import com.codesphere.models.TestCase;
+import com.codesphere.models.TestCaseResult;
+import com.codesphere.models.TestSuiteResult;
+import com.codesphere.services.ExecutionScheduler.QueueListener;
+import com.codesphere.services.ExecutionScheduler.ScheduledRun;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs one program against many inputs. The program is compiled once, then
+ * every case is forked as its own run, so the cases spread over all runners
+ * while still taking the user's fair share of them. Results are reported as
+ * each case finishes, in whatever order that is.
+ */
+public class TestSuiteRunner {
+    
+    /**
+     * Told about each case as it finishes, on the thread that ran it.
+     */
+    public interface CaseListener {
+        void finished(TestCaseResult result);
+    }
+    
+    private final ExecutionScheduler scheduler;
+    
+    public TestSuiteRunner(ExecutionScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Compiles and runs the program once per case, as the user's latest run in
+     * the room, so running anything else cancels the whole suite.
+     * 
+     * @param program the language, source and limits; its standard input is replaced by each case's
+     * @param stopAtFirstFailure whether to cancel the remaining cases once one fails
+     * @param queue told about the compile step's place in the queue
+     */
+    public CompletableFuture<TestSuiteResult> run(String room, String user, ExecutionBackend backend, ExecutionRequest program,
+                                                  List<TestCase> cases, boolean stopAtFirstFailure,
+                                                  QueueListener queue, CaseListener listener) {
+        long startNanos = System.nanoTime();
+        ScheduledRun<ExecutionResult> compile = scheduler.submit(room, user,
+                cancellation -> backend.prepare(program, cancellation), queue);
+        return compile.getResult().thenCompose(compileError -> {
+            if (compileError != null || cases.isEmpty()) {
+                return CompletableFuture.completedFuture(
+                        new TestSuiteResult(compileError, new ArrayList<>(), false, millisSince(startNanos)));
+            }
+            
+            List<ScheduledRun<TestCaseResult>> runs = new ArrayList<>(cases.size());
+            for (int i = 0; i < cases.size(); i++) {
+                int index = i;
+                TestCase testCase = cases.get(i);
+                ExecutionRequest request = new ExecutionRequest(program.getLanguage(), program.getSource(),
+                        testCase.getStdin(), program.getTimeoutMillis(), program.getOutputLimitBytes(),
+                        program.getCpuLimitMillis(), program.getMemoryLimitBytes());
+                runs.add(compile.fork(cancellation -> {
+                    ExecutionResult result = backend.execute(request, cancellation);
+                    return new TestCaseResult(index, testCase, result, passed(testCase, result));
+                }, QueueListener.NONE));
+            }
+            
+            // Only once every case is queued, so stopping can cancel them all
+            CompletableFuture<TestSuiteResult> suite = new CompletableFuture<>();
+            TestCaseResult[] results = new TestCaseResult[cases.size()];
+            AtomicBoolean stopped = new AtomicBoolean();
+            AtomicInteger remaining = new AtomicInteger(cases.size());
+            for (ScheduledRun<TestCaseResult> run : runs) {
+                run.getResult().whenComplete((result, error) -> {
+                    if (result != null) {
+                        results[result.getIndex()] = result;
+                        listener.finished(result);
+                        if (!result.isPassed() && stopAtFirstFailure && stopped.compareAndSet(false, true)) {
+                            runs.forEach(ScheduledRun::cancel);
+                        }
+                    } else if (!(error instanceof CancellationException)) {
+                        // The backend failed rather than the program; the suite cannot be trusted
+                        suite.completeExceptionally(error);
+                        runs.forEach(ScheduledRun::cancel);
+                    }
+                    if (remaining.decrementAndGet() > 0) return;
+                    
+                    List<TestCaseResult> finished = new ArrayList<>(results.length);
+                    for (TestCaseResult each : results) {
+                        if (each != null) finished.add(each);
+                    }
+                    if (finished.size() < results.length && !stopped.get()) {
+                        // Cancelled from outside, by a newer run
+                        suite.completeExceptionally(new CancellationException());
+                    } else {
+                        suite.complete(new TestSuiteResult(null, finished, stopped.get(), millisSince(startNanos)));
+                    }
+                });
+            }
+            return suite;
+        });
+    }
+    
+    /**
+     * Reads a directory of cases: every {@code name.in} is a case's input, and
+     * {@code name.out}, if there is one, its expected output. Cases are in name order.
+     */
+    public static List<TestCase> loadCases(Path directory) throws IOException {
+        List<Path> inputs;
+        try (Stream<Path> files = Files.list(directory)) {
+            inputs = files.filter(file -> file.getFileName().toString().endsWith(".in"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<TestCase> cases = new ArrayList<>(inputs.size());
+        for (Path input : inputs) {
+            String file = input.getFileName().toString();
+            String name = file.substring(0, file.length() - ".in".length());
+            Path output = directory.resolve(name + ".out");
+            cases.add(new TestCase(name, new String(Files.readAllBytes(input), StandardCharsets.UTF_8),
+                    Files.exists(output) ? new String(Files.readAllBytes(output), StandardCharsets.UTF_8) : null));
+        }
+        return cases;
+    }
+    
+    /**
+     * A case passes if the program exits normally and, when an output is expected,
+     * prints it; spaces at the ends of lines and blank lines at the end don't count.
+     */
+    static boolean passed(TestCase testCase, ExecutionResult result) {
+        if (result.getStatus() != ExecutionResult.Status.COMPLETED || result.getExitCode() != 0) {
+            return false;
+        }
+        return testCase.getExpectedOutput() == null
+                || normalize(testCase.getExpectedOutput()).equals(normalize(result.getStdout()));
+    }
+    
+    private static String normalize(String output) {
+        StringBuilder normalized = new StringBuilder(output.length());
+        for (String line : output.split("\r?\n", -1)) {
+            normalized.append(line.stripTrailing()).append('\n');
+        }
+        int end = normalized.length();
+        while (end > 0 && normalized.charAt(end - 1) == '\n') {
+            end--;
+        }
+        return normalized.substring(0, end);
+    }
+    
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,405 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorChange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a replacement of one text by another into the edits that actually differ,
+ * so a new version of a document can be applied, undone and sent to collaborators
+ * in proportion to what changed rather than to its size.
+ * 
+ * Lines are compared with Myers' O(ND) algorithm in its linear-space form, which
+ * bisects on the middle snake of the edit graph instead of keeping the whole trace.
+ * Each changed run of lines is then narrowed to the characters that differ.
+ * Searches are bounded: far apart regions are split where the search got furthest,
+ * and once the work budget is spent whatever is left comes out as one large edit.
+ */
+public class TextDiff {
+    
+    // Edits searched for a middle snake before settling for the furthest point reached
+    private static final int MAX_DISTANCE = 1024;
+    // Diagonals explored in one diff before the rest is replaced wholesale
+    private static final long MAX_WORK = 20_000_000L;
+    
+    private TextDiff() {
+    }
+    
+    /**
+     * Returns the edits turning {@code before} into {@code after}, in document order,
+     * not overlapping, with offsets into {@code before}; apply them back to front, or
+     * front to back shifting each by the length change of the ones before.
+     */
+    public static List<EditorChange> diff(CharSequence before, CharSequence after) {
+        List<EditorChange> edits = new ArrayList<>();
+        
+        // Most diffs are a small change in a large text: only split the middle into lines
+        int prefix = 0;
+        int maxPrefix = Math.min(before.length(), after.length());
+        while (prefix < maxPrefix && before.charAt(prefix) == after.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == before.length() && prefix == after.length()) {
+            return edits;
+        }
+        while (prefix > 0 && before.charAt(prefix - 1) != '\n') {
+            prefix--;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && before.charAt(before.length() - suffix - 1) == after.charAt(after.length() - suffix - 1)) {
+            suffix++;
+        }
+        // Keep the common suffix from its first full line, so both middles end in a line break
+        while (suffix > 0 && before.charAt(before.length() - suffix) != '\n') {
+            suffix--;
+        }
+        if (suffix > 0) {
+            suffix--;
+        }
+        
+        LineTable lineIds = new LineTable();
+        int[] beforeStarts = lineStarts(before, prefix, before.length() - suffix);
+        int[] afterStarts = lineStarts(after, prefix, after.length() - suffix);
+        int[] beforeLines = lineIds(before, beforeStarts, lineIds);
+        int[] afterLines = lineIds(after, afterStarts, lineIds);
+        
+        List<int[]> hunks = new ArrayList<>();
+        new Myers(beforeLines, afterLines, hunks).diff(0, beforeLines.length, 0, afterLines.length);
+        
+        for (int[] hunk : hunks) {
+            addEdit(edits, before, beforeStarts[hunk[0]], beforeStarts[hunk[1]],
+                    after, afterStarts[hunk[2]], afterStarts[hunk[3]]);
+        }
+        return edits;
+    }
+    
+    /**
+     * Shifts edits given in document order with offsets into one text, such as those of
+     * {@link #diff} or {@link CodeFormatter}, so each has offsets into the text the ones
+     * before it leave, for applying them one at a time, front to back, as the editor
+     * change listeners do. An editor multi-change's {@code replaceText} takes the
+     * original offsets and must not be given these.
+     */
+    public static List<EditorChange> inSequence(List<EditorChange> edits) {
+        List<EditorChange> shifted = new ArrayList<>(edits.size());
+        int shift = 0;
+        for (EditorChange edit : edits) {
+            shifted.add(new EditorChange(edit.getStartPosition() + shift, edit.getEndPosition() + shift,
+                    edit.getInsertedText(), edit.getRemovedText()));
+            shift += edit.getInsertedText().length() - (edit.getEndPosition() - edit.getStartPosition());
+        }
+        return shifted;
+    }
+    
+    /**
+     * Moves edits given in document order with offsets into one text, such as those of
+     * {@link CodeFormatter}, past the changes made to that text since, given in the
+     * order they were made. An edit whose range one of the changes touched is dropped,
+     * since it was worked out for text that is no longer there.
+     * 
+     * @return the edits that still apply, in document order with offsets into the changed text
+     */
+    public static List<EditorChange> rebase(List<EditorChange> edits, List<EditorChange> changes) {
+        List<EditorChange> rebased = new ArrayList<>(edits.size());
+        for (EditorChange edit : edits) {
+            int start = edit.getStartPosition();
+            int end = edit.getEndPosition();
+            boolean touched = false;
+            for (EditorChange change : changes) {
+                if (change.getEndPosition() <= start) {
+                    int delta = change.getInsertedLength() - (change.getEndPosition() - change.getStartPosition());
+                    start += delta;
+                    end += delta;
+                } else if (change.getStartPosition() < end) {
+                    touched = true;
+                    break;
+                }
+            }
+            if (!touched) {
+                rebased.add(new EditorChange(start, end, edit.getInsertedText(), edit.getRemovedText()));
+            }
+        }
+        return rebased;
+    }
+    
+    /**
+     * Offsets of the lines in {@code [from, to)}, each including its line break,
+     * plus {@code to} as the end of the last one.
+     */
+    private static int[] lineStarts(CharSequence text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        if (to > from && text.charAt(to - 1) != '\n') count++;
+        
+        int[] starts = new int[count + 1];
+        int line = 0;
+        starts[0] = from;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n' && i + 1 < to) {
+                starts[++line] = i + 1;
+            }
+        }
+        starts[count] = to;
+        return starts;
+    }
+    
+    private static int[] lineIds(CharSequence text, int[] starts, LineTable table) {
+        int[] lines = new int[starts.length - 1];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = table.intern(text, starts[i], starts[i + 1]);
+        }
+        return lines;
+    }
+    
+    /**
+     * Adds the edit replacing {@code before[start, end)} with {@code after[afterStart, afterEnd)},
+     * narrowed to the characters that differ.
+     */
+    private static void addEdit(List<EditorChange> edits, CharSequence before, int start, int end,
+                                CharSequence after, int afterStart, int afterEnd) {
+        while (start < end && afterStart < afterEnd && before.charAt(start) == after.charAt(afterStart)) {
+            start++;
+            afterStart++;
+        }
+        while (end > start && afterEnd > afterStart && before.charAt(end - 1) == after.charAt(afterEnd - 1)) {
+            end--;
+            afterEnd--;
+        }
+        edits.add(new EditorChange(start, end,
+                after.subSequence(afterStart, afterEnd).toString(),
+                before.subSequence(start, end).toString()));
+    }
+    
+    /**
+     * Numbers distinct lines, equal lines getting the same id, without copying them
+     * out of the text they are in.
+     */
+    private static final class LineTable {
+        private int[] slots = new int[1024];
+        private int[] hashes = new int[256];
+        private CharSequence[] texts = new CharSequence[256];
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int size;
+        
+        int intern(CharSequence text, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            int mask = slots.length - 1;
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int id = slots[slot] - 1;
+                if (id < 0) {
+                    return add(slot, hash, text, start, end);
+                }
+                if (hashes[id] == hash && equal(id, text, start, end)) {
+                    return id;
+                }
+            }
+        }
+        
+        private boolean equal(int id, CharSequence text, int start, int end) {
+            int length = end - start;
+            if (ends[id] - starts[id] != length) return false;
+            CharSequence other = texts[id];
+            int otherStart = starts[id];
+            for (int i = 0; i < length; i++) {
+                if (other.charAt(otherStart + i) != text.charAt(start + i)) return false;
+            }
+            return true;
+        }
+        
+        private int add(int slot, int hash, CharSequence text, int start, int end) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            int id = size++;
+            hashes[id] = hash;
+            texts[id] = text;
+            starts[id] = start;
+            ends[id] = end;
+            slots[slot] = id + 1;
+            // Keep the table at most half full
+            if (size * 2 > slots.length) {
+                slots = new int[slots.length * 2];
+                int mask = slots.length - 1;
+                for (int i = 0; i < size; i++) {
+                    int free = mix(hashes[i]) & mask;
+                    while (slots[free] != 0) {
+                        free = (free + 1) & mask;
+                    }
+                    slots[free] = i + 1;
+                }
+            }
+            return id;
+        }
+        
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+    
+    /**
+     * Linear-space Myers over two sequences of line ids, collecting the changed
+     * regions as {@code {beforeStart, beforeEnd, afterStart, afterEnd}} in order.
+     */
+    private static final class Myers {
+        private final int[] a;
+        private final int[] b;
+        private final List<int[]> hunks;
+        private int[] forward = new int[0];
+        private int[] reverse = new int[0];
+        private int splitX;
+        private int splitY;
+        private long work;
+        
+        Myers(int[] a, int[] b, List<int[]> hunks) {
+            this.a = a;
+            this.b = b;
+            this.hunks = hunks;
+        }
+        
+        void diff(int aStart, int aEnd, int bStart, int bEnd) {
+            // The second half is looped over rather than recursed into, keeping the stack shallow
+            while (true) {
+                while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+                    aStart++;
+                    bStart++;
+                }
+                while (aEnd > aStart && bEnd > bStart && a[aEnd - 1] == b[bEnd - 1]) {
+                    aEnd--;
+                    bEnd--;
+                }
+                if (aStart == aEnd && bStart == bEnd) return;
+                if (aStart == aEnd || bStart == bEnd || !middleSnake(aStart, aEnd, bStart, bEnd)) {
+                    addHunk(aStart, aEnd, bStart, bEnd);
+                    return;
+                }
+                int x = splitX;
+                int y = splitY;
+                diff(aStart, x, bStart, y);
+                aStart = x;
+                bStart = y;
+            }
+        }
+        
+        /**
+         * Runs the forward and reverse searches, one more edit at a time, until their
+         * furthest reaching paths overlap, and leaves a point on the overlap in
+         * {@link #splitX} and {@link #splitY}. Past {@link #MAX_DISTANCE} edits it
+         * settles for the furthest point the forward search reached instead.
+         * 
+         * @return false if there is no point to split at, or the work budget is spent
+         */
+        private boolean middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+            int n = aEnd - aStart;
+            int m = bEnd - bStart;
+            int maxD = Math.min((n + m + 1) / 2, MAX_DISTANCE);
+            int offset = maxD;
+            int size = 2 * maxD + 2;
+            if (forward.length < size) {
+                forward = new int[size];
+                reverse = new int[size];
+            }
+            Arrays.fill(forward, 0, size, -1);
+            Arrays.fill(reverse, 0, size, -1);
+            forward[offset + 1] = 0;
+            reverse[offset + 1] = 0;
+            int delta = n - m;
+            // With an odd delta the forward path is the one to reach the overlap first
+            boolean forwardMeets = (delta & 1) != 0;
+            
+            // Diagonals dropped off either end of the edit graph
+            int forwardLow = 0;
+            int forwardHigh = 0;
+            int reverseLow = 0;
+            int reverseHigh = 0;
+            int furthestX = 0;
+            int furthestY = 0;
+            for (int d = 0; d < maxD; d++) {
+                work += 2 * d + 2;
+                if (work > MAX_WORK) return false;
+                
+                // Diagonal k holds the furthest x reached on it, where k = x - y
+                for (int k = -d + forwardLow; k <= d - forwardHigh; k += 2) {
+                    int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                            ? forward[offset + k + 1]
+                            : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + k] = x;
+                    if (x > n) {
+                        forwardHigh += 2;
+                    } else if (y > m) {
+                        forwardLow += 2;
+                    } else if (x + y > furthestX + furthestY) {
+                        furthestX = x;
+                        furthestY = y;
+                    }
+                    if (x <= n && y <= m && forwardMeets) {
+                        int reverseK = offset + delta - k;
+                        if (reverseK >= 0 && reverseK < size && reverse[reverseK] != -1 && x >= n - reverse[reverseK]) {
+                            splitX = aStart + x;
+                            splitY = bStart + y;
+                            return true;
+                        }
+                    }
+                }
+                // The same from the ends of both sequences backwards
+                for (int k = -d + reverseLow; k <= d - reverseHigh; k += 2) {
+                    int x = k == -d || (k != d && reverse[offset + k - 1] < reverse[offset + k + 1])
+                            ? reverse[offset + k + 1]
+                            : reverse[offset + k - 1] + 1;
+                    int y = x - k;
+                    while (x < n && y < m && a[aEnd - x - 1] == b[bEnd - y - 1]) {
+                        x++;
+                        y++;
+                    }
+                    reverse[offset + k] = x;
+                    if (x > n) {
+                        reverseHigh += 2;
+                    } else if (y > m) {
+                        reverseLow += 2;
+                    } else if (!forwardMeets) {
+                        int forwardK = offset + delta - k;
+                        if (forwardK >= 0 && forwardK < size && forward[forwardK] != -1) {
+                            int forwardX = forward[forwardK];
+                            if (forwardX >= n - x) {
+                                splitX = aStart + forwardX;
+                                splitY = bStart + forwardX - (forwardK - offset);
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            if (furthestX + furthestY == 0 || furthestX + furthestY == n + m) return false;
+            splitX = aStart + furthestX;
+            splitY = bStart + furthestY;
+            return true;
+        }
+        
+        private void addHunk(int aStart, int aEnd, int bStart, int bEnd) {
+            int[] last = hunks.isEmpty() ? null : hunks.get(hunks.size() - 1);
+            if (last != null && last[1] == aStart && last[3] == bStart) {
+                last[1] = aEnd;
+                last[3] = bEnd;
+            } else {
+                hunks.add(new int[]{aStart, aEnd, bStart, bEnd});
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.codesphere.services;
+
+import com.codesphere.models.ResourceUsage;
+
+/**
+ * Records what runs used as {@code <prefix>.cpu_us}, {@code <prefix>.peak_memory_kb}
+ * and {@code <prefix>.output_bytes}, for whichever of them the backend could measure.
+ */
+final class UsageMetrics {
+    
+    private UsageMetrics() {
+    }
+    
+    static void record(String prefix, ResourceUsage usage) {
+        if (usage.getCpuMillis() != ResourceUsage.UNKNOWN) {
+            Metrics.histogram(prefix + ".cpu_us").record(usage.getCpuMillis() * 1000);
+        }
+        if (usage.getPeakMemoryBytes() != ResourceUsage.UNKNOWN) {
+            Metrics.histogram(prefix + ".peak_memory_kb").record(usage.getPeakMemoryBytes() / 1024);
+        }
+        if (usage.getOutputBytes() != ResourceUsage.UNKNOWN) {
+            Metrics.histogram(prefix + ".output_bytes").record(usage.getOutputBytes());
+        }
+    }
+}
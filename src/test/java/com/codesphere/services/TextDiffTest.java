@@ -0,0 +1,100 @@
+package com.codesphere.services;
+
+import com.codesphere.models.EditorChange;
+import com.codesphere.models.EditorLanguage;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextDiffTest {
+    
+    private static final String UNFORMATTED = "public class Main {\n" +
+            "public static void main(String[] args) {\n" +
+            "  int total = 0;   \n" +
+            "      for (int i = 0; i < 10; i++) { total += i; }\n" +
+            "System.out.println(\"{ \" + total);\n" +
+            "}\n" +
+            "}";
+    
+    @Test
+    void formattingEditsGiveTheSameTextHoweverTheyAreApplied() {
+        List<EditorChange> edits = CodeFormatter.forLanguage(EditorLanguage.JAVA).format(UNFORMATTED);
+        assertTrue(edits.size() > 1, "several edits");
+        
+        String expected = applyBackToFront(UNFORMATTED, edits);
+        assertEquals(expected, applyAsMultiChange(UNFORMATTED, edits));
+        assertEquals(expected, applyOneAtATime(UNFORMATTED, TextDiff.inSequence(edits)));
+    }
+    
+    @Test
+    void multiHunkDiffGivesTheNewTextHoweverItIsApplied() {
+        String before = "a\nb\nc\nd\ne\nf\ng\nh\n";
+        String after = "a\nB longer\nc\nd\ne\nf\n\ng\nh\nend\n";
+        List<EditorChange> edits = TextDiff.diff(before, after);
+        assertTrue(edits.size() > 1, "several hunks");
+        
+        assertEquals(after, applyBackToFront(before, edits));
+        assertEquals(after, applyAsMultiChange(before, edits));
+        assertEquals(after, applyOneAtATime(before, TextDiff.inSequence(edits)));
+    }
+    
+    @Test
+    void inSequenceShiftsByTheEditsBefore() {
+        List<EditorChange> edits = Arrays.asList(new EditorChange(1, 2, "XXX", "b"), new EditorChange(4, 5, "Y", "e"));
+        List<EditorChange> shifted = TextDiff.inSequence(edits);
+        
+        assertEquals(1, shifted.get(0).getStartPosition());
+        assertEquals(6, shifted.get(1).getStartPosition());
+        assertEquals(7, shifted.get(1).getEndPosition());
+        assertEquals("aXXXcdYf", applyOneAtATime("abcdef", shifted));
+        assertEquals("aXXXcdYf", applyAsMultiChange("abcdef", edits));
+    }
+    
+    @Test
+    void rebaseMovesEditsPastLaterChangesAndDropsTouchedOnes() {
+        // Edits worked out for "abcdef": replace "b", "d" and "f"
+        List<EditorChange> edits = Arrays.asList(new EditorChange(1, 2, "B", "b"),
+                new EditorChange(3, 4, "D", "d"), new EditorChange(5, 6, "F", "f"));
+        // Meanwhile "xy" was typed at the start and "d" deleted
+        List<EditorChange> changes = Arrays.asList(new EditorChange(0, 0, "xy", ""),
+                new EditorChange(5, 6, "", "d"));
+        List<EditorChange> rebased = TextDiff.rebase(edits, changes);
+        
+        assertEquals(2, rebased.size());
+        assertEquals("xyaBceF", applyAsMultiChange("xyabcef", rebased));
+    }
+    
+    // What the editor's MultiChangeBuilder.replaceText does: offsets into the text before
+    // the change, each moved by the length change of the replacements added before it
+    private static String applyAsMultiChange(String text, List<EditorChange> edits) {
+        StringBuilder result = new StringBuilder(text);
+        int shift = 0;
+        for (EditorChange edit : edits) {
+            result.replace(edit.getStartPosition() + shift, edit.getEndPosition() + shift, edit.getInsertedText());
+            shift += edit.getInsertedText().length() - (edit.getEndPosition() - edit.getStartPosition());
+        }
+        return result.toString();
+    }
+    
+    // What the editor change listeners do: each edit to the text the previous ones left
+    private static String applyOneAtATime(String text, List<EditorChange> edits) {
+        StringBuilder result = new StringBuilder(text);
+        for (EditorChange edit : edits) {
+            result.replace(edit.getStartPosition(), edit.getEndPosition(), edit.getInsertedText());
+        }
+        return result.toString();
+    }
+    
+    private static String applyBackToFront(String text, List<EditorChange> edits) {
+        StringBuilder result = new StringBuilder(text);
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            EditorChange edit = edits.get(i);
+            result.replace(edit.getStartPosition(), edit.getEndPosition(), edit.getInsertedText());
+        }
+        return result.toString();
+    }
+}